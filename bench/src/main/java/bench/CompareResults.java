@@ -0,0 +1,119 @@
+package bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH result files written with {@code -rf json} and reports
+ * every benchmark whose score changed by more than a threshold beyond the
+ * error bounds of both runs. Exits with status 1 if any benchmark got slower,
+ * so it can gate a build.
+ *
+ * Usage: java -cp bench/target/benchmarks.jar bench.CompareResults baseline.json current.json [threshold]
+ * The threshold is a fraction, 0.10 by default.
+ */
+public class CompareResults {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: CompareResults baseline.json current.json [threshold]");
+			System.exit(2);
+		}
+		double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+		Map<String, JsonObject> baseline = read(args[0]);
+		Map<String, JsonObject> current = read(args[1]);
+
+		int regressions = 0;
+		System.out.printf(Locale.ROOT, "%-60s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+		for (Map.Entry<String, JsonObject> entry : current.entrySet()) {
+			JsonObject before = baseline.get(entry.getKey());
+			if (before == null) {
+				System.out.printf(Locale.ROOT, "%-60s %14s %14.3f %9s%n", entry.getKey(), "-", score(entry.getValue()), "new");
+				continue;
+			}
+			JsonObject after = entry.getValue();
+			// throughput is better higher, the time modes lower
+			boolean higherIsBetter = "thrpt".equals(after.get("mode").getAsString());
+			double change = (score(after) - score(before)) / score(before);
+			double worse = higherIsBetter ? -change : change;
+			// only a change beyond both error bounds counts
+			boolean significant = higherIsBetter
+					? score(after) + error(after) < score(before) - error(before)
+					: score(after) - error(after) > score(before) + error(before);
+			boolean significantGain = higherIsBetter
+					? score(after) - error(after) > score(before) + error(before)
+					: score(after) + error(after) < score(before) - error(before);
+			String verdict = "";
+			if (worse > threshold && significant) {
+				verdict = "  SLOWER";
+				regressions++;
+			} else if (-worse > threshold && significantGain) {
+				verdict = "  faster";
+			}
+			System.out.printf(Locale.ROOT, "%-60s %14.3f %14.3f %+8.1f%%%s%n", entry.getKey(), score(before), score(after),
+					change * 100, verdict);
+		}
+		for (String name : baseline.keySet()) {
+			if (!current.containsKey(name)) {
+				System.out.printf(Locale.ROOT, "%-60s %14.3f %14s %9s%n", name, score(baseline.get(name)), "-", "gone");
+			}
+		}
+		if (regressions > 0) {
+			System.out.println(regressions + " benchmark(s) slower by more than " + Math.round(threshold * 100) + "%");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @param path of a JMH json result file
+	 * @return the results by benchmark name and parameters
+	 * @throws IOException if the file can't be read
+	 */
+	private static Map<String, JsonObject> read(String path) throws IOException {
+		Map<String, JsonObject> results = new LinkedHashMap<>();
+		try (Reader in = Files.newBufferedReader(Paths.get(path))) {
+			JsonArray array = JsonParser.parseReader(in).getAsJsonArray();
+			for (JsonElement element : array) {
+				JsonObject result = element.getAsJsonObject();
+				String name = result.get("benchmark").getAsString().replace("bench.", "");
+				if (result.has("params")) {
+					TreeMap<String, String> params = new TreeMap<>();
+					for (Map.Entry<String, JsonElement> param : result.getAsJsonObject("params").entrySet()) {
+						params.put(param.getKey(), param.getValue().getAsString());
+					}
+					name += params;
+				}
+				results.put(name, result);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @param result of one benchmark
+	 * @return its score
+	 */
+	private static double score(JsonObject result) {
+		return result.getAsJsonObject("primaryMetric").get("score").getAsDouble();
+	}
+
+	/**
+	 * @param result of one benchmark
+	 * @return the error of its score, 0 if JMH gave none
+	 */
+	private static double error(JsonObject result) {
+		JsonElement error = result.getAsJsonObject("primaryMetric").get("scoreError");
+		return error == null || !error.isJsonPrimitive() || Double.isNaN(error.getAsDouble()) ? 0 : error.getAsDouble();
+	}
+
+}
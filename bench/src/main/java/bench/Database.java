@@ -0,0 +1,63 @@
+package bench;
+
+import java.util.Random;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A MovieTrivia loaded once per trial for the query benchmarks, which never
+ * change it, and the arguments the queries take, drawn in advance so that
+ * drawing them is not timed.
+ */
+@State(Scope.Benchmark)
+public class Database {
+
+	/**
+	 * Number of arguments drawn, a power of two.
+	 */
+	static final int ARGUMENTS = 1024;
+
+	/**
+	 * The loaded MovieTrivia.
+	 */
+	Trivia trivia;
+
+	/**
+	 * Positions of random actors.
+	 */
+	final int[] actorRows = new int[ARGUMENTS];
+
+	/**
+	 * Names of the actors at actorRows.
+	 */
+	final String[] actorNames = new String[ARGUMENTS];
+
+	/**
+	 * Names of random rated movies.
+	 */
+	final String[] movieNames = new String[ARGUMENTS];
+
+	/**
+	 * Random ratings from 0 to 100.
+	 */
+	final int[] targets = new int[ARGUMENTS];
+
+	/**
+	 * Loads the MovieTrivia and draws the arguments.
+	 * @param data files to load
+	 */
+	@Setup(Level.Trial)
+	public void load(MovieData data) {
+		trivia = new Trivia(data);
+		Random random = new Random(42);
+		for (int i = 0; i < ARGUMENTS; i++) {
+			actorRows[i] = random.nextInt(trivia.actorsInfo.size());
+			actorNames[i] = trivia.actorsInfo.get(actorRows[i]).getName();
+			movieNames[i] = trivia.moviesInfo.get(random.nextInt(trivia.moviesInfo.size())).getName();
+			targets[i] = random.nextInt(101);
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MovieTrivia's inserts into the database's own lists, each benchmark into
+ * a MovieTrivia of its own that is loaded again before every iteration, so
+ * that what one iteration adds neither grows the next one nor reaches the
+ * query benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class InsertBenchmark {
+
+	/**
+	 * MovieTrivia inserted into, fresh for every iteration.
+	 */
+	private Trivia trivia;
+
+	/**
+	 * Number of calls so far, picks the arguments and names new rows.
+	 */
+	private int calls;
+
+	/**
+	 * Loads a fresh MovieTrivia.
+	 * @param data files to load
+	 */
+	@Setup(Level.Iteration)
+	public void load(MovieData data) {
+		trivia = new Trivia(data);
+	}
+
+	/**
+	 * insertActor with a movie the actor already has.
+	 */
+	@Benchmark
+	public void existingActorMovie(Database db) throws Throwable {
+		int i = calls++ & (Database.ARGUMENTS - 1);
+		String movie = trivia.actorsInfo.get(db.actorRows[i]).getMoviesCast().get(0);
+		trivia.insertActor(db.actorNames[i], new String[] { movie }, trivia.actorsInfo);
+	}
+
+	/**
+	 * insertRating on a movie that is rated, moving it between rating buckets.
+	 */
+	@Benchmark
+	public void existingRating(Database db) throws Throwable {
+		int i = calls++ & (Database.ARGUMENTS - 1);
+		int[] ratings = { db.targets[i], db.targets[(i + 1) & (Database.ARGUMENTS - 1)] };
+		trivia.insertRating(db.movieNames[i], ratings, trivia.moviesInfo);
+	}
+
+	/**
+	 * insertActor with a new actor in a known and a new movie.
+	 */
+	@Benchmark
+	public void newActor(Database db) throws Throwable {
+		int i = calls++;
+		String[] movies = { db.movieNames[i & (Database.ARGUMENTS - 1)], "benchmark movie " + i };
+		trivia.insertActor("benchmark actor " + i, movies, trivia.actorsInfo);
+	}
+
+	/**
+	 * insertRating for a new movie.
+	 */
+	@Benchmark
+	public void newRating(Database db) throws Throwable {
+		int i = calls++;
+		trivia.insertRating("benchmark movie " + i, new int[] { db.targets[i & (Database.ARGUMENTS - 1)], 50 },
+				trivia.moviesInfo);
+	}
+
+}
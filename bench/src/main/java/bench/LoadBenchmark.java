@@ -0,0 +1,52 @@
+package bench;
+
+import file.MovieDB;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading the data files, each call into a new database. Loads take up to
+ * seconds, so each one is timed on its own.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(2)
+public class LoadBenchmark {
+
+	/**
+	 * Sequential load with all indexes built.
+	 */
+	@Benchmark
+	public MovieDB setUp(MovieData data) {
+		return data.load();
+	}
+
+	/**
+	 * Load on all available processors.
+	 */
+	@Benchmark
+	public MovieDB setUpParallel(MovieData data) {
+		MovieDB movieDB = new MovieDB();
+		movieDB.setUp(data.data.toString(), data.ratings.toString(), Runtime.getRuntime().availableProcessors());
+		return movieDB;
+	}
+
+	/**
+	 * Lazy load keeping at most 1024 actors decoded; only the actor names are read.
+	 */
+	@Benchmark
+	public MovieDB setUpLazy(MovieData data) {
+		MovieDB movieDB = new MovieDB();
+		movieDB.setUpLazy(data.data.toString(), data.ratings.toString(), 1024);
+		return movieDB;
+	}
+
+}
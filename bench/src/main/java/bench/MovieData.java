@@ -0,0 +1,81 @@
+package bench;
+
+import file.MovieDB;
+import file.MovieDataGenerator;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Data files written by {@link MovieDataGenerator} for one trial, with a
+ * fixed seed so every fork and every run measures the same data.
+ * There are half as many movies as actors.
+ *
+ * A loaded database takes about 2.5 KB of heap per actor, so the largest
+ * default size, a million actors, needs a heap of about 3 GB, and ten
+ * million about 30 GB. Larger sizes are left to the command line, with a
+ * heap to match, e.g. {@code -p actors=10000000 -jvmArgsAppend -Xmx32g}.
+ */
+@State(Scope.Benchmark)
+public class MovieData {
+
+	/**
+	 * Number of actors in the data set.
+	 */
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int actors;
+
+	/**
+	 * Directory holding the files.
+	 */
+	private Path dir;
+
+	/**
+	 * The movieData file.
+	 */
+	Path data;
+
+	/**
+	 * The movieRatings file.
+	 */
+	Path ratings;
+
+	/**
+	 * Writes the files.
+	 * @throws IOException if they can't be written
+	 */
+	@Setup(Level.Trial)
+	public void write() throws IOException {
+		dir = Files.createTempDirectory("movietrivia-bench");
+		data = dir.resolve("moviedata.txt");
+		ratings = dir.resolve("movieratings.csv");
+		new MovieDataGenerator(actors, Math.max(1, actors / 2), 42).write(data, ratings);
+	}
+
+	/**
+	 * Deletes the files.
+	 * @throws IOException if they can't be deleted
+	 */
+	@TearDown(Level.Trial)
+	public void delete() throws IOException {
+		Files.deleteIfExists(data);
+		Files.deleteIfExists(ratings);
+		Files.deleteIfExists(dir);
+	}
+
+	/**
+	 * @return a database loaded from the files
+	 */
+	MovieDB load() {
+		MovieDB movieDB = new MovieDB();
+		movieDB.setUp(data.toString(), ratings.toString());
+		return movieDB;
+	}
+
+}
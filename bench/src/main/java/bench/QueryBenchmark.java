@@ -0,0 +1,152 @@
+package bench;
+
+import file.Query;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MovieTrivia's queries on the database's own lists, so each call goes
+ * through its locking, cache lookup and indexed paths as an application's
+ * would. Each call takes the next of the arguments drawn by
+ * {@link Database}, so the queries don't repeat one answer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class QueryBenchmark {
+
+	/**
+	 * Number of calls so far, picks the arguments.
+	 */
+	private int calls;
+
+	/**
+	 * @return index of the arguments of the next call
+	 */
+	private int next() {
+		return calls++ & (Database.ARGUMENTS - 1);
+	}
+
+	/**
+	 * selectWhereActorIs: the actor by name and its movies.
+	 */
+	@Benchmark
+	public ArrayList<String> moviesOfActor(Database db) throws Throwable {
+		return db.trivia.selectWhereActorIs(db.actorNames[next()], db.trivia.actorsInfo);
+	}
+
+	/**
+	 * selectWhereMovieIs: the cast index.
+	 */
+	@Benchmark
+	public ArrayList<String> castOfMovie(Database db) throws Throwable {
+		return db.trivia.selectWhereMovieIs(db.movieNames[next()], db.trivia.actorsInfo);
+	}
+
+	/**
+	 * selectWhereRatingIs: the rating buckets, or the rating column for broad ranges.
+	 */
+	@Benchmark
+	public ArrayList<String> ratingRange(Database db) throws Throwable {
+		int i = next();
+		return db.trivia.selectWhereRatingIs("=<>".charAt(i % 3), db.targets[i], (i & 1) == 0, db.trivia.moviesInfo);
+	}
+
+	/**
+	 * goodMovies: both ratings at least 85.
+	 */
+	@Benchmark
+	public ArrayList<String> goodMovies(Database db) throws Throwable {
+		return db.trivia.goodMovies(db.trivia.moviesInfo);
+	}
+
+	/**
+	 * getCoActors: the co-actor graph.
+	 */
+	@Benchmark
+	public ArrayList<String> coActors(Database db) throws Throwable {
+		return db.trivia.getCoActors(db.actorNames[next()], db.trivia.actorsInfo);
+	}
+
+	/**
+	 * getCommonMovie: merge of two actors' sorted movie ids.
+	 */
+	@Benchmark
+	public ArrayList<String> commonMovies(Database db) throws Throwable {
+		int i = next();
+		return db.trivia.getCommonMovie(db.actorNames[i], db.actorNames[(i + 1) & (Database.ARGUMENTS - 1)],
+				db.trivia.actorsInfo);
+	}
+
+	/**
+	 * getCommonActors: intersection of two casts.
+	 */
+	@Benchmark
+	public ArrayList<String> commonActors(Database db) throws Throwable {
+		int i = next();
+		return db.trivia.getCommonActors(db.movieNames[i], db.movieNames[(i + 1) & (Database.ARGUMENTS - 1)],
+				db.trivia.actorsInfo);
+	}
+
+	/**
+	 * getCoStarPath: bidirectional search up to six steps.
+	 */
+	@Benchmark
+	public ArrayList<String> coStarPath(Database db) throws Throwable {
+		int i = next();
+		return db.trivia.getCoStarPath(db.actorNames[i], db.actorNames[(i + 1) & (Database.ARGUMENTS - 1)], 6);
+	}
+
+	/**
+	 * select: the movies of an actor rated above 80 by critics, planned from the actor.
+	 */
+	@Benchmark
+	public ArrayList<String> compoundQuery(Database db) throws Throwable {
+		return db.trivia.select(Query.movieWithActor(db.actorNames[next()]).and(Query.criticRating('>', 80)));
+	}
+
+	/**
+	 * topRatedMovies: the rating buckets from the top down.
+	 */
+	@Benchmark
+	public ArrayList<String> topRatedMovies(Database db) throws Throwable {
+		return db.trivia.topRatedMovies(10, (next() & 1) == 0);
+	}
+
+	/**
+	 * topRatedActors: every actor's average rating into a bounded heap.
+	 */
+	@Benchmark
+	public ArrayList<String> topRatedActors(Database db) throws Throwable {
+		return db.trivia.topRatedActors(10, (next() & 1) == 0, 1);
+	}
+
+	/**
+	 * mostConnectedActors: every actor's degree into a bounded heap.
+	 */
+	@Benchmark
+	public ArrayList<String> mostConnectedActors(Database db) throws Throwable {
+		return db.trivia.mostConnectedActors(10);
+	}
+
+	/**
+	 * getDatabaseMean: the running sums.
+	 */
+	@Benchmark
+	public double[] meanRatings(Database db) throws Throwable {
+		return db.trivia.getDatabaseMean();
+	}
+
+}
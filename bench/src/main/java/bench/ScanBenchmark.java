@@ -0,0 +1,91 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import movies.Actor;
+import movies.Movie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MovieTrivia's queries on lists that are not the database's, which it
+ * scans in full: on the calling thread, or with its parallel scanner when
+ * set to more than one thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ScanBenchmark {
+
+	/**
+	 * Threads scanning, 1 for the calling thread only.
+	 */
+	@Param({ "1", "4" })
+	public int threads;
+
+	/**
+	 * Copy of the database's actors.
+	 */
+	private ArrayList<Actor> actors;
+
+	/**
+	 * Copy of the database's movies.
+	 */
+	private ArrayList<Movie> movies;
+
+	/**
+	 * Number of calls so far, picks the arguments.
+	 */
+	private int calls;
+
+	/**
+	 * Copies the lists and sets the threads to scan on.
+	 * @param db to copy the lists of
+	 */
+	@Setup(Level.Trial)
+	public void copy(Database db) throws Throwable {
+		actors = new ArrayList<>(db.trivia.actorsInfo);
+		movies = new ArrayList<>(db.trivia.moviesInfo);
+		db.trivia.setParallel(threads, 4096);
+	}
+
+	/**
+	 * Stops the scanner.
+	 * @param db to stop the scanner of
+	 */
+	@TearDown(Level.Trial)
+	public void close(Database db) throws Throwable {
+		db.trivia.setParallel(1, 4096);
+	}
+
+	/**
+	 * selectWhereMovieIs on a copy of actorsInfo.
+	 */
+	@Benchmark
+	public ArrayList<String> actorsInMovie(Database db) throws Throwable {
+		return db.trivia.selectWhereMovieIs(db.movieNames[calls++ & (Database.ARGUMENTS - 1)], actors);
+	}
+
+	/**
+	 * goodMovies on a copy of moviesInfo.
+	 */
+	@Benchmark
+	public ArrayList<String> goodMovies(Database db) throws Throwable {
+		return db.trivia.goodMovies(movies);
+	}
+
+}
@@ -0,0 +1,247 @@
+package bench;
+
+import file.MovieDB;
+import file.Query;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import movies.Actor;
+import movies.Movie;
+
+/**
+ * A MovieTrivia loaded from the data files, and method handles on the
+ * methods the benchmarks call. MovieTrivia is in the default package, which
+ * classes in a named package can't name, so it is looked up by name and its
+ * methods resolved here, when a benchmark state is set up, and invoked
+ * exactly. The database is loaded through MovieTrivia's own field, which
+ * loads it as setUp does without printing every actor and movie.
+ */
+final class Trivia {
+
+	/**
+	 * The MovieTrivia class.
+	 */
+	private final Class<?> type;
+
+	/**
+	 * Lookup with private access to MovieTrivia, for its database.
+	 */
+	private final MethodHandles.Lookup lookup;
+
+	/**
+	 * The MovieTrivia the handles are invoked on.
+	 */
+	private final Object trivia;
+
+	/**
+	 * Its database.
+	 */
+	final MovieDB movieDB;
+
+	/**
+	 * The database's own lists, so the queries take the indexed paths.
+	 */
+	final ArrayList<Actor> actorsInfo;
+
+	/**
+	 * The database's own movies.
+	 */
+	final ArrayList<Movie> moviesInfo;
+
+	/*
+	 * Handles on the MovieTrivia methods of the same names, taking the MovieTrivia as an Object.
+	 */
+	private final MethodHandle selectWhereActorIs;
+	private final MethodHandle selectWhereMovieIs;
+	private final MethodHandle selectWhereRatingIs;
+	private final MethodHandle getCoActors;
+	private final MethodHandle getCommonMovie;
+	private final MethodHandle goodMovies;
+	private final MethodHandle getCommonActors;
+	private final MethodHandle select;
+	private final MethodHandle topRatedMovies;
+	private final MethodHandle topRatedActors;
+	private final MethodHandle mostConnectedActors;
+	private final MethodHandle getCoStarPath;
+	private final MethodHandle getDatabaseMean;
+	private final MethodHandle insertActor;
+	private final MethodHandle insertRating;
+	private final MethodHandle setParallel;
+
+	/**
+	 * Creates a MovieTrivia, loads the data files into it and resolves the handles.
+	 * @param data files to load
+	 */
+	Trivia(MovieData data) {
+		try {
+			type = Class.forName("MovieTrivia");
+			lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+			trivia = type.getConstructor().newInstance();
+			movieDB = (MovieDB) lookup.findGetter(type, "movieDB", MovieDB.class).invoke(trivia);
+			selectWhereActorIs = find("selectWhereActorIs", ArrayList.class, String.class, ArrayList.class);
+			selectWhereMovieIs = find("selectWhereMovieIs", ArrayList.class, String.class, ArrayList.class);
+			selectWhereRatingIs = find("selectWhereRatingIs", ArrayList.class, char.class, int.class, boolean.class,
+					ArrayList.class);
+			getCoActors = find("getCoActors", ArrayList.class, String.class, ArrayList.class);
+			getCommonMovie = find("getCommonMovie", ArrayList.class, String.class, String.class, ArrayList.class);
+			goodMovies = find("goodMovies", ArrayList.class, ArrayList.class);
+			getCommonActors = find("getCommonActors", ArrayList.class, String.class, String.class, ArrayList.class);
+			select = find("select", ArrayList.class, Query.class);
+			topRatedMovies = find("topRatedMovies", ArrayList.class, int.class, boolean.class);
+			topRatedActors = find("topRatedActors", ArrayList.class, int.class, boolean.class, int.class);
+			mostConnectedActors = find("mostConnectedActors", ArrayList.class, int.class);
+			getCoStarPath = find("getCoStarPath", ArrayList.class, String.class, String.class, int.class);
+			getDatabaseMean = find("getDatabaseMean", double[].class);
+			insertActor = find("insertActor", void.class, String.class, String[].class, ArrayList.class);
+			insertRating = find("insertRating", void.class, String.class, int[].class, ArrayList.class);
+			setParallel = find("setParallel", void.class, int.class, int.class);
+			movieDB.setUp(data.data.toString(), data.ratings.toString());
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException("can't reach MovieTrivia", e);
+		}
+		actorsInfo = movieDB.getActorsInfo();
+		moviesInfo = movieDB.getMoviesInfo();
+	}
+
+	/**
+	 * @param name of a public MovieTrivia method
+	 * @param returnType of the method
+	 * @param parameters of the method
+	 * @return a handle on it taking the MovieTrivia as an Object
+	 * @throws ReflectiveOperationException if there is no such method
+	 */
+	private MethodHandle find(String name, Class<?> returnType, Class<?>... parameters)
+			throws ReflectiveOperationException {
+		MethodHandle handle = lookup.findVirtual(type, name, MethodType.methodType(returnType, parameters));
+		return handle.asType(handle.type().changeParameterType(0, Object.class));
+	}
+
+	/**
+	 * Invokes MovieTrivia.selectWhereActorIs.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> selectWhereActorIs(String actor, ArrayList<Actor> actorsInfo) throws Throwable {
+		return (ArrayList<String>) selectWhereActorIs.invokeExact(trivia, actor, actorsInfo);
+	}
+
+	/**
+	 * Invokes MovieTrivia.selectWhereMovieIs.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> selectWhereMovieIs(String movie, ArrayList<Actor> actorsInfo) throws Throwable {
+		return (ArrayList<String>) selectWhereMovieIs.invokeExact(trivia, movie, actorsInfo);
+	}
+
+	/**
+	 * Invokes MovieTrivia.selectWhereRatingIs.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> selectWhereRatingIs(char comparison, int targetRating, boolean isCritic,
+			ArrayList<Movie> moviesInfo) throws Throwable {
+		return (ArrayList<String>) selectWhereRatingIs.invokeExact(trivia, comparison, targetRating, isCritic, moviesInfo);
+	}
+
+	/**
+	 * Invokes MovieTrivia.getCoActors.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> getCoActors(String actor, ArrayList<Actor> actorsInfo) throws Throwable {
+		return (ArrayList<String>) getCoActors.invokeExact(trivia, actor, actorsInfo);
+	}
+
+	/**
+	 * Invokes MovieTrivia.getCommonMovie.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> getCommonMovie(String actor1, String actor2, ArrayList<Actor> actorsInfo) throws Throwable {
+		return (ArrayList<String>) getCommonMovie.invokeExact(trivia, actor1, actor2, actorsInfo);
+	}
+
+	/**
+	 * Invokes MovieTrivia.goodMovies.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> goodMovies(ArrayList<Movie> moviesInfo) throws Throwable {
+		return (ArrayList<String>) goodMovies.invokeExact(trivia, moviesInfo);
+	}
+
+	/**
+	 * Invokes MovieTrivia.getCommonActors.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> getCommonActors(String movie1, String movie2, ArrayList<Actor> actorsInfo) throws Throwable {
+		return (ArrayList<String>) getCommonActors.invokeExact(trivia, movie1, movie2, actorsInfo);
+	}
+
+	/**
+	 * Invokes MovieTrivia.select.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> select(Query query) throws Throwable {
+		return (ArrayList<String>) select.invokeExact(trivia, query);
+	}
+
+	/**
+	 * Invokes MovieTrivia.topRatedMovies.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> topRatedMovies(int k, boolean isCritic) throws Throwable {
+		return (ArrayList<String>) topRatedMovies.invokeExact(trivia, k, isCritic);
+	}
+
+	/**
+	 * Invokes MovieTrivia.topRatedActors.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> topRatedActors(int k, boolean isCritic, int minMovies) throws Throwable {
+		return (ArrayList<String>) topRatedActors.invokeExact(trivia, k, isCritic, minMovies);
+	}
+
+	/**
+	 * Invokes MovieTrivia.mostConnectedActors.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> mostConnectedActors(int k) throws Throwable {
+		return (ArrayList<String>) mostConnectedActors.invokeExact(trivia, k);
+	}
+
+	/**
+	 * Invokes MovieTrivia.getCoStarPath.
+	 */
+	@SuppressWarnings("unchecked")
+	ArrayList<String> getCoStarPath(String actor1, String actor2, int maxDepth) throws Throwable {
+		return (ArrayList<String>) getCoStarPath.invokeExact(trivia, actor1, actor2, maxDepth);
+	}
+
+	/**
+	 * Invokes MovieTrivia.getDatabaseMean.
+	 */
+	double[] getDatabaseMean() throws Throwable {
+		return (double[]) getDatabaseMean.invokeExact(trivia);
+	}
+
+	/**
+	 * Invokes MovieTrivia.insertActor.
+	 */
+	void insertActor(String actor, String[] movies, ArrayList<Actor> actorsInfo) throws Throwable {
+		insertActor.invokeExact(trivia, actor, movies, actorsInfo);
+	}
+
+	/**
+	 * Invokes MovieTrivia.insertRating.
+	 */
+	void insertRating(String movie, int[] ratings, ArrayList<Movie> moviesInfo) throws Throwable {
+		insertRating.invokeExact(trivia, movie, ratings, moviesInfo);
+	}
+
+	/**
+	 * Invokes MovieTrivia.setParallel.
+	 */
+	void setParallel(int threads, int threshold) throws Throwable {
+		setParallel.invokeExact(trivia, threads, threshold);
+	}
+
+}
@@ -1,11 +1,43 @@
+import file.BatchSummary;
+import file.ChangeLog;
+import file.CoStarPathFinder;
 import file.MovieDB;
+import file.ParallelScan;
+import file.Query;
+import file.QueryCache;
+import file.RatingStats;
+import file.ReloadSummary;
+import file.ReloadWatcher;
+import file.SortedIntList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import metrics.QueryMetrics;
 import movies.Actor;
 import movies.Movie;
 
 /**
  * Movie trivia class providing different methods for querying and updating a
  * movie database.
+ * When the database is in concurrent mode, the methods working on its own
+ * lists may be called from many threads: queries hold its read lock and
+ * inserts its write lock, so each call sees the database before or after
+ * any insert, never half way.
+ * With a change log open, inserts into the database's own lists are logged
+ * and return once the log is on disk, so they survive a restart.
+ * Queries with possibly large results also come as streams and as pages of
+ * the database's results, which compute only as many results as are read.
+ * Searches of lists that are not the database's scan the whole list; with
+ * {@link #setParallel(int, int)} long lists are scanned on several threads.
  */
 public class MovieTrivia {
 
@@ -14,6 +46,35 @@ public class MovieTrivia {
 	 */
 	MovieDB movieDB = new MovieDB();
 
+	/**
+	 * Shortest co-star chain search over movieDB
+	 */
+	CoStarPathFinder pathFinder = new CoStarPathFinder(movieDB);
+
+	/**
+	 * Results of queries on the database's own lists, null if caching is off
+	 */
+	QueryCache<ArrayList<String>> queryCache;
+
+	/**
+	 * Receives the time, result size and rows scanned of every query and insert
+	 */
+	QueryMetrics metrics = QueryMetrics.NONE;
+
+	/**
+	 * Scans lists that are not the database's on several threads, null to scan on the calling thread
+	 */
+	ParallelScan parallelScan;
+
+	/**
+	 * Drops the cached query results whenever a load or reload changes the database, and
+	 * those depending on a rating whenever a movie's rating is set
+	 */
+	public MovieTrivia() {
+		movieDB.setChangeListener(this::clearCache);
+		movieDB.setRatingChangeListener((movie, isCritic, oldRating, newRating) -> invalidateRating(isCritic, oldRating, newRating));
+	}
+
 	public static void main(String[] args) {
 
 		// create instance of movie trivia class
@@ -37,18 +98,171 @@ public class MovieTrivia {
 		this.printAllMovies();
 	}
 
+	/**
+	 * Sets up the Movie Trivia class loading the actors lazily, see
+	 * {@link MovieDB#setUpLazy(String, String, int)}, so that startup reads little more than
+	 * the actor names. Nothing is printed, as printing would decode every actor.
+	 * @param movieData    .txt file
+	 * @param movieRatings .csv file
+	 * @param cacheSize    most actors keeping their movies decoded
+	 */
+	public void setUpLazy(String movieData, String movieRatings, int cacheSize) {
+		movieDB.setUpLazy(movieData, movieRatings, cacheSize);
+	}
+
+	/**
+	 * Opens the given change log, creating it if needed, and replays the inserts logged in it
+	 * on top of the loaded data. From then on inserts into the database's own lists are
+	 * logged to it, and later loads and rebuilds replay it, see {@link MovieDB#setChangeLog(ChangeLog)}.
+	 * @param path of the change log
+	 * @return counts of the replayed records and the actors and movies they added or changed
+	 * @throws IOException if the log can't be opened or read
+	 */
+	public BatchSummary openChangeLog(String path) throws IOException {
+		ChangeLog log = ChangeLog.open(Paths.get(path));
+		try {
+			return movieDB.setChangeLog(log);
+		} catch (IOException | RuntimeException e) {
+			log.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops logging inserts, and closes the change log once every logged insert is on disk.
+	 * @throws IOException if the log can't be written
+	 */
+	public void closeChangeLog() throws IOException {
+		ChangeLog log = movieDB.getChangeLog();
+		if (log != null) {
+			movieDB.setChangeLog(null);
+			log.close();
+		}
+	}
+
+	/**
+	 * Empties the change log once the data files hold every insert logged to it, see
+	 * {@link MovieDB#checkpointChangeLog()}.
+	 * @return number of records dropped
+	 * @throws IOException if the log can't be written
+	 */
+	public long checkpointChangeLog() throws IOException {
+		return movieDB.checkpointChangeLog();
+	}
+
+	/**
+	 * Waits until a logged insert is on disk.
+	 * @param sequence number of the logged insert, 0 if it was not logged
+	 * @throws UncheckedIOException if the change log can't be written; the insert is then
+	 * applied in memory but will not survive a restart
+	 */
+	private void syncChangeLog(long sequence) {
+		ChangeLog log = movieDB.getChangeLog();
+		if (sequence > 0 && log != null) {
+			try {
+				log.sync(sequence);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Applies the changes made to the data files since they were set up, see
+	 * {@link MovieDB#reload()}. If anything changed the cached query results are dropped under
+	 * the same write lock, so no reader sees a result cached before the reload.
+	 * @return counts of the lines read and the actors and movies added or changed
+	 */
+	public ReloadSummary reload() {
+		return movieDB.reload();
+	}
+
+	/**
+	 * Puts the database in concurrent mode and reloads the data files in the background
+	 * every given number of milliseconds, until the returned watcher is closed. A reload that
+	 * rebuilds the database keeps the actors and movies inserted since the last load; changes
+	 * inserted into those of the files survive it only through a change log, see
+	 * {@link MovieDB#reload()}.
+	 * @param periodMillis delay between reloads
+	 * @return the running watcher
+	 */
+	public ReloadWatcher watch(long periodMillis) {
+		movieDB.setConcurrent(true);
+		return new ReloadWatcher(this::reload, periodMillis);
+	}
+
 	/**
 	 * Prints a list of all actors and the movies they acted in.
 	 */
 	public void printAllActors() {
-		System.out.println(movieDB.getActorsInfo());
+		try {
+			writeAllActors(System.out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 
 	/**
 	 * Prints a list of all movies and their ratings.
 	 */
 	public void printAllMovies() {
-		System.out.println(movieDB.getMoviesInfo());
+		try {
+			writeAllMovies(System.out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the list printed by {@link #printAllActors()} one actor at a time, without
+	 * building the text of the whole list.
+	 * @param out to write to
+	 * @throws IOException if out can't be written
+	 */
+	public void writeAllActors(Appendable out) throws IOException {
+		writeAll(true, out);
+	}
+
+	/**
+	 * Writes the list printed by {@link #printAllMovies()} one movie at a time, without
+	 * building the text of the whole list.
+	 * @param out to write to
+	 * @throws IOException if out can't be written
+	 */
+	public void writeAllMovies(Appendable out) throws IOException {
+		writeAll(false, out);
+	}
+
+	/**
+	 * Writes a list of the database as its toString would, followed by a line separator.
+	 * Each element is read under the read lock, which is not held while writing it, so a slow
+	 * out doesn't hold up inserts. Like {@link MovieDB#streamCast(String)}, the list is weakly
+	 * consistent: it shows elements inserted while it is written.
+	 * @param actors true for the actors, false for the movies
+	 * @param out to write to
+	 * @throws IOException if out can't be written
+	 */
+	private void writeAll(boolean actors, Appendable out) throws IOException {
+		out.append('[');
+		for (int i = 0;; i++) {
+			String element;
+			Lock lock = movieDB.readLock();
+			lock.lock();
+			try {
+				ArrayList<?> list = actors ? movieDB.getActorsInfo() : movieDB.getMoviesInfo();
+				element = i < list.size() ? String.valueOf(list.get(i)) : null;
+			} finally {
+				lock.unlock();
+			}
+			if (element == null) {
+				break;
+			}
+			if (i > 0) {
+				out.append(", ");
+			}
+			out.append(element);
+		}
+		out.append(']').append(System.lineSeparator());
 	}
 
 	/**
@@ -58,6 +272,8 @@ public class MovieTrivia {
 	 * @param actorsInfo is the ArrayList that is to be inserted into/updated
 	 */
 	public void insertActor(String actor, String[] movies, ArrayList<Actor> actorsInfo) {
+		long start = startTimer();
+
 		// Normalize actor name
 		actor = actor.trim().toLowerCase();
 
@@ -66,17 +282,41 @@ public class MovieTrivia {
 			movies[i] = movies[i].trim().toLowerCase();
 		}
 
-		// Check if actor already exists in actorsInfo
-		for (Actor a : actorsInfo) {
-			if (a.getName().equalsIgnoreCase(actor)) {
-				// Update movies list
+		// Use the database indexes when inserting into the database's own list
+		if (actorsInfo == movieDB.getActorsInfo()) {
+			long logged;
+			Lock lock = movieDB.writeLock();
+			lock.lock();
+			try {
+				int row = movieDB.getActorRow(actor);
+				if (row < 0) {
+					row = movieDB.addActor(new Actor(actor));
+				}
 				for (String movie : movies) {
-					if (!a.getMoviesCast().contains(movie)) {
-						a.getMoviesCast().add(movie);
-					}
+					movieDB.addActorMovie(row, movie);
 				}
-				return;
+				invalidateActor(actor, movies);
+				ChangeLog log = movieDB.getChangeLog();
+				logged = log == null ? 0 : log.appendActor(actor, movies);
+			} finally {
+				lock.unlock();
 			}
+			syncChangeLog(logged);
+			record("insertActor", start, movies.length, movies.length);
+			return;
+		}
+
+		// Check if actor already exists in actorsInfo
+		Actor a = findActor(actor, actorsInfo);
+		if (a != null) {
+			// Update movies list
+			for (String movie : movies) {
+				if (!a.getMoviesCast().contains(movie)) {
+					a.getMoviesCast().add(movie);
+				}
+			}
+			record("insertActor", start, movies.length, actorsInfo.size());
+			return;
 		}
 
 		// Create new actor object
@@ -91,6 +331,7 @@ public class MovieTrivia {
 
 		// Add actor to actorsInfo
 		actorsInfo.add(newActor);
+		record("insertActor", start, movies.length, actorsInfo.size());
 	}
 
 	/**
@@ -100,23 +341,205 @@ public class MovieTrivia {
 	 * @param moviesInfo is the ArrayList that is to be inserted into updated
 	 */
 	public void insertRating(String movie, int[] ratings, ArrayList<Movie> moviesInfo) {
+		long start = startTimer();
+
 		// Trim and normalize movie name
 		movie = movie.trim().toLowerCase();
 
-		// Check if movie already exists in moviesInfo
-		for (Movie m : moviesInfo) {
-			if (m.getName().equalsIgnoreCase(movie)) {
-				// Update ratings
-				m.setCriticRating(Math.max(0, Math.min(100, ratings.length > 0 ? ratings[0] : 0)));
-				m.setAudienceRating(Math.max(0, Math.min(100, ratings.length > 1 ? ratings[1] : 0)));
-				return;
+		// Clamp ratings to 0-100
+		int criticRating = Math.max(0, Math.min(100, ratings.length > 0 ? ratings[0] : 0));
+		int audienceRating = Math.max(0, Math.min(100, ratings.length > 1 ? ratings[1] : 0));
+
+		// Update or add the movie as one change when inserting into the database's own list
+		if (moviesInfo == movieDB.getMoviesInfo()) {
+			long logged;
+			Lock lock = movieDB.writeLock();
+			lock.lock();
+			try {
+				Movie m = movieDB.getMovie(movie);
+				invalidateRatings(m, criticRating, audienceRating);
+				if (m != null) {
+					m.setCriticRating(criticRating);
+					m.setAudienceRating(audienceRating);
+				} else {
+					movieDB.addMovie(new Movie(movie, criticRating, audienceRating));
+				}
+				ChangeLog log = movieDB.getChangeLog();
+				logged = log == null ? 0 : log.appendRating(movie, criticRating, audienceRating);
+			} finally {
+				lock.unlock();
 			}
+			syncChangeLog(logged);
+			record("insertRating", start, 1, 1);
+			return;
+		}
+
+		// Check if movie already exists in moviesInfo
+		Movie m = findMovie(movie, moviesInfo);
+		if (m != null) {
+			// Update ratings
+			m.setCriticRating(criticRating);
+			m.setAudienceRating(audienceRating);
+			record("insertRating", start, 1, moviesInfo.size());
+			return;
 		}
 
 		// Add new movie if not found
-		int criticRating = Math.max(0, Math.min(100, ratings.length > 0 ? ratings[0] : 0));
-		int audienceRating = Math.max(0, Math.min(100, ratings.length > 1 ? ratings[1] : 0));
 		moviesInfo.add(new Movie(movie, criticRating, audienceRating));
+		record("insertRating", start, 1, moviesInfo.size());
+	}
+
+	/**
+	 * Inserts the given actors and their movies, as {@link #insertActor(String, String[], ArrayList)}
+	 * would one by one, but looks each actor up only once for the whole batch.
+	 * @param actors maps actor names to the movie names they have acted in
+	 * @param actorsInfo is the ArrayList that is to be inserted into/updated
+	 * @return counts of new actors and of actors that got new movies
+	 */
+	public BatchSummary insertActors(Map<String, String[]> actors, ArrayList<Actor> actorsInfo) {
+		long start = startTimer();
+
+		// The database groups and applies the batch under one lock
+		if (actorsInfo == movieDB.getActorsInfo()) {
+			ArrayList<Actor> records = new ArrayList<>(actors.size());
+			for (Map.Entry<String, String[]> entry : actors.entrySet()) {
+				Actor record = new Actor(entry.getKey(), movieDB.getMovieNames());
+				for (String movie : entry.getValue()) {
+					record.getMoviesCast().add(movie.trim().toLowerCase());
+				}
+				records.add(record);
+			}
+			BatchSummary summary;
+			long logged = 0;
+			Lock lock = movieDB.writeLock();
+			lock.lock();
+			try {
+				for (Map.Entry<String, String[]> entry : actors.entrySet()) {
+					invalidateActor(entry.getKey().trim().toLowerCase(), entry.getValue());
+				}
+				summary = movieDB.insertActors(records);
+				ChangeLog log = movieDB.getChangeLog();
+				for (int i = 0; log != null && i < records.size(); i++) {
+					Actor record = records.get(i);
+					logged = log.appendActor(record.getName().trim().toLowerCase(),
+							record.getMoviesCast().toArray(new String[0]));
+				}
+			} finally {
+				lock.unlock();
+			}
+			// one sync commits the whole batch
+			syncChangeLog(logged);
+			return record("insertActors", start, summary, actors.size());
+		}
+
+		// Index actorsInfo by name once instead of searching it per actor
+		HashMap<String, Actor> byName = new HashMap<>();
+		for (Actor a : actorsInfo) {
+			byName.putIfAbsent(a.getName().trim().toLowerCase(), a);
+		}
+
+		int inserted = 0;
+		int updated = 0;
+		int unchanged = 0;
+		for (Map.Entry<String, String[]> entry : actors.entrySet()) {
+			String actor = entry.getKey().trim().toLowerCase();
+			Actor a = byName.get(actor);
+			boolean isNew = a == null;
+			if (isNew) {
+				a = new Actor(actor);
+				actorsInfo.add(a);
+				byName.put(actor, a);
+			}
+			boolean changed = false;
+			for (String movie : entry.getValue()) {
+				movie = movie.trim().toLowerCase();
+				if (!a.getMoviesCast().contains(movie)) {
+					a.getMoviesCast().add(movie);
+					changed = true;
+				}
+			}
+			if (isNew) {
+				inserted++;
+			} else if (changed) {
+				updated++;
+			} else {
+				unchanged++;
+			}
+		}
+		return record("insertActors", start, new BatchSummary(actors.size(), inserted, updated, unchanged),
+				actors.size() + actorsInfo.size());
+	}
+
+	/**
+	 * Inserts the given ratings, as {@link #insertRating(String, int[], ArrayList)} would one by
+	 * one, but looks each movie up only once for the whole batch.
+	 * @param ratings maps movie names to their critics rating at index 0 and audience rating at index 1
+	 * @param moviesInfo is the ArrayList that is to be inserted into/updated
+	 * @return counts of new movies and of movies whose ratings changed
+	 */
+	public BatchSummary insertRatings(Map<String, int[]> ratings, ArrayList<Movie> moviesInfo) {
+		long start = startTimer();
+
+		// Movie records clamp the ratings to 0-100
+		ArrayList<Movie> records = new ArrayList<>(ratings.size());
+		for (Map.Entry<String, int[]> entry : ratings.entrySet()) {
+			int[] r = entry.getValue();
+			records.add(new Movie(entry.getKey(), r.length > 0 ? r[0] : 0, r.length > 1 ? r[1] : 0));
+		}
+
+		// The database groups and applies the batch under one lock
+		if (moviesInfo == movieDB.getMoviesInfo()) {
+			BatchSummary summary;
+			long logged = 0;
+			Lock lock = movieDB.writeLock();
+			lock.lock();
+			try {
+				for (Movie record : records) {
+					invalidateRatings(movieDB.getMovie(record.getName()), record.getCriticRating(),
+							record.getAudienceRating());
+				}
+				summary = movieDB.insertMovies(records);
+				ChangeLog log = movieDB.getChangeLog();
+				for (int i = 0; log != null && i < records.size(); i++) {
+					Movie record = records.get(i);
+					logged = log.appendRating(record.getName(), record.getCriticRating(), record.getAudienceRating());
+				}
+			} finally {
+				lock.unlock();
+			}
+			// one sync commits the whole batch
+			syncChangeLog(logged);
+			return record("insertRatings", start, summary, ratings.size());
+		}
+
+		// Group by normalized name, the last of equal names wins
+		LinkedHashMap<String, Movie> byRecordName = new LinkedHashMap<>();
+		for (Movie record : records) {
+			byRecordName.put(record.getName(), record);
+		}
+
+		// Index moviesInfo by name once instead of searching it per movie
+		HashMap<String, Movie> byName = new HashMap<>();
+		for (Movie m : moviesInfo) {
+			byName.putIfAbsent(m.getName().trim().toLowerCase(), m);
+		}
+
+		int inserted = 0;
+		int updated = 0;
+		for (Movie record : byRecordName.values()) {
+			Movie m = byName.get(record.getName());
+			if (m == null) {
+				moviesInfo.add(record);
+				inserted++;
+			} else if (m.getCriticRating() != record.getCriticRating()
+					|| m.getAudienceRating() != record.getAudienceRating()) {
+				m.setCriticRating(record.getCriticRating());
+				m.setAudienceRating(record.getAudienceRating());
+				updated++;
+			}
+		}
+		BatchSummary summary = new BatchSummary(ratings.size(), inserted, updated, byRecordName.size() - inserted - updated);
+		return record("insertRatings", start, summary, ratings.size() + moviesInfo.size());
 	}
 
 	/**
@@ -126,19 +549,41 @@ public class MovieTrivia {
 	 * @return list of movies
 	 */
 	public ArrayList<String> selectWhereActorIs(String actor, ArrayList<Actor> actorsInfo) {
+		long start = startTimer();
+
 		// create list to store movies
 		ArrayList<String> movies = new ArrayList<String>();
 
-		// search for actor in actorsInfo
-		for (Actor a : actorsInfo) {
-			if (a.getName().equalsIgnoreCase(actor.trim())) {
-				// add movies to list
-				movies.addAll(a.getMoviesCast());
+		// look the actor up by name when searching the database's own list
+		if (actorsInfo == movieDB.getActorsInfo()) {
+			Lock lock = movieDB.readLock();
+			lock.lock();
+			try {
+				String key = "selectWhereActorIs|" + MovieDB.normalize(actor);
+				ArrayList<String> cached = getCached(key);
+				if (cached != null) {
+					return record("selectWhereActorIs", start, cached, 0);
+				}
+				Actor a = movieDB.getActor(actor);
+				if (a != null) {
+					movies.addAll(a.getMoviesCast());
+				}
+				putCached(key, movies, actorTags(actor));
+			} finally {
+				lock.unlock();
 			}
+			return record("selectWhereActorIs", start, movies, movies.size());
+		}
+
+		// search for actor in actorsInfo
+		Actor a = findActor(actor, actorsInfo);
+		if (a != null) {
+			// add movies to list
+			movies.addAll(a.getMoviesCast());
 		}
 
 		// return list of movies
-		return movies;
+		return record("selectWhereActorIs", start, movies, actorsInfo.size());
 	}
 
 	/**
@@ -148,13 +593,42 @@ public class MovieTrivia {
 	 * @return list of actors in that movie
 	 */
 	public ArrayList<String> selectWhereMovieIs(String movie, ArrayList<Actor> actorsInfo) {
+		long start = startTimer();
+
 		// Normalize movie name
 		movie = movie.trim().toLowerCase();
 
 		// Create list to store actors
 		ArrayList<String> actors = new ArrayList<>();
 
+		// Look up the cast directly when searching the database's own list
+		if (actorsInfo == movieDB.getActorsInfo()) {
+			Lock lock = movieDB.readLock();
+			lock.lock();
+			try {
+				String key = "selectWhereMovieIs|" + movie;
+				ArrayList<String> cached = getCached(key);
+				if (cached != null) {
+					return record("selectWhereMovieIs", start, cached, 0);
+				}
+				SortedIntList cast = movieDB.getCast(movie);
+				if (cast != null) {
+					addActorNames(cast, actors);
+				}
+				putCached(key, actors, movieTags(movie));
+			} finally {
+				lock.unlock();
+			}
+			return record("selectWhereMovieIs", start, actors, actors.size());
+		}
+
 		// Search for movie in actorsInfo
+		ParallelScan scan = parallelScan();
+		if (scan != null) {
+			String title = movie;
+			actors = scan.select(actorsInfo, a -> a.getMoviesCast().contains(title), Actor::getName);
+			return record("selectWhereMovieIs", start, actors, actorsInfo.size());
+		}
 		for (Actor a : actorsInfo) {
 			if (a.getMoviesCast().contains(movie)) {
 				actors.add(a.getName());
@@ -162,7 +636,7 @@ public class MovieTrivia {
 		}
 
 		// Return list of actors
-		return actors;
+		return record("selectWhereMovieIs", start, actors, actorsInfo.size());
 	}
 
 	/**
@@ -176,14 +650,44 @@ public class MovieTrivia {
 	 */
 	public ArrayList<String> selectWhereRatingIs(char comparison, int targetRating, boolean isCritic,
 			ArrayList<Movie> moviesInfo) {
+		long start = startTimer();
+
 		// create list to store movies
 		ArrayList<String> movies = new ArrayList<String>();
 
 		// validate input
 		if (targetRating < 0 || targetRating > 100 || (comparison != '=' && comparison != '>' && comparison != '<')) {
-			return movies;
+			return record("selectWhereRatingIs", start, movies, 0);
 		}
+
+		// read the matching rating buckets when searching the database's own list
+		if (moviesInfo == movieDB.getMoviesInfo()) {
+			Lock lock = movieDB.readLock();
+			lock.lock();
+			try {
+				String key = "selectWhereRatingIs|" + comparison + targetRating + "|" + isCritic;
+				ArrayList<String> cached = getCached(key);
+				if (cached != null) {
+					return record("selectWhereRatingIs", start, cached, 0);
+				}
+				addMovieNames(movieDB.getRowsWhereRatingIs(comparison, targetRating, isCritic), movies);
+				int from = comparison == '>' ? targetRating + 1 : comparison == '<' ? 0 : targetRating;
+				int to = comparison == '<' ? targetRating - 1 : comparison == '>' ? 100 : targetRating;
+				putCached(key, movies, ratingTags(isCritic, from, to, new ArrayList<>()));
+			} finally {
+				lock.unlock();
+			}
+			return record("selectWhereRatingIs", start, movies, movies.size());
+		}
+
 		// search for movies in moviesInfo
+		ParallelScan scan = parallelScan();
+		if (scan != null) {
+			movies = scan.select(moviesInfo,
+					m -> matches(comparison, targetRating, isCritic ? m.getCriticRating() : m.getAudienceRating()),
+					Movie::getName);
+			return record("selectWhereRatingIs", start, movies, moviesInfo.size());
+		}
 		for (Movie m : moviesInfo) {
 			// check if movie rating meets criteria
 			if (isCritic) {
@@ -206,7 +710,7 @@ public class MovieTrivia {
 		}
 
 		// Return list of movies
-		return movies;
+		return record("selectWhereRatingIs", start, movies, moviesInfo.size());
 	}
 
 	/**
@@ -216,19 +720,42 @@ public class MovieTrivia {
 	 * @return a list of all actors that the given actor has ever worked with
 	 */
 	public ArrayList<String> getCoActors(String actor, ArrayList<Actor> actorsInfo) {
+		long start = startTimer();
+
 		// create list to store co-actors
 		ArrayList<String> coActors = new ArrayList<String>();
 
+		// read the co-actor graph when searching the database's own list
+		if (actorsInfo == movieDB.getActorsInfo()) {
+			Lock lock = movieDB.readLock();
+			lock.lock();
+			try {
+				String key = "getCoActors|" + MovieDB.normalize(actor);
+				ArrayList<String> cached = getCached(key);
+				if (cached != null) {
+					return record("getCoActors", start, cached, 0);
+				}
+				int row = movieDB.getActorRow(actor);
+				if (row >= 0) {
+					addActorNames(movieDB.getCoActors(row), coActors);
+				}
+				// co-actors change when the actor or the cast of one of its movies does
+				putCached(key, coActors, actorTags(actor));
+			} finally {
+				lock.unlock();
+			}
+			return record("getCoActors", start, coActors, coActors.size());
+		}
+
 		// search for actor in actorsInfo
-		for (Actor a : actorsInfo) {
-			if (a.getName().equalsIgnoreCase(actor.trim())) {
-				// search for co-actors
-				for (String movie : a.getMoviesCast()) {
-					for (Actor b : actorsInfo) {
-						if (b.getMoviesCast().contains(movie) && !b.getName().equalsIgnoreCase(actor.trim())) {
-							if (!coActors.contains(b.getName())) {
-								coActors.add(b.getName());
-							}
+		Actor a = findActor(actor, actorsInfo);
+		if (a != null) {
+			// search for co-actors
+			for (String movie : a.getMoviesCast()) {
+				for (Actor b : actorsInfo) {
+					if (b.getMoviesCast().contains(movie) && !b.getName().equalsIgnoreCase(actor.trim())) {
+						if (!coActors.contains(b.getName())) {
+							coActors.add(b.getName());
 						}
 					}
 				}
@@ -236,7 +763,7 @@ public class MovieTrivia {
 		}
 
 		// return list of co-actors
-		return coActors;
+		return record("getCoActors", start, coActors, actorsInfo.size());
 	}
 
 	/**
@@ -247,10 +774,38 @@ public class MovieTrivia {
 	 * @return list of movie names where both actors were cast
 	 */
 	public ArrayList<String> getCommonMovie(String actor1, String actor2, ArrayList<Actor> actorsInfo) {
+		long start = startTimer();
 
 		// create list to store common movies
 		ArrayList<String> commonMovies = new ArrayList<String>();
 
+		// intersect the movie ids when both actors are in the database
+		if (actorsInfo == movieDB.getActorsInfo()) {
+			Lock lock = movieDB.readLock();
+			lock.lock();
+			try {
+				String key = "getCommonMovie|" + MovieDB.normalize(actor1) + "|" + MovieDB.normalize(actor2);
+				ArrayList<String> cached = getCached(key);
+				if (cached != null) {
+					return record("getCommonMovie", start, cached, 0);
+				}
+				Actor a1 = findActor(actor1, actorsInfo);
+				Actor a2 = findActor(actor2, actorsInfo);
+				if (a1 != null && a2 != null) {
+					for (int movieId : a1.commonMovieIds(a2)) {
+						commonMovies.add(a1.getDictionary().name(movieId));
+					}
+				}
+				ArrayList<String> tags = new ArrayList<>();
+				tags.add(actorTag(actor1));
+				tags.add(actorTag(actor2));
+				putCached(key, commonMovies, tags);
+			} finally {
+				lock.unlock();
+			}
+			return record("getCommonMovie", start, commonMovies, commonMovies.size());
+		}
+
 		// get movies for actor1
 		ArrayList<String> moviesActor1 = selectWhereActorIs(actor1.trim(), actorsInfo);
 
@@ -265,7 +820,7 @@ public class MovieTrivia {
 		}
 
 		// return list of common movies
-		return commonMovies;
+		return record("getCommonMovie", start, commonMovies, actorsInfo.size());
 	}
 
 	/**
@@ -273,17 +828,43 @@ public class MovieTrivia {
 	 * @return a list of movie names that both critics and the audience have rated above 85 (>= 85).
 	 */
 	public ArrayList<String> goodMovies(ArrayList<Movie> moviesInfo) {
+		long start = startTimer();
+
 		// create list to store good movies
 		ArrayList<String> goodMovies = new ArrayList<>();
 
+		// read the rating buckets from 85 up when searching the database's own list
+		if (moviesInfo == movieDB.getMoviesInfo()) {
+			Lock lock = movieDB.readLock();
+			lock.lock();
+			try {
+				String key = "goodMovies";
+				ArrayList<String> cached = getCached(key);
+				if (cached != null) {
+					return record("goodMovies", start, cached, 0);
+				}
+				addMovieNames(movieDB.getRowsRatedAtLeast(85, 85), goodMovies);
+				putCached(key, goodMovies, ratingTags(false, 85, 100, ratingTags(true, 85, 100, new ArrayList<>())));
+			} finally {
+				lock.unlock();
+			}
+			return record("goodMovies", start, goodMovies, goodMovies.size());
+		}
+
 		// Fix: Include movies with exactly 85 ratings
+		ParallelScan scan = parallelScan();
+		if (scan != null) {
+			goodMovies = scan.select(moviesInfo, m -> m.getCriticRating() >= 85 && m.getAudienceRating() >= 85,
+					Movie::getName);
+			return record("goodMovies", start, goodMovies, moviesInfo.size());
+		}
 		for (Movie m : moviesInfo) {
 			if (m.getCriticRating() >= 85 && m.getAudienceRating() >= 85) {
 				goodMovies.add(m.getName());
 			}
 		}
 
-		return goodMovies;
+		return record("goodMovies", start, goodMovies, moviesInfo.size());
 	}
 
 	/**
@@ -295,6 +876,8 @@ public class MovieTrivia {
 	 */
 
 	public ArrayList<String> getCommonActors(String movie1, String movie2, ArrayList<Actor> actorsInfo) {
+		long start = startTimer();
+
 		// Normalize movie names
 		movie1 = movie1.trim().toLowerCase();
 		movie2 = movie2.trim().toLowerCase();
@@ -302,7 +885,39 @@ public class MovieTrivia {
 		// Create list to store common actors
 		ArrayList<String> commonActors = new ArrayList<>();
 
+		// Intersect both casts when searching the database's own list
+		if (actorsInfo == movieDB.getActorsInfo()) {
+			Lock lock = movieDB.readLock();
+			lock.lock();
+			try {
+				String key = "getCommonActors|" + movie1 + "|" + movie2;
+				ArrayList<String> cached = getCached(key);
+				if (cached != null) {
+					return record("getCommonActors", start, cached, 0);
+				}
+				SortedIntList cast1 = movieDB.getCast(movie1);
+				SortedIntList cast2 = movieDB.getCast(movie2);
+				if (cast1 != null && cast2 != null) {
+					addActorNames(SortedIntList.intersect(cast1, cast2), commonActors);
+				}
+				ArrayList<String> tags = movieTags(movie1);
+				tags.add(movieTag(movie2));
+				putCached(key, commonActors, tags);
+			} finally {
+				lock.unlock();
+			}
+			return record("getCommonActors", start, commonActors, commonActors.size());
+		}
+
 		// Search for common actors
+		ParallelScan scan = parallelScan();
+		if (scan != null) {
+			String first = movie1;
+			String second = movie2;
+			commonActors = scan.select(actorsInfo,
+					a -> a.getMoviesCast().contains(first) && a.getMoviesCast().contains(second), Actor::getName);
+			return record("getCommonActors", start, commonActors, actorsInfo.size());
+		}
 		for (Actor a : actorsInfo) {
 			if (a.getMoviesCast().contains(movie1) && a.getMoviesCast().contains(movie2)) {
 				commonActors.add(a.getName());
@@ -310,7 +925,418 @@ public class MovieTrivia {
 		}
 
 		// Return list of common actors
-		return commonActors;
+		return record("getCommonActors", start, commonActors, actorsInfo.size());
+	}
+
+	/**
+	 * Returns the actors or movies of the database selected by the given compound query, in
+	 * actorsInfo or moviesInfo order. The query is planned from its most selective predicate,
+	 * see {@link Query}, so that for instance the movies of an actor rated above 80 by critics,
+	 * {@code Query.movieWithActor(actor).and(Query.criticRating('>', 80))}, read the actor's
+	 * movies and check their ratings instead of listing every movie rated above 80.
+	 * @param query to evaluate
+	 * @return names of the selected actors or movies
+	 */
+	public ArrayList<String> select(Query query) {
+		long start = startTimer();
+		ArrayList<String> names = new ArrayList<>();
+		Lock lock = movieDB.readLock();
+		lock.lock();
+		try {
+			BitSet rows = movieDB.select(query);
+			if (query.selectsActors()) {
+				ArrayList<Actor> actorsInfo = movieDB.getActorsInfo();
+				for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+					names.add(actorsInfo.get(row).getName());
+				}
+			} else {
+				addMovieNames(rows, names);
+			}
+		} finally {
+			lock.unlock();
+		}
+		return record("select", start, names, names.size());
+	}
+
+	/**
+	 * Returns the k movies of the database with the best critic or audience rating, best first
+	 * and ties in moviesInfo order, reading the rating buckets from the top down rather than
+	 * sorting all movies.
+	 * @param k most movies returned
+	 * @param isCritic true = critic ratings, false = audience ratings
+	 * @return names of the best rated movies
+	 * @throws IllegalArgumentException if k is negative
+	 */
+	public ArrayList<String> topRatedMovies(int k, boolean isCritic) {
+		long start = startTimer();
+		ArrayList<String> movies = new ArrayList<>();
+		Lock lock = movieDB.readLock();
+		lock.lock();
+		try {
+			ArrayList<Movie> moviesInfo = movieDB.getMoviesInfo();
+			for (int row : movieDB.getTopRatedMovieRows(k, isCritic)) {
+				movies.add(moviesInfo.get(row).getName());
+			}
+		} finally {
+			lock.unlock();
+		}
+		return record("topRatedMovies", start, movies, movies.size());
+	}
+
+	/**
+	 * Returns the k actors of the database whose rated movies have the best average critic or
+	 * audience rating, best first and ties in actorsInfo order. Movies without ratings don't
+	 * count, and actors with fewer than minMovies rated movies are left out.
+	 * @param k most actors returned
+	 * @param isCritic true = critic ratings, false = audience ratings
+	 * @param minMovies fewest rated movies an actor must have, at least 1
+	 * @return names of the best rated actors
+	 * @throws IllegalArgumentException if k is negative or minMovies less than 1
+	 */
+	public ArrayList<String> topRatedActors(int k, boolean isCritic, int minMovies) {
+		long start = startTimer();
+		ArrayList<String> actors = new ArrayList<>();
+		int scanned;
+		Lock lock = movieDB.readLock();
+		lock.lock();
+		try {
+			ArrayList<Actor> actorsInfo = movieDB.getActorsInfo();
+			scanned = actorsInfo.size();
+			for (int row : movieDB.getTopRatedActorRows(k, isCritic, minMovies)) {
+				actors.add(actorsInfo.get(row).getName());
+			}
+		} finally {
+			lock.unlock();
+		}
+		return record("topRatedActors", start, actors, scanned);
+	}
+
+	/**
+	 * Returns the k actors of the database who have worked with the most other actors, most
+	 * first and ties in actorsInfo order.
+	 * @param k most actors returned
+	 * @return names of the most connected actors
+	 * @throws IllegalArgumentException if k is negative
+	 */
+	public ArrayList<String> mostConnectedActors(int k) {
+		long start = startTimer();
+		ArrayList<String> actors = new ArrayList<>();
+		int scanned;
+		Lock lock = movieDB.readLock();
+		lock.lock();
+		try {
+			ArrayList<Actor> actorsInfo = movieDB.getActorsInfo();
+			scanned = actorsInfo.size();
+			for (int row : movieDB.getMostConnectedActorRows(k)) {
+				actors.add(actorsInfo.get(row).getName());
+			}
+		} finally {
+			lock.unlock();
+		}
+		return record("mostConnectedActors", start, actors, scanned);
+	}
+
+	/**
+	 * Streams the movies of the given actor in the database, as
+	 * {@link #selectWhereActorIs(String, ArrayList)} lists them for the database's own list.
+	 * The stream is weakly consistent, see {@link MovieDB#streamMoviesOf(String)}.
+	 * @param actor is the name of an actor as a String
+	 * @return the movies, computed as the stream is read
+	 */
+	public Stream<String> streamWhereActorIs(String actor) {
+		ArrayList<String> cached = getCached("selectWhereActorIs|" + MovieDB.normalize(actor));
+		if (cached != null) {
+			return cached.stream();
+		}
+		Lock lock = movieDB.readLock();
+		lock.lock();
+		try {
+			return movieDB.streamMoviesOf(actor);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Streams the actors of the given movie in the database, as
+	 * {@link #selectWhereMovieIs(String, ArrayList)} lists them for the database's own list.
+	 * The stream is weakly consistent, see {@link MovieDB#streamCast(String)}.
+	 * @param movie is the name of a movie as a String
+	 * @return the actors, computed as the stream is read
+	 */
+	public Stream<String> streamWhereMovieIs(String movie) {
+		ArrayList<String> cached = getCached("selectWhereMovieIs|" + MovieDB.normalize(movie));
+		if (cached != null) {
+			return cached.stream();
+		}
+		Lock lock = movieDB.readLock();
+		lock.lock();
+		try {
+			return movieDB.streamCast(movie);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Streams the movies of the database whose rating compares to the target, as
+	 * {@link #selectWhereRatingIs(char, int, boolean, ArrayList)} lists them for the database's
+	 * own list. Reading the first few results of a broad range scans only the rows up to them.
+	 * The stream is weakly consistent, see {@link MovieDB#streamWhereRatingIs(char, int, boolean)}.
+	 * @param comparison is either '=', '>', or '<'
+	 * @param targetRating is an integer
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @return the movies, computed as the stream is read
+	 */
+	public Stream<String> streamWhereRatingIs(char comparison, int targetRating, boolean isCritic) {
+		if (targetRating < 0 || targetRating > 100 || (comparison != '=' && comparison != '>' && comparison != '<')) {
+			return Stream.empty();
+		}
+		ArrayList<String> cached = getCached("selectWhereRatingIs|" + comparison + targetRating + "|" + isCritic);
+		if (cached != null) {
+			return cached.stream();
+		}
+		Lock lock = movieDB.readLock();
+		lock.lock();
+		try {
+			return movieDB.streamWhereRatingIs(comparison, targetRating, isCritic);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Streams the co-actors of the given actor in the database, as
+	 * {@link #getCoActors(String, ArrayList)} lists them for the database's own list.
+	 * The stream is weakly consistent, see {@link MovieDB#streamCoActors(int)}.
+	 * @param actor is the name of an actor as a String
+	 * @return the co-actors, computed as the stream is read
+	 */
+	public Stream<String> streamCoActors(String actor) {
+		ArrayList<String> cached = getCached("getCoActors|" + MovieDB.normalize(actor));
+		if (cached != null) {
+			return cached.stream();
+		}
+		Lock lock = movieDB.readLock();
+		lock.lock();
+		try {
+			int row = movieDB.getActorRow(actor);
+			return row < 0 ? Stream.empty() : movieDB.streamCoActors(row);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a page of {@link #streamWhereActorIs(String)}.
+	 * @param actor is the name of an actor as a String
+	 * @param offset number of results to skip
+	 * @param limit most results to return
+	 * @return up to limit movies, after the first offset ones
+	 */
+	public ArrayList<String> selectWhereActorIs(String actor, int offset, int limit) {
+		long start = startTimer();
+		return page("selectWhereActorIs", start, streamWhereActorIs(actor), offset, limit);
+	}
+
+	/**
+	 * Returns a page of {@link #streamWhereMovieIs(String)}.
+	 * @param movie is the name of a movie as a String
+	 * @param offset number of results to skip
+	 * @param limit most results to return
+	 * @return up to limit actors, after the first offset ones
+	 */
+	public ArrayList<String> selectWhereMovieIs(String movie, int offset, int limit) {
+		long start = startTimer();
+		return page("selectWhereMovieIs", start, streamWhereMovieIs(movie), offset, limit);
+	}
+
+	/**
+	 * Returns a page of {@link #streamWhereRatingIs(char, int, boolean)}.
+	 * @param comparison is either '=', '>', or '<'
+	 * @param targetRating is an integer
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @param offset number of results to skip
+	 * @param limit most results to return
+	 * @return up to limit movies, after the first offset ones
+	 */
+	public ArrayList<String> selectWhereRatingIs(char comparison, int targetRating, boolean isCritic, int offset,
+			int limit) {
+		long start = startTimer();
+		return page("selectWhereRatingIs", start, streamWhereRatingIs(comparison, targetRating, isCritic), offset,
+				limit);
+	}
+
+	/**
+	 * Returns a page of {@link #streamCoActors(String)}.
+	 * @param actor is the name of an actor as a String
+	 * @param offset number of results to skip
+	 * @param limit most results to return
+	 * @return up to limit co-actors, after the first offset ones
+	 */
+	public ArrayList<String> getCoActors(String actor, int offset, int limit) {
+		long start = startTimer();
+		return page("getCoActors", start, streamCoActors(actor), offset, limit);
+	}
+
+	/**
+	 * Collects one page of a stream, reading no further than its end, and records the query.
+	 * @param operation name of the query
+	 * @param start time from {@link #startTimer()}
+	 * @param results of the query
+	 * @param offset number of results to skip
+	 * @param limit most results to return
+	 * @return the page
+	 */
+	private ArrayList<String> page(String operation, long start, Stream<String> results, int offset, int limit) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("offset and limit must not be negative: " + offset + ", " + limit);
+		}
+		ArrayList<String> page = results.skip(offset).limit(limit).collect(Collectors.toCollection(ArrayList::new));
+		return record(operation, start, page, offset + page.size());
+	}
+
+	/**
+	 * Returns how two actors are connected through the movies in the database, as the
+	 * shortest chain actor1, movie, co-star, movie, ..., actor2.
+	 * @param actor1 actor names as Strings
+	 * @param actor2 actor names as Strings
+	 * @param maxDepth is the maximum number of movies in the chain
+	 * @return chain of alternating actor and movie names, or an empty list if the actors
+	 * are not connected within maxDepth movies
+	 */
+	public ArrayList<String> getCoStarPath(String actor1, String actor2, int maxDepth) {
+		long start = startTimer();
+		Lock lock = movieDB.readLock();
+		lock.lock();
+		try {
+			ArrayList<String> path = pathFinder.findPath(actor1, actor2, maxDepth);
+			return record("getCoStarPath", start, path, path.size());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the mean value of the critics ratings and the audience ratings of all movies in the database.
+	 * Unlike {@link #getMean(ArrayList)} this does not scan the movies, the database keeps running sums.
+	 * @return the mean values as a double array, where the 1st item (index 0) is the mean of all critics ratings and the 2nd item (index 1) is the mean of all audience ratings
+	 */
+	public double[] getDatabaseMean() {
+		long start = startTimer();
+		double[] mean = movieDB.getMeanRatings();
+		record("getDatabaseMean", start, 2, 0);
+		return mean;
+	}
+
+	/**
+	 * Returns the count, mean, variance, min, max and histogram of the critics or audience ratings of all movies in the database.
+	 * @param isCritic is a boolean that represents whether we are interested in the critics rating or the audience rating. true = critic ratings, false = audience ratings.
+	 * @return statistics of the ratings
+	 */
+	public RatingStats getRatingStats(boolean isCritic) {
+		long start = startTimer();
+		RatingStats stats = movieDB.getRatingStats(isCritic);
+		record("getRatingStats", start, 1, 0);
+		return stats;
+	}
+
+	/**
+	 * Sends the time, result size and rows scanned of every query and insert, and the
+	 * load phase timings of the database, to the given metrics. Rows scanned are the
+	 * length of the list for searches of a list that is not the database's, and the
+	 * index entries read for the database's own lists. With {@link QueryMetrics#NONE},
+	 * the default, nothing is measured.
+	 * @param metrics to record to, null for none
+	 */
+	public void setMetrics(QueryMetrics metrics) {
+		this.metrics = metrics == null ? QueryMetrics.NONE : metrics;
+		movieDB.setMetrics(this.metrics);
+	}
+
+	/**
+	 * @return the metrics queries and inserts are recorded to
+	 */
+	public QueryMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Scans lists that are not the database's on the given number of threads, splitting them
+	 * into ranges of at most threshold elements; shorter lists are still scanned on the calling
+	 * thread. Results come in the same order as from a sequential scan. Applies to
+	 * {@link #selectWhereMovieIs(String, ArrayList)}, {@link #selectWhereRatingIs(char, int, boolean, ArrayList)},
+	 * {@link #goodMovies(ArrayList)} and {@link #getCommonActors(String, String, ArrayList)}; the
+	 * database's own lists are read through its indexes instead. Lists of a lazily loaded
+	 * database are always scanned sequentially, as decoding actors is not thread-safe.
+	 * The lists must not change while they are scanned.
+	 * @param threads to scan on, 1 or less to scan sequentially
+	 * @param threshold longest range scanned as one task
+	 */
+	public void setParallel(int threads, int threshold) {
+		ParallelScan old = parallelScan;
+		parallelScan = threads > 1 ? new ParallelScan(threads, threshold) : null;
+		if (old != null) {
+			old.close();
+		}
+	}
+
+	/**
+	 * @return the parallel scanner of lists that are not the database's, null if they are scanned sequentially
+	 */
+	public ParallelScan getParallelScan() {
+		return parallelScan;
+	}
+
+	/**
+	 * @return the parallel scanner to search a list that is not the database's with, null to search sequentially
+	 */
+	private ParallelScan parallelScan() {
+		return movieDB.isLazy() ? null : parallelScan;
+	}
+
+	/**
+	 * @param comparison is either '=', '>', or '<'
+	 * @param targetRating to compare to
+	 * @param rating of a movie
+	 * @return true if the rating compares to the target as asked
+	 */
+	private static boolean matches(char comparison, int targetRating, int rating) {
+		return comparison == '=' ? rating == targetRating : comparison == '>' ? rating > targetRating : rating < targetRating;
+	}
+
+	/**
+	 * Turns on caching of query results on the database's own lists, keyed by the normalized
+	 * arguments. Inserts through this class drop exactly the results that depend on the actors,
+	 * movies or ratings they change; changes made directly through the database do not, so
+	 * {@link #clearCache()} should follow them. Call before sharing this object between threads.
+	 * @param capacity maximum number of results kept, the least recently used are dropped first
+	 */
+	public void enableCache(int capacity) {
+		queryCache = new QueryCache<>(capacity);
+	}
+
+	/**
+	 * Turns off caching of query results.
+	 */
+	public void disableCache() {
+		queryCache = null;
+	}
+
+	/**
+	 * Drops all cached query results.
+	 */
+	public void clearCache() {
+		if (queryCache != null) {
+			queryCache.clear();
+		}
+	}
+
+	/**
+	 * @return the query cache with its hit, miss, eviction and invalidation counters, or null if caching is off
+	 */
+	public QueryCache<ArrayList<String>> getQueryCache() {
+		return queryCache;
 	}
 
 	/**
@@ -342,4 +1368,249 @@ public class MovieTrivia {
 	    return new double[] { meanCriticRating, meanAudienceRating };
 	}
 
+	/**
+	 * Finds the actor with the given name. Uses the database's name index when
+	 * actorsInfo is the database's own list, otherwise scans actorsInfo.
+	 * @param actor is the name of an actor as a String
+	 * @param actorsInfo is the ArrayList to search through
+	 * @return the actor, or null if not found
+	 */
+	private Actor findActor(String actor, ArrayList<Actor> actorsInfo) {
+		if (actorsInfo == movieDB.getActorsInfo()) {
+			return movieDB.getActor(actor);
+		}
+		for (Actor a : actorsInfo) {
+			if (a.getName().equalsIgnoreCase(actor.trim())) {
+				return a;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the current time in nanoseconds if metrics are on, otherwise 0
+	 */
+	private long startTimer() {
+		return metrics.isEnabled() ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records a call of an operation that started at the given time, if metrics are on.
+	 * @param operation name of the query or insert
+	 * @param start time from {@link #startTimer()}
+	 * @param resultSize number of results or entries inserted
+	 * @param rowsScanned number of rows or index entries read
+	 */
+	private void record(String operation, long start, long resultSize, long rowsScanned) {
+		if (metrics.isEnabled()) {
+			metrics.record(operation, System.nanoTime() - start, resultSize, rowsScanned);
+		}
+	}
+
+	/**
+	 * Records a query that started at the given time, if metrics are on.
+	 * @param operation name of the query
+	 * @param start time from {@link #startTimer()}
+	 * @param result of the query
+	 * @param rowsScanned number of rows or index entries read
+	 * @return result
+	 */
+	private ArrayList<String> record(String operation, long start, ArrayList<String> result, long rowsScanned) {
+		record(operation, start, result.size(), rowsScanned);
+		return result;
+	}
+
+	/**
+	 * Records a batch insert that started at the given time, if metrics are on.
+	 * @param operation name of the insert
+	 * @param start time from {@link #startTimer()}
+	 * @param summary of the batch
+	 * @param rowsScanned number of rows or index entries read
+	 * @return summary
+	 */
+	private BatchSummary record(String operation, long start, BatchSummary summary, long rowsScanned) {
+		record(operation, start, summary.getRecords(), rowsScanned);
+		return summary;
+	}
+
+	/**
+	 * @param key of the query
+	 * @return a copy of the cached result, or null if there is none or caching is off
+	 */
+	private ArrayList<String> getCached(String key) {
+		ArrayList<String> cached = queryCache == null ? null : queryCache.get(key);
+		return cached == null ? null : new ArrayList<>(cached);
+	}
+
+	/**
+	 * Caches a copy of a query result, if caching is on. Called while holding the database's
+	 * read lock, so no insert can invalidate the result between computing and caching it.
+	 * @param key of the query
+	 * @param result of the query
+	 * @param tags the result depends on
+	 */
+	private void putCached(String key, ArrayList<String> result, Collection<String> tags) {
+		if (queryCache != null) {
+			queryCache.put(key, new ArrayList<>(result), tags);
+		}
+	}
+
+	/**
+	 * @param actor name of an actor
+	 * @return tag of results depending on the actor's movies
+	 */
+	private static String actorTag(String actor) {
+		return "actor|" + MovieDB.normalize(actor);
+	}
+
+	/**
+	 * @param movie name of a movie
+	 * @return tag of results depending on the movie's cast
+	 */
+	private static String movieTag(String movie) {
+		return "movie|" + MovieDB.normalize(movie);
+	}
+
+	/**
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @param rating from 0 to 100
+	 * @return tag of results depending on which movies have the given rating
+	 */
+	private static String ratingTag(boolean isCritic, int rating) {
+		return (isCritic ? "critic|" : "audience|") + rating;
+	}
+
+	/**
+	 * @param actor name of a database actor
+	 * @return tags of results depending on the actor's movies and on the casts of those movies
+	 */
+	private ArrayList<String> actorTags(String actor) {
+		ArrayList<String> tags = new ArrayList<>();
+		tags.add(actorTag(actor));
+		Actor a = movieDB.getActor(actor);
+		if (a != null) {
+			for (String movie : a.getMoviesCast()) {
+				tags.add(movieTag(movie));
+			}
+		}
+		return tags;
+	}
+
+	/**
+	 * @param movie name of a movie
+	 * @return tags of results depending on the movie's cast
+	 */
+	private ArrayList<String> movieTags(String movie) {
+		ArrayList<String> tags = new ArrayList<>();
+		tags.add(movieTag(movie));
+		return tags;
+	}
+
+	/**
+	 * Adds the tags of the given range of ratings to the given list.
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @param from lowest rating
+	 * @param to highest rating
+	 * @param tags is the list to add to
+	 * @return tags
+	 */
+	private ArrayList<String> ratingTags(boolean isCritic, int from, int to, ArrayList<String> tags) {
+		for (int rating = Math.max(0, from); rating <= Math.min(100, to); rating++) {
+			tags.add(ratingTag(isCritic, rating));
+		}
+		return tags;
+	}
+
+	/**
+	 * Drops the cached results that an insert of the given actor and movies may change:
+	 * those about the actor and those about the casts of the movies.
+	 * @param actor normalized name of the actor
+	 * @param movies normalized names of the movies
+	 */
+	private void invalidateActor(String actor, String[] movies) {
+		if (queryCache == null) {
+			return;
+		}
+		queryCache.invalidate(actorTag(actor));
+		for (String movie : movies) {
+			queryCache.invalidate(movieTag(movie));
+		}
+	}
+
+	/**
+	 * Drops the cached results that a change of a movie's ratings may change: those about
+	 * movies with its old or its new ratings.
+	 * @param old the movie before the change, null if it is new
+	 * @param criticRating new critics rating
+	 * @param audienceRating new audience rating
+	 */
+	private void invalidateRatings(Movie old, int criticRating, int audienceRating) {
+		if (queryCache == null) {
+			return;
+		}
+		if (old != null) {
+			queryCache.invalidate(ratingTag(true, old.getCriticRating()));
+			queryCache.invalidate(ratingTag(false, old.getAudienceRating()));
+		}
+		queryCache.invalidate(ratingTag(true, Math.max(0, Math.min(100, criticRating))));
+		queryCache.invalidate(ratingTag(false, Math.max(0, Math.min(100, audienceRating))));
+	}
+
+	/**
+	 * Drops the cached results that depend on movies with either of the given ratings.
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @param oldRating rating before the change
+	 * @param newRating rating after the change
+	 */
+	private void invalidateRating(boolean isCritic, int oldRating, int newRating) {
+		if (queryCache == null) {
+			return;
+		}
+		queryCache.invalidate(ratingTag(isCritic, oldRating));
+		queryCache.invalidate(ratingTag(isCritic, newRating));
+	}
+
+	/**
+	 * Adds the names of the database actors at the given positions to the given list.
+	 * @param rows indexes in the database's actorsInfo
+	 * @param names is the list to add to
+	 */
+	private void addActorNames(SortedIntList rows, ArrayList<String> names) {
+		ArrayList<Actor> actorsInfo = movieDB.getActorsInfo();
+		for (int i = 0; i < rows.size(); i++) {
+			names.add(actorsInfo.get(rows.get(i)).getName());
+		}
+	}
+
+	/**
+	 * Adds the names of the database movies at the given positions to the given list, in moviesInfo order.
+	 * @param rows indexes in the database's moviesInfo
+	 * @param names is the list to add to
+	 */
+	private void addMovieNames(BitSet rows, ArrayList<String> names) {
+		ArrayList<Movie> moviesInfo = movieDB.getMoviesInfo();
+		for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+			names.add(moviesInfo.get(row).getName());
+		}
+	}
+
+	/**
+	 * Finds the movie with the given name. Uses the database's name index when
+	 * moviesInfo is the database's own list, otherwise scans moviesInfo.
+	 * @param movie is the name of a movie as a String
+	 * @param moviesInfo is the ArrayList to search through
+	 * @return the movie, or null if not found
+	 */
+	private Movie findMovie(String movie, ArrayList<Movie> moviesInfo) {
+		if (moviesInfo == movieDB.getMoviesInfo()) {
+			return movieDB.getMovie(movie);
+		}
+		for (Movie m : moviesInfo) {
+			if (m.getName().equalsIgnoreCase(movie.trim())) {
+				return m;
+			}
+		}
+		return null;
+	}
+
 }
@@ -1,9 +1,38 @@
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.*;
 import file.MovieDB;
+import file.Query;
+import file.QueryCache;
+import file.BatchSummary;
+import file.ChangeLog;
+import file.RatingStats;
+import file.ReloadSummary;
+import file.ReloadWatcher;
+import javax.management.ObjectName;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import metrics.OperationStats;
+import movies.Actor;
+import movies.Movie;
 
 class MovieTriviaTest {
 
@@ -200,6 +229,66 @@ class MovieTriviaTest {
 				"The audience rating for \"highRatingsMovie\" should default to 100 for values exceeding the maximum.");
 	}
 
+	@Test
+	void testInsertActorsAndRatings() {
+		LinkedHashMap<String, String[]> actors = new LinkedHashMap<>();
+		actors.put("Meryl Streep", new String[] { "the post", "Mamma Mia" });
+		actors.put("new actor", new String[] { "doubt", "new movie" });
+		actors.put("tom hanks", new String[] { "the post" });
+		actors.put(" NEW ACTOR ", new String[] { "other movie", "new movie" });
+
+		// records of the same actor are grouped, existing actors only get missing movies
+		BatchSummary summary = mt.insertActors(actors, movieDB.getActorsInfo());
+		assertEquals(4, summary.getRecords());
+		assertEquals(1, summary.getInserted(), "Only \"new actor\" is new.");
+		assertEquals(1, summary.getUpdated(), "Only \"meryl streep\" gets a new movie.");
+		assertEquals(1, summary.getUnchanged(), "\"tom hanks\" already has \"the post\".");
+		assertEquals(7, movieDB.getActorsInfo().size(),
+				"After inserting one new actor, the size of actorsInfo should have increased by 1.");
+		assertEquals(4, mt.selectWhereActorIs("meryl streep", movieDB.getActorsInfo()).size());
+		assertEquals("[doubt, new movie, other movie]",
+				mt.selectWhereActorIs("new actor", movieDB.getActorsInfo()).toString());
+		assertTrue(mt.selectWhereMovieIs("doubt", movieDB.getActorsInfo()).contains("new actor"),
+				"The cast index should include actors inserted in a batch.");
+
+		// the same batch into a list that is not the database's
+		ArrayList<Actor> actorsInfo = new ArrayList<>();
+		summary = mt.insertActors(actors, actorsInfo);
+		assertEquals(3, actorsInfo.size());
+		assertEquals(3, summary.getInserted());
+		assertEquals(1, summary.getUpdated());
+		assertEquals("[doubt, new movie, other movie]", mt.selectWhereActorIs("new actor", actorsInfo).toString());
+
+		LinkedHashMap<String, int[]> ratings = new LinkedHashMap<>();
+		ratings.put("doubt", new int[] { 79, 78 });
+		ratings.put("Arrival", new int[] { 100, 100 });
+		ratings.put("new movie", new int[] { 50 });
+		ratings.put("ARRIVAL ", new int[] { 90, 150 });
+
+		// the last rating of a movie wins
+		summary = mt.insertRatings(ratings, movieDB.getMoviesInfo());
+		assertEquals(4, summary.getRecords());
+		assertEquals(1, summary.getInserted());
+		assertEquals(1, summary.getUpdated());
+		assertEquals(1, summary.getUnchanged());
+		assertEquals(8, movieDB.getMoviesInfo().size(),
+				"After inserting one new movie, the size of moviesInfo should have increased by 1.");
+		assertEquals(90, movieDB.getMovie("arrival").getCriticRating());
+		assertEquals(100, movieDB.getMovie("arrival").getAudienceRating());
+		assertEquals(0, movieDB.getMovie("new movie").getAudienceRating());
+		assertTrue(mt.selectWhereRatingIs('=', 100, false, movieDB.getMoviesInfo()).contains("arrival"),
+				"The rating indexes should follow ratings updated in a batch.");
+
+		// the same batch into a list that is not the database's
+		ArrayList<Movie> moviesInfo = new ArrayList<>();
+		moviesInfo.add(new Movie("doubt", 10, 10));
+		summary = mt.insertRatings(ratings, moviesInfo);
+		assertEquals(2, summary.getInserted());
+		assertEquals(1, summary.getUpdated());
+		assertEquals(3, moviesInfo.size());
+		assertEquals(79, moviesInfo.get(0).getCriticRating());
+	}
+
 	@Test
 	void testSelectWhereActorIs() {
 		assertEquals(3, mt.selectWhereActorIs("meryl streep", movieDB.getActorsInfo()).size(),
@@ -378,25 +467,685 @@ class MovieTriviaTest {
 
 	@Test
 	void testGetMean() {
-		assertEquals(67.9, mt.getMean(movieDB.getMoviesInfo())[0], 0.1,
+		assertEquals(67.9, MovieTrivia.getMean(movieDB.getMoviesInfo())[0], 0.1,
 				"The mean of all critics ratings is incorrect.");
 
 		// Additional test case: Mean calculation with no movies
-		assertEquals(0.0, mt.getMean(new ArrayList<>(movieDB.getMoviesInfo().subList(0, 0)))[0], 0.1,
+		assertEquals(0.0, MovieTrivia.getMean(new ArrayList<>(movieDB.getMoviesInfo().subList(0, 0)))[0], 0.1,
 				"The mean of critics ratings should be 0 when there are no movies.");
 
 		// Additional test case: Mean calculation with identical ratings
-		assertEquals(79.0, mt.getMean(new ArrayList<>(movieDB.getMoviesInfo().subList(0, 1)))[0], 0.1,
+		assertEquals(79.0, MovieTrivia.getMean(new ArrayList<>(movieDB.getMoviesInfo().subList(0, 1)))[0], 0.1,
 				"The mean of critics ratings should match the single movie's rating when only one movie is considered.");
 
 		// Create a test movie with zero ratings
 		ArrayList<Movie> zeroRatedMovies = new ArrayList<>();
 		zeroRatedMovies.add(new Movie("zeroMovie", 0, 0));
-		assertEquals(0.0, mt.getMean(zeroRatedMovies)[0], 0.1,
+		assertEquals(0.0, MovieTrivia.getMean(zeroRatedMovies)[0], 0.1,
 				"The mean of critics ratings should be 0 when all ratings are zero.");
 
 		// Additional test case: Mean calculation with mixed ratings
-		assertEquals(39.5, mt.getMean(new ArrayList<>(movieDB.getMoviesInfo().subList(3, 5)))[0], 0.1,
+		// doubt is rated 79 and popeye 0 by critics; rows 3 and 4, rocky ii and seven, average 60
+		ArrayList<Movie> mixedMovies = new ArrayList<>();
+		mixedMovies.add(movieDB.getMovie("doubt"));
+		mixedMovies.add(movieDB.getMovie("popeye"));
+		assertEquals(39.5, MovieTrivia.getMean(mixedMovies)[0], 0.1,
 				"The mean of critics ratings should be correctly calculated for mixed ratings.");
 	}
+
+	@Test
+	void testGetDatabaseMean() {
+		assertEquals(67.9, mt.getDatabaseMean()[0], 0.1, "The mean of all critics ratings is incorrect.");
+		assertEquals(MovieTrivia.getMean(movieDB.getMoviesInfo())[1], mt.getDatabaseMean()[1], 0.001,
+				"The mean of all audience ratings should match the one computed from moviesInfo.");
+
+		// running sums follow inserts and updates
+		mt.insertRating("doubt", new int[] { 100, 100 }, movieDB.getMoviesInfo());
+		mt.insertRating("testmovie", new int[] { 0, 50 }, movieDB.getMoviesInfo());
+		assertEquals(MovieTrivia.getMean(movieDB.getMoviesInfo())[0], mt.getDatabaseMean()[0], 0.001,
+				"The mean of all critics ratings should follow inserted ratings.");
+		assertEquals(MovieTrivia.getMean(movieDB.getMoviesInfo())[1], mt.getDatabaseMean()[1], 0.001,
+				"The mean of all audience ratings should follow inserted ratings.");
+
+		RatingStats stats = mt.getRatingStats(true);
+		assertEquals(8, stats.getCount(), "There should be 8 critics ratings.");
+		assertEquals(0, stats.getMin(), "The lowest critics rating should be 0.");
+		assertEquals(100, stats.getMax(), "The highest critics rating should be 100.");
+		assertEquals(2, stats.getHistogram()[0], "Two movies should have a critics rating of 0.");
+		assertEquals(1730.0, stats.getVariance(), 0.1, "The variance of all critics ratings is incorrect.");
+	}
+
+	@Test
+	void testGetCoStarPath() {
+		// connected through one shared movie
+		ArrayList<String> path = mt.getCoStarPath("meryl streep", "tom hanks", 6);
+		assertEquals(3, path.size(), "\"meryl streep\" and \"tom hanks\" share a movie.");
+		assertEquals("the post", path.get(1), "\"the post\" links \"meryl streep\" and \"tom hanks\".");
+
+		// connected through a co-star
+		path = mt.getCoStarPath("  TOM HANKS", "amy adams", 6);
+		assertEquals(5, path.size(), "\"tom hanks\" and \"amy adams\" are linked through \"meryl streep\".");
+		assertEquals("tom hanks", path.get(0));
+		assertEquals("the post", path.get(1));
+		assertEquals("meryl streep", path.get(2));
+		assertEquals("doubt", path.get(3));
+		assertEquals("amy adams", path.get(4));
+
+		// depth bound
+		assertEquals(0, mt.getCoStarPath("tom hanks", "amy adams", 1).size(),
+				"\"tom hanks\" and \"amy adams\" are not linked by a single movie.");
+
+		// not connected or unknown actors
+		assertEquals(0, mt.getCoStarPath("tom hanks", "brad pitt", 6).size(),
+				"\"tom hanks\" and \"brad pitt\" are not connected.");
+		assertEquals(0, mt.getCoStarPath("tom hanks", "nonexistentactor", 6).size(),
+				"An unknown actor is not connected to anyone.");
+
+		// new movies create new links
+		mt.insertActor("brad pitt", new String[] { "cast away" }, movieDB.getActorsInfo());
+		assertEquals(7, mt.getCoStarPath("brad pitt", "amy adams", 6).size(),
+				"\"brad pitt\" is linked to \"amy adams\" through \"tom hanks\" and \"meryl streep\".");
+	}
+
+	@Test
+	void testQueryCache() {
+		mt.enableCache(100);
+		QueryCache<ArrayList<String>> cache = mt.getQueryCache();
+
+		// the second call with equal normalized arguments is a hit, and callers get their own copy
+		ArrayList<String> coActors = mt.getCoActors("meryl streep", movieDB.getActorsInfo());
+		coActors.clear();
+		assertEquals(2, mt.getCoActors(" Meryl Streep", movieDB.getActorsInfo()).size(),
+				"A cached result should not change when the caller changes its copy.");
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+
+		// an insert into one of meryl streep's movies drops her co-actors, not amy adams' movies
+		mt.selectWhereActorIs("amy adams", movieDB.getActorsInfo());
+		mt.insertActor("new actor", new String[] { "the post" }, movieDB.getActorsInfo());
+		assertEquals(1, cache.getInvalidations());
+		assertTrue(mt.getCoActors("meryl streep", movieDB.getActorsInfo()).contains("new actor"),
+				"Inserting into a movie's cast should invalidate the co-actors of its cast.");
+		long hits = cache.getHits();
+		mt.selectWhereActorIs("amy adams", movieDB.getActorsInfo());
+		assertEquals(hits + 1, cache.getHits(), "Unrelated results should stay cached.");
+
+		// rating changes only drop the rating queries they can change
+		assertEquals(3, mt.selectWhereRatingIs('>', 90, true, movieDB.getMoviesInfo()).size());
+		mt.insertRating("doubt", new int[] { 50, 50 }, movieDB.getMoviesInfo());
+		hits = cache.getHits();
+		assertEquals(3, mt.selectWhereRatingIs('>', 90, true, movieDB.getMoviesInfo()).size());
+		assertEquals(hits + 1, cache.getHits(), "Moving a critic rating from 79 to 50 cannot change \"> 90\".");
+		mt.insertRating("doubt", new int[] { 95, 95 }, movieDB.getMoviesInfo());
+		assertTrue(mt.selectWhereRatingIs('>', 90, true, movieDB.getMoviesInfo()).contains("doubt"));
+		assertTrue(mt.goodMovies(movieDB.getMoviesInfo()).contains("doubt"));
+		mt.insertRating("new movie", new int[] { 99, 99 }, movieDB.getMoviesInfo());
+		assertTrue(mt.goodMovies(movieDB.getMoviesInfo()).contains("new movie"),
+				"A new movie should invalidate the rating queries it matches.");
+
+		// setting a database movie's rating through its setter drops the rating queries too
+		assertFalse(mt.selectWhereRatingIs('>', 95, true, movieDB.getMoviesInfo()).contains("seven"));
+		movieDB.getMovie("seven").setCriticRating(99);
+		assertTrue(mt.selectWhereRatingIs('>', 95, true, movieDB.getMoviesInfo()).contains("seven"));
+		movieDB.getMovie("seven").setCriticRating(29);
+		assertFalse(mt.selectWhereRatingIs('>', 95, true, movieDB.getMoviesInfo()).contains("seven"));
+
+		// the least recently used result is dropped when the cache is full
+		mt.enableCache(2);
+		cache = mt.getQueryCache();
+		mt.selectWhereMovieIs("doubt", movieDB.getActorsInfo());
+		mt.getCommonActors("doubt", "arrival", movieDB.getActorsInfo());
+		mt.selectWhereMovieIs("doubt", movieDB.getActorsInfo());
+		mt.getCommonMovie("meryl streep", "amy adams", movieDB.getActorsInfo());
+		assertEquals(1, cache.getEvictions());
+		assertEquals(2, cache.size());
+		mt.getCommonActors("doubt", "arrival", movieDB.getActorsInfo());
+		assertEquals(4, cache.getMisses(), "The evicted result should be computed again.");
+	}
+
+	@Test
+	void testMetrics() throws Exception {
+		MetricsRegistry registry = new MetricsRegistry();
+		mt.setMetrics(registry);
+
+		// every query and insert is counted with its result size and rows scanned
+		mt.getCoActors("meryl streep", movieDB.getActorsInfo());
+		mt.getCoActors("amy adams", movieDB.getActorsInfo());
+		mt.selectWhereMovieIs("doubt", new ArrayList<>(movieDB.getActorsInfo()));
+		mt.insertRating("doubt", new int[] { 90, 90 }, movieDB.getMoviesInfo());
+		OperationStats coActors = registry.getStats("getCoActors");
+		assertEquals(2, coActors.getCalls());
+		assertEquals(3, coActors.getResultSizeTotal(), "meryl streep has 2 co-actors, amy adams 1.");
+		assertTrue(coActors.getP50Nanos() > 0 && coActors.getP50Nanos() <= coActors.getMaxNanos());
+		assertEquals(6, registry.getStats("selectWhereMovieIs").getRowsScannedTotal(),
+				"A list that is not the database's is scanned in full.");
+		assertEquals(1, registry.getStats("insertRating").getCalls());
+		assertNull(registry.getStats("goodMovies"));
+
+		// load phases are timed
+		mt.setUp("moviedata.txt", "movieratings.csv");
+		assertEquals(6, registry.getStats("setUp.movieData").getResultSizeTotal());
+		assertEquals(8, registry.getStats("setUp.movieRatings").getRowsScannedTotal(),
+				"The ratings file has a header and 7 movies.");
+
+		// metrics set after a lazy load receive the decode timings
+		MovieTrivia lazy = new MovieTrivia();
+		lazy.setUpLazy("moviedata.txt", "movieratings.csv", 2);
+		MetricsRegistry lazyRegistry = new MetricsRegistry();
+		lazy.setMetrics(lazyRegistry);
+		lazy.selectWhereActorIs("meryl streep", lazy.movieDB.getActorsInfo());
+		assertEquals(1, lazyRegistry.getStats("lazy.decode").getCalls());
+
+		// statistics are readable over JMX
+		registry.registerMBeans("movietrivia.test");
+		try {
+			ObjectName name = new ObjectName("movietrivia.test:type=Operation,name=\"getCoActors\"");
+			assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Calls"));
+		} finally {
+			registry.unregisterMBeans();
+		}
+
+		// percentiles are within the histogram's precision
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 100000; value++) {
+			histogram.record(value * 1000);
+		}
+		assertEquals(50_000_000, histogram.getPercentile(50), 50_000_000 / 64.0);
+		assertEquals(99_000_000, histogram.getPercentile(99), 99_000_000 / 64.0);
+		assertEquals(100_000_000, histogram.getMax());
+		assertEquals(50_000_500, histogram.getMean(), 0.001);
+	}
+
+	@Test
+	void testConcurrentInsertsAndQueries() throws Exception {
+		movieDB.setConcurrent(true);
+		mt.insertRating("rated movie", new int[] { 50, 50 }, movieDB.getMoviesInfo());
+
+		int writers = 4;
+		int readers = 4;
+		int actorsPerWriter = 200;
+		ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch writersDone = new CountDownLatch(writers);
+		ArrayList<Thread> threads = new ArrayList<>();
+
+		// writers add actors to a shared movie, keep both ratings of one movie equal and,
+		// after each of their actors, raise the ratings of a movie of their own
+		for (int w = 0; w < writers; w++) {
+			int writer = w;
+			threads.add(new Thread(() -> {
+				try {
+					start.await();
+					for (int i = 0; i < actorsPerWriter; i++) {
+						mt.insertActor("writer " + writer + " actor " + i,
+								new String[] { "shared movie", "movie " + writer + " " + i }, movieDB.getActorsInfo());
+						int rating = (writer * actorsPerWriter + i) % 101;
+						mt.insertRating("rated movie", new int[] { rating, rating }, movieDB.getMoviesInfo());
+						mt.insertRating("writer " + writer + " movie", new int[] { i / 2, i / 2 }, movieDB.getMoviesInfo());
+					}
+				} catch (Throwable t) {
+					failures.add(t);
+				} finally {
+					writersDone.countDown();
+				}
+			}));
+		}
+
+		// readers see each writer's inserts in program order, and never lose one once seen
+		for (int r = 0; r < readers; r++) {
+			threads.add(new Thread(() -> {
+				try {
+					start.await();
+					int[] lastCount = new int[writers];
+					int[] lastRating = new int[writers];
+					Arrays.fill(lastRating, -1);
+					do {
+						// ratings first: a rating set after actor i means the cast holds actors 0 to i
+						// ratings are read under the lock, as their setters run under the write lock
+						int[] ratings = new int[writers];
+						Lock ratingLock = movieDB.readLock();
+						ratingLock.lock();
+						try {
+							for (int w = 0; w < writers; w++) {
+								Movie m = movieDB.getMovie("writer " + w + " movie");
+								ratings[w] = m == null ? -1 : m.getCriticRating();
+							}
+						} finally {
+							ratingLock.unlock();
+						}
+						int[] count = new int[writers];
+						for (String name : mt.selectWhereMovieIs("shared movie", movieDB.getActorsInfo())) {
+							String[] parts = name.split(" ");
+							int w = Integer.parseInt(parts[1]);
+							assertEquals(count[w]++, Integer.parseInt(parts[3]),
+									"A writer's actors are seen in the order they were inserted.");
+						}
+						for (int w = 0; w < writers; w++) {
+							assertTrue(count[w] >= lastCount[w], "An insert once seen is never lost.");
+							assertTrue(ratings[w] >= lastRating[w], "A rating once seen is never undone.");
+							assertTrue(count[w] >= 2 * ratings[w] + 1,
+									"An insert made before a seen one is seen too: rating " + ratings[w] + ", " + count[w] + " actors.");
+							if (count[w] > 0) {
+								assertNotNull(movieDB.getActor("writer " + w + " actor " + (count[w] - 1)));
+							}
+							lastCount[w] = count[w];
+							lastRating[w] = ratings[w];
+						}
+
+						Lock lock = movieDB.readLock();
+						lock.lock();
+						try {
+							Movie m = movieDB.getMovie("rated movie");
+							assertEquals(m.getCriticRating(), m.getAudienceRating(),
+									"Both ratings of a movie are changed in one insert.");
+						} finally {
+							lock.unlock();
+						}
+
+						mt.getCoActors("writer 0 actor 0", movieDB.getActorsInfo());
+						mt.getCommonActors("shared movie", "movie 1 1", movieDB.getActorsInfo());
+						mt.selectWhereRatingIs('>', 50, true, movieDB.getMoviesInfo());
+						mt.goodMovies(movieDB.getMoviesInfo());
+						mt.getDatabaseMean();
+					} while (writersDone.getCount() > 0);
+				} catch (Throwable t) {
+					failures.add(t);
+				}
+			}));
+		}
+
+		for (Thread t : threads) {
+			t.start();
+		}
+		start.countDown();
+		for (Thread t : threads) {
+			t.join(TimeUnit.MINUTES.toMillis(1));
+		}
+
+		assertTrue(failures.isEmpty(), "No thread should fail: " + failures);
+		assertEquals(6 + writers * actorsPerWriter, movieDB.getActorsInfo().size(),
+				"Every inserted actor should be in actorsInfo.");
+		assertEquals(writers * actorsPerWriter, mt.selectWhereMovieIs("shared movie", movieDB.getActorsInfo()).size(),
+				"Every inserted actor should be in the cast of the shared movie.");
+		assertEquals(writers * actorsPerWriter - 1, mt.getCoActors("writer 0 actor 0", movieDB.getActorsInfo()).size(),
+				"Every other inserted actor is a co-actor through the shared movie.");
+		Movie m = movieDB.getMovie("rated movie");
+		assertEquals(m.getCriticRating(), m.getAudienceRating());
+		for (int w = 0; w < writers; w++) {
+			assertEquals((actorsPerWriter - 1) / 2, movieDB.getMovie("writer " + w + " movie").getCriticRating(),
+					"No rating update is lost: each writer's last one stays.");
+		}
+	}
+
+	@Test
+	void testReload(@TempDir Path dir) throws Exception {
+		Path data = dir.resolve("moviedata.txt");
+		Path ratings = dir.resolve("movieratings.csv");
+		Files.copy(Paths.get("moviedata.txt"), data);
+		Files.copy(Paths.get("movieratings.csv"), ratings);
+		mt.enableCache(16);
+		mt.setUp(data.toString(), ratings.toString());
+		assertEquals(4, mt.selectWhereActorIs("amy adams", movieDB.getActorsInfo()).size());
+
+		// a reload that changes the database drops the cached results
+		// moviedata.txt has no line ending after its last line
+		Files.write(data, "\nAmy Adams, Her\n".getBytes(), StandardOpenOption.APPEND);
+		assertEquals(1, mt.reload().getUpdated());
+		assertEquals(0, mt.getQueryCache().size());
+		assertEquals(5, mt.selectWhereActorIs("amy adams", movieDB.getActorsInfo()).size());
+
+		// a rebuild refills the lists in place, so a list held from before stays on the indexed path
+		ArrayList<Actor> held = movieDB.getActorsInfo();
+		List<String> lines = Files.readAllLines(data);
+		lines.remove("Brandon Krakowsky");
+		Files.write(data, lines);
+		assertTrue(mt.reload().isRebuilt());
+		assertEquals(0, mt.getQueryCache().size());
+		assertSame(held, movieDB.getActorsInfo());
+		assertNull(movieDB.getActor("brandon krakowsky"));
+		mt.insertActor("Held Actor", new String[] { "Doubt" }, held);
+		assertTrue(mt.selectWhereMovieIs("doubt", held).contains("held actor"));
+
+		// the watcher picks up changes in the background
+		try (ReloadWatcher watcher = mt.watch(5)) {
+			Files.write(ratings, Arrays.asList("Her,93,90"), StandardOpenOption.APPEND);
+			long deadline = System.currentTimeMillis() + 10000;
+			while (watcher.getLastChange() == null && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			assertNotNull(watcher.getLastChange(), "The watcher should reload within 10 seconds.");
+			assertEquals(1, watcher.getLastChange().getInserted());
+		}
+		assertTrue(movieDB.isConcurrent());
+		assertEquals("[her]", mt.selectWhereRatingIs('=', 93, true, movieDB.getMoviesInfo()).toString());
+	}
+
+	@Test
+	void testChangeLog(@TempDir Path dir) throws Exception {
+		String path = dir.resolve("changes.log").toString();
+		assertEquals(0, mt.openChangeLog(path).getRecords());
+		mt.insertActor("New Actor", new String[] { "New Movie" }, movieDB.getActorsInfo());
+		mt.insertRating("New Movie", new int[] { 70, 80 }, movieDB.getMoviesInfo());
+		mt.insertRating("Doubt", new int[] { 10, 20 }, movieDB.getMoviesInfo());
+
+		// a batch is committed with one fsync
+		ChangeLog log = movieDB.getChangeLog();
+		long syncs = log.getSyncCount();
+		LinkedHashMap<String, String[]> batch = new LinkedHashMap<>();
+		for (int i = 0; i < 50; i++) {
+			batch.put("batch actor " + i, new String[] { "batch movie" });
+		}
+		mt.insertActors(batch, movieDB.getActorsInfo());
+		assertEquals(syncs + 1, log.getSyncCount());
+		assertEquals(53, log.getRecordCount());
+		mt.closeChangeLog();
+
+		// a restart replays the log on top of the data files
+		MovieTrivia restarted = new MovieTrivia();
+		restarted.setUp("moviedata.txt", "movieratings.csv");
+		BatchSummary replayed = restarted.openChangeLog(path);
+		assertEquals(53, replayed.getRecords());
+		assertEquals(52, replayed.getInserted(), "51 actors and a movie are new.");
+		assertEquals(1, replayed.getUpdated(), "Doubt got new ratings.");
+		MovieDB restartedDB = restarted.movieDB;
+		assertEquals("[new movie]", restartedDB.getActor("new actor").getMoviesCast().toString());
+		assertEquals(10, restartedDB.getMovie("doubt").getCriticRating());
+
+		// loading the files again replays the log too
+		restarted.setUp("moviedata.txt", "movieratings.csv");
+		assertEquals(20, restarted.movieDB.getMovie("doubt").getAudienceRating());
+		assertEquals(57, restarted.movieDB.getActorsInfo().size());
+		restarted.closeChangeLog();
+	}
+
+	@Test
+	void testChangeLogCheckpoint(@TempDir Path dir) throws Exception {
+		Path data = dir.resolve("moviedata.txt");
+		Path ratings = dir.resolve("movieratings.csv");
+		Files.copy(Paths.get("moviedata.txt"), data);
+		Files.copy(Paths.get("movieratings.csv"), ratings);
+		MovieTrivia logged = new MovieTrivia();
+		logged.setUp(data.toString(), ratings.toString());
+		logged.openChangeLog(dir.resolve("changes.log").toString());
+		logged.insertRating("Doubt", new int[] { 10, 20 }, logged.movieDB.getMoviesInfo());
+
+		// a reload does not replay the log, so an edit to a logged movie wins
+		List<String> lines = Files.readAllLines(ratings);
+		lines.set(lines.indexOf("Doubt,79,78"), "Doubt,5,6");
+		Files.write(ratings, lines);
+		ReloadSummary summary = logged.reload();
+		assertFalse(summary.isRebuilt());
+		assertEquals(1, summary.getUpdated());
+		assertEquals(5, logged.movieDB.getMovie("doubt").getCriticRating());
+
+		// a rebuild replays the log after the files
+		lines.remove("ET,85,86");
+		Files.write(ratings, lines);
+		assertTrue(logged.reload().isRebuilt());
+		assertEquals(10, logged.movieDB.getMovie("doubt").getCriticRating());
+
+		// until a checkpoint empties it
+		assertEquals(1, logged.checkpointChangeLog());
+		assertEquals(0, logged.movieDB.getChangeLog().getRecordCount());
+		lines.remove("Popeye,0,0");
+		Files.write(ratings, lines);
+		assertTrue(logged.reload().isRebuilt());
+		assertEquals(5, logged.movieDB.getMovie("doubt").getCriticRating());
+
+		// records logged after the checkpoint are replayed as before
+		logged.insertRating("Doubt", new int[] { 30, 40 }, logged.movieDB.getMoviesInfo());
+		logged.closeChangeLog();
+		MovieTrivia restarted = new MovieTrivia();
+		restarted.setUp(data.toString(), ratings.toString());
+		assertEquals(1, restarted.openChangeLog(dir.resolve("changes.log").toString()).getRecords());
+		assertEquals(30, restarted.movieDB.getMovie("doubt").getCriticRating());
+		restarted.closeChangeLog();
+	}
+
+	@Test
+	void testSetUpLazy() {
+		MovieTrivia lazy = new MovieTrivia();
+		lazy.setUpLazy("moviedata.txt", "movieratings.csv", 2);
+		MovieDB lazyDB = lazy.movieDB;
+		assertTrue(lazyDB.isLazy());
+		assertEquals(0, lazyDB.getDecodedActorCount(), "Nothing is printed or decoded.");
+
+		// the same answers, with at most 2 actors decoded at a time
+		for (Actor actor : movieDB.getActorsInfo()) {
+			String name = actor.getName();
+			assertEquals(mt.selectWhereActorIs(name, movieDB.getActorsInfo()),
+					lazy.selectWhereActorIs(name, lazyDB.getActorsInfo()));
+			assertTrue(lazyDB.getDecodedActorCount() <= 2);
+		}
+		assertEquals(mt.getCoActors("meryl streep", movieDB.getActorsInfo()),
+				lazy.getCoActors("meryl streep", lazyDB.getActorsInfo()));
+		assertEquals(mt.selectWhereMovieIs("doubt", movieDB.getActorsInfo()),
+				lazy.selectWhereMovieIs("doubt", lazyDB.getActorsInfo()));
+		assertEquals(mt.getCommonMovie("meryl streep", "amy adams", movieDB.getActorsInfo()),
+				lazy.getCommonMovie("meryl streep", "amy adams", lazyDB.getActorsInfo()));
+
+		lazy.insertActor("amy adams", new String[] { "arrival" }, lazyDB.getActorsInfo());
+		assertEquals("[doubt, leap year, man of steel, arrival]",
+				lazy.selectWhereActorIs("amy adams", lazyDB.getActorsInfo()).toString());
+		assertTrue(lazyDB.isLazy());
+	}
+
+	@Test
+	void testSetUpLazyCacheSizeOne() {
+		MovieTrivia lazy = new MovieTrivia();
+		lazy.setUpLazy("moviedata.txt", "movieratings.csv", 1);
+		MovieDB lazyDB = lazy.movieDB;
+
+		// decoding the second actor unloads the first, which must not empty the result
+		assertEquals("[doubt]", lazy.getCommonMovie("meryl streep", "amy adams", lazyDB.getActorsInfo()).toString());
+		assertEquals("[doubt]", lazy.getCommonMovie("amy adams", "meryl streep", lazyDB.getActorsInfo()).toString());
+		assertEquals(1, lazyDB.getDecodedActorCount());
+
+		// the cast index is built in full, through a cache that stays at one actor
+		assertEquals(mt.getCoActors("meryl streep", movieDB.getActorsInfo()),
+				lazy.getCoActors("meryl streep", lazyDB.getActorsInfo()));
+		assertEquals(1, lazyDB.getDecodedActorCount());
+		for (Movie movie : movieDB.getMoviesInfo()) {
+			assertEquals(mt.selectWhereMovieIs(movie.getName(), movieDB.getActorsInfo()),
+					lazy.selectWhereMovieIs(movie.getName(), lazyDB.getActorsInfo()));
+		}
+		assertEquals(1, lazyDB.getDecodedActorCount());
+		assertTrue(lazyDB.isLazy());
+	}
+
+	@Test
+	void testStreams() throws Exception {
+		ArrayList<Actor> actorsInfo = movieDB.getActorsInfo();
+		ArrayList<Movie> moviesInfo = movieDB.getMoviesInfo();
+		for (Actor actor : actorsInfo) {
+			String name = actor.getName();
+			assertEquals(mt.selectWhereActorIs(name, actorsInfo), mt.streamWhereActorIs(name).collect(Collectors.toList()));
+			assertEquals(mt.getCoActors(name, actorsInfo), mt.streamCoActors(name).collect(Collectors.toList()));
+		}
+		for (Movie movie : moviesInfo) {
+			assertEquals(mt.selectWhereMovieIs(movie.getName(), actorsInfo),
+					mt.streamWhereMovieIs(movie.getName()).collect(Collectors.toList()));
+		}
+		for (char comparison : new char[] { '<', '=', '>' }) {
+			assertEquals(mt.selectWhereRatingIs(comparison, 70, true, moviesInfo),
+					mt.streamWhereRatingIs(comparison, 70, true).collect(Collectors.toList()));
+			assertEquals(mt.selectWhereRatingIs(comparison, 70, false, moviesInfo),
+					mt.streamWhereRatingIs(comparison, 70, false).collect(Collectors.toList()));
+		}
+		assertEquals(0, mt.streamWhereRatingIs('!', 70, true).count());
+		assertEquals(0, mt.streamCoActors("nobody").count());
+
+		// pages are slices of the full results
+		ArrayList<String> all = mt.selectWhereRatingIs('>', 0, true, moviesInfo);
+		assertEquals(all.subList(2, 5), mt.selectWhereRatingIs('>', 0, true, 2, 3));
+		assertEquals(all.subList(5, all.size()), mt.selectWhereRatingIs('>', 0, true, 5, 100));
+		assertEquals(0, mt.selectWhereRatingIs('>', 0, true, 100, 10).size());
+		assertEquals(mt.selectWhereActorIs("meryl streep", actorsInfo).subList(1, 2),
+				mt.selectWhereActorIs("meryl streep", 1, 1));
+		assertEquals(mt.selectWhereMovieIs("doubt", actorsInfo).subList(0, 1), mt.selectWhereMovieIs("doubt", 0, 1));
+		assertEquals(mt.getCoActors("meryl streep", actorsInfo), mt.getCoActors("meryl streep", 0, 100));
+		assertThrows(IllegalArgumentException.class, () -> mt.getCoActors("meryl streep", -1, 1));
+
+		// a stream shows inserts made past its position
+		Iterator<String> coActors = mt.streamCoActors("meryl streep").iterator();
+		String first = coActors.next();
+		mt.insertActor("zoe kazan", new String[] { "doubt" }, actorsInfo);
+		ArrayList<String> rest = new ArrayList<>();
+		coActors.forEachRemaining(rest::add);
+		assertFalse(rest.contains(first));
+		assertEquals("zoe kazan", rest.get(rest.size() - 1));
+
+		// the print methods write one element at a time
+		StringBuilder out = new StringBuilder();
+		mt.writeAllActors(out);
+		mt.writeAllMovies(out);
+		assertEquals(actorsInfo + System.lineSeparator() + moviesInfo + System.lineSeparator(), out.toString());
+
+		// and hold no lock while writing, so an insert doesn't wait for a slow writer
+		movieDB.setConcurrent(true);
+		StringBuilder written = new StringBuilder();
+		Appendable slow = new Appendable() {
+			@Override
+			public Appendable append(CharSequence text) throws IOException {
+				if (written.length() == 1) {
+					Thread insert = new Thread(() -> mt.insertActor("zoe kazan", new String[] { "her" }, actorsInfo));
+					insert.start();
+					try {
+						insert.join(TimeUnit.SECONDS.toMillis(10));
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					assertFalse(insert.isAlive());
+				}
+				written.append(text);
+				return this;
+			}
+
+			@Override
+			public Appendable append(CharSequence text, int start, int end) throws IOException {
+				return append(text.subSequence(start, end));
+			}
+
+			@Override
+			public Appendable append(char c) throws IOException {
+				return append(String.valueOf(c));
+			}
+		};
+		mt.writeAllActors(slow);
+		assertEquals(actorsInfo + System.lineSeparator(), written.toString());
+	}
+
+	@Test
+	void testParallelScan() {
+		// copies are scanned in full, not read through the indexes
+		ArrayList<Actor> actors = new ArrayList<>(movieDB.getActorsInfo());
+		ArrayList<Movie> movies = new ArrayList<>(movieDB.getMoviesInfo());
+		LinkedHashMap<String, ArrayList<String>> sequential = new LinkedHashMap<>();
+		for (Movie movie : movies) {
+			sequential.put("movie " + movie.getName(), mt.selectWhereMovieIs(movie.getName(), actors));
+			sequential.put("common " + movie.getName(), mt.getCommonActors(movie.getName(), "doubt", actors));
+		}
+		for (int target : new int[] { 0, 60, 85, 100 }) {
+			for (char comparison : new char[] { '<', '=', '>' }) {
+				sequential.put("rating " + comparison + target, mt.selectWhereRatingIs(comparison, target, true, movies));
+				sequential.put("audience " + comparison + target, mt.selectWhereRatingIs(comparison, target, false, movies));
+			}
+		}
+		sequential.put("good", mt.goodMovies(movies));
+
+		// ranges of one to more than the whole list give the same results in the same order
+		for (int threshold : new int[] { 1, 3, 1000 }) {
+			mt.setParallel(4, threshold);
+			assertNotNull(mt.getParallelScan());
+			for (Movie movie : movies) {
+				assertEquals(sequential.get("movie " + movie.getName()), mt.selectWhereMovieIs(movie.getName(), actors));
+				assertEquals(sequential.get("common " + movie.getName()), mt.getCommonActors(movie.getName(), "doubt", actors));
+			}
+			for (int target : new int[] { 0, 60, 85, 100 }) {
+				for (char comparison : new char[] { '<', '=', '>' }) {
+					assertEquals(sequential.get("rating " + comparison + target),
+							mt.selectWhereRatingIs(comparison, target, true, movies));
+					assertEquals(sequential.get("audience " + comparison + target),
+							mt.selectWhereRatingIs(comparison, target, false, movies));
+				}
+			}
+			assertEquals(sequential.get("good"), mt.goodMovies(movies));
+		}
+		assertTrue(sequential.get("movie doubt").size() > 1);
+		assertEquals(0, mt.selectWhereRatingIs('!', 70, true, movies).size());
+		assertEquals(0, mt.selectWhereMovieIs("doubt", new ArrayList<>()).size());
+
+		// one thread or less turns it off
+		mt.setParallel(1, 3);
+		assertNull(mt.getParallelScan());
+		assertEquals(sequential.get("good"), mt.goodMovies(movies));
+		assertThrows(IllegalArgumentException.class, () -> mt.setParallel(2, 0));
+	}
+
+	@Test
+	void testSelect() {
+		ArrayList<Actor> actorsInfo = movieDB.getActorsInfo();
+		ArrayList<Movie> moviesInfo = movieDB.getMoviesInfo();
+
+		// the same results as chaining the select methods, in list order
+		for (Actor actor : actorsInfo) {
+			ArrayList<String> rated = mt.selectWhereRatingIs('>', 80, true, moviesInfo);
+			ArrayList<String> chained = new ArrayList<>();
+			for (String movie : rated) {
+				if (mt.selectWhereActorIs(actor.getName(), actorsInfo).contains(movie)) {
+					chained.add(movie);
+				}
+			}
+			assertEquals(chained, mt.select(Query.movieWithActor(actor.getName()).and(Query.criticRating('>', 80))));
+		}
+		assertEquals(Arrays.asList("doubt", "arrival"), mt.select(Query.movieWithActor("amy adams")));
+		assertEquals(mt.goodMovies(moviesInfo), mt.select(Query.criticRating('>', 84).and(Query.audienceRating('>', 84))));
+		assertEquals(Arrays.asList("doubt", "seven", "popeye"),
+				mt.select(Query.audienceRating('<', 80).and(Query.criticRating('<', 80).or(Query.movie("jaws")))));
+		assertEquals(mt.getCommonActors("doubt", "the post", actorsInfo),
+				mt.select(Query.actorInMovie("doubt").and(Query.actorInMovie("the post"))));
+		assertEquals(Arrays.asList("meryl streep"), mt.select(Query.actorInMovie("doubt").and(Query.coActorOf("tom hanks"))));
+		assertEquals(mt.getCoActors("meryl streep", actorsInfo), mt.select(Query.coActorOf("meryl streep")));
+		assertTrue(mt.select(Query.actor("nobody").or(Query.actorInMovie("nothing"))).isEmpty());
+
+		// inserts show up in later queries
+		mt.insertActor("zoe kazan", new String[] { "doubt", "arrival" }, actorsInfo);
+		assertEquals(Arrays.asList("doubt", "arrival"),
+				mt.select(Query.movieWithActor("zoe kazan").and(Query.criticRating('>', 50))));
+		assertEquals(Arrays.asList("amy adams", "zoe kazan"),
+				mt.select(Query.actorInMovie("arrival").and(Query.coActorOf("meryl streep"))));
+	}
+
+	@Test
+	void testTopK() {
+		assertEquals(Arrays.asList("jaws", "arrival", "rocky ii"), mt.topRatedMovies(3, true));
+		assertEquals(Arrays.asList("rocky ii", "jaws", "et"), mt.topRatedMovies(3, false));
+		assertEquals(0, mt.topRatedMovies(0, true).size());
+		assertEquals(7, mt.topRatedMovies(10, false).size());
+
+		// the same as sorting all movies by rating
+		ArrayList<Movie> sorted = new ArrayList<>(movieDB.getMoviesInfo());
+		sorted.sort((a, b) -> b.getAudienceRating() - a.getAudienceRating());
+		assertEquals(sorted.stream().map(Movie::getName).collect(Collectors.toList()), mt.topRatedMovies(7, false));
+
+		// actors by the average rating of their rated movies: amy adams 86.5, meryl streep 79
+		assertEquals(Arrays.asList("amy adams", "meryl streep", "brad pitt", "robin williams"),
+				mt.topRatedActors(10, true, 1));
+		assertEquals(Arrays.asList("amy adams"), mt.topRatedActors(10, true, 2));
+		assertEquals(Arrays.asList("amy adams", "meryl streep"), mt.topRatedActors(2, false, 1));
+
+		// meryl streep worked with two actors, tom hanks and amy adams with one each
+		assertEquals(Arrays.asList("meryl streep", "tom hanks", "amy adams"), mt.mostConnectedActors(3));
+
+		// ties come in list order, and inserts and rating changes count
+		mt.insertRating("zodiac", new int[] { 97, 10 }, movieDB.getMoviesInfo());
+		assertEquals(Arrays.asList("jaws", "zodiac"), mt.topRatedMovies(2, true));
+		mt.insertRating("popeye", new int[] { 100, 100 }, movieDB.getMoviesInfo());
+		assertEquals(Arrays.asList("popeye", "jaws"), mt.topRatedMovies(2, true));
+		assertEquals(Arrays.asList("robin williams", "amy adams"), mt.topRatedActors(2, true, 1));
+		mt.insertActor("zoe kazan", new String[] { "doubt", "the post", "seven" }, movieDB.getActorsInfo());
+		assertEquals(Arrays.asList("zoe kazan", "meryl streep"), mt.mostConnectedActors(2));
+		assertThrows(IllegalArgumentException.class, () -> mt.topRatedActors(-1, true, 1));
+	}
+
 }
@@ -0,0 +1,81 @@
+package file;
+
+/**
+ * Outcome of a batch insert of actors or ratings: how many records came in,
+ * how many entries were new and how many existing entries were changed.
+ * Records with the same normalized name count once as an entry, so
+ * inserted + updated + unchanged entries can be fewer than the records.
+ */
+public class BatchSummary {
+
+	/**
+	 * Number of records in the batch.
+	 */
+	private int records;
+
+	/**
+	 * Number of entries that were not in the database.
+	 */
+	private int inserted;
+
+	/**
+	 * Number of existing entries that were changed.
+	 */
+	private int updated;
+
+	/**
+	 * Number of existing entries the batch left as they were.
+	 */
+	private int unchanged;
+
+	/**
+	 * Creates a summary from the counts of a batch.
+	 * @param records number of records in the batch
+	 * @param inserted number of new entries
+	 * @param updated number of changed entries
+	 * @param unchanged number of existing entries left as they were
+	 */
+	public BatchSummary(int records, int inserted, int updated, int unchanged) {
+		this.records = records;
+		this.inserted = inserted;
+		this.updated = updated;
+		this.unchanged = unchanged;
+	}
+
+	/**
+	 * @return number of records in the batch
+	 */
+	public int getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return number of entries that were not in the database
+	 */
+	public int getInserted() {
+		return inserted;
+	}
+
+	/**
+	 * @return number of existing entries that were changed
+	 */
+	public int getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * @return number of existing entries the batch left as they were
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * Returns String containing the counts.
+	 */
+	@Override
+	public String toString() {
+		return "Records: " + records + " Inserted: " + inserted + " Updated: " + updated + " Unchanged: " + unchanged;
+	}
+
+}
@@ -0,0 +1,44 @@
+package file;
+
+import java.util.ArrayList;
+
+/**
+ * Inverted index from movie to the actors cast in that movie.
+ * Movies are identified by their id in the database's movie name dictionary;
+ * the cast of a movie is kept as a sorted list of actor positions in the
+ * actors list.
+ */
+public class CastIndex {
+
+	/**
+	 * Cast of each movie by movie id, as sorted actor positions; null if nobody was cast.
+	 */
+	private ArrayList<SortedIntList> casts = new ArrayList<SortedIntList>();
+
+	/**
+	 * Records that the actor at the given position was cast in the given movie.
+	 * @param movieId dictionary id of the movie
+	 * @param actorRow position of the actor in the actors list
+	 * @return true if the actor was not yet recorded for that movie
+	 */
+	public boolean add(int movieId, int actorRow) {
+		while (casts.size() <= movieId) {
+			casts.add(null);
+		}
+		SortedIntList cast = casts.get(movieId);
+		if (cast == null) {
+			cast = new SortedIntList();
+			casts.set(movieId, cast);
+		}
+		return cast.add(actorRow);
+	}
+
+	/**
+	 * @param movieId dictionary id of a movie
+	 * @return sorted actor positions cast in the movie, or null if nobody was cast in it
+	 */
+	public SortedIntList getCast(int movieId) {
+		return movieId >= 0 && movieId < casts.size() ? casts.get(movieId) : null;
+	}
+
+}
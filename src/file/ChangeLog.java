@@ -0,0 +1,719 @@
+package file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import movies.Actor;
+import movies.Movie;
+
+/**
+ * Append-only log of the actors and ratings inserted into a MovieDB, so that
+ * inserts survive a restart: the log is replayed on top of the data files or
+ * a snapshot when the database is loaded, see
+ * {@link MovieDB#setChangeLog(ChangeLog)}.
+ * <p>
+ * Appending only buffers a record; {@link #sync(long)} makes it durable. Many
+ * threads syncing at once share the writes and the fsync: the first to come
+ * writes everything buffered so far and forces it to disk while the others
+ * wait, so one fsync commits a whole group of inserts (group commit).
+ * <p>
+ * Layout, all numbers big-endian: a header with the magic number and the
+ * format version, then the records, each as payload length, CRC32 of the
+ * payload and payload. A payload is a type byte, then for an actor the name
+ * and the number and names of its movies, for a rating the movie name and
+ * the critic and audience rating, one byte each; names are written as byte
+ * count and UTF-8 bytes. A record cut short by a crash is dropped when the
+ * log is opened. Replaying applies every record as an upsert, so replaying
+ * records the database already holds changes nothing. A {@link Cursor} remembers
+ * where a replay stopped, so that the next one applies only the records after it.
+ * <p>
+ * The log is compacted once it holds twice as many records as after the last
+ * compaction, and at least the number given when opening: it is rewritten with
+ * one record per actor, holding all of the actor's logged movies, and one per
+ * movie, holding its last logged ratings. Replay time so stays proportional to
+ * the number of distinct actors and movies inserted. Once the data files or a
+ * snapshot hold every logged insert, {@link #checkpoint()} empties the log, so
+ * that later edits to the files are no longer overridden by the logged values.
+ */
+public class ChangeLog implements AutoCloseable {
+
+	/**
+	 * Marks a change log file, "MTLG".
+	 */
+	private static final int MAGIC = 0x4D544C47;
+
+	/**
+	 * Version of the layout, to be increased when it changes.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Bytes before the first record: magic and version.
+	 */
+	private static final int HEADER = 4 + 4;
+
+	/**
+	 * Bytes before each payload: length and checksum.
+	 */
+	private static final int RECORD_HEADER = 4 + 4;
+
+	/**
+	 * Type of a record inserting an actor and movies.
+	 */
+	private static final byte ACTOR = 1;
+
+	/**
+	 * Type of a record setting the ratings of a movie.
+	 */
+	private static final byte RATING = 2;
+
+	/**
+	 * Compaction threshold used by {@link #open(Path)}.
+	 */
+	public static final int DEFAULT_COMPACT_AFTER = 100000;
+
+	/**
+	 * The log file.
+	 */
+	private final Path path;
+
+	/**
+	 * Least number of records before the log is compacted.
+	 */
+	private final int compactAfter;
+
+	/**
+	 * Open log file, positioned at its end.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Records appended but not yet written.
+	 */
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	/**
+	 * Writes records into pending.
+	 */
+	private final DataOutputStream out = new DataOutputStream(pending);
+
+	/**
+	 * Sequence number of the last appended record.
+	 */
+	private long appended;
+
+	/**
+	 * Sequence number of the last record forced to disk.
+	 */
+	private long durable;
+
+	/**
+	 * True while a thread writes to or rewrites the file.
+	 */
+	private boolean busy;
+
+	/**
+	 * Number of records in the file.
+	 */
+	private long records;
+
+	/**
+	 * Number of records in the file right after the last compaction.
+	 */
+	private long compactedRecords;
+
+	/**
+	 * Number of fsyncs done.
+	 */
+	private long syncs;
+
+	/**
+	 * Number of compactions done.
+	 */
+	private long compactions;
+
+	/**
+	 * Number of compactions and checkpoints done, each of which moves the records.
+	 */
+	private long rewrites;
+
+	/**
+	 * Error that broke the log, after which nothing more is written.
+	 */
+	private IOException failure;
+
+	/**
+	 * Where a replay stopped: the offset just past the last record it applied, valid until
+	 * the log is compacted or checkpointed.
+	 */
+	static final class Cursor {
+
+		/**
+		 * Rewrites of the log when offset was taken.
+		 */
+		private long rewrites = -1;
+
+		/**
+		 * Offset just past the last record applied.
+		 */
+		private long offset;
+	}
+
+	/**
+	 * @param path of the log
+	 * @param compactAfter least number of records before compacting
+	 * @param channel open on the log, positioned after its last record
+	 * @param records number of records in the log
+	 */
+	private ChangeLog(Path path, int compactAfter, FileChannel channel, long records) {
+		this.path = path;
+		this.compactAfter = compactAfter;
+		this.channel = channel;
+		this.records = records;
+	}
+
+	/**
+	 * Opens the given change log, creating it if it does not exist, and compacting it
+	 * after {@link #DEFAULT_COMPACT_AFTER} records.
+	 * @param path of the log
+	 * @return the open log
+	 * @throws IOException if the log can't be opened or is not a change log
+	 */
+	public static ChangeLog open(Path path) throws IOException {
+		return open(path, DEFAULT_COMPACT_AFTER);
+	}
+
+	/**
+	 * Opens the given change log, creating it if it does not exist. A record cut short at
+	 * the end of the log, as left by a crash while writing, is cut off.
+	 * @param path of the log
+	 * @param compactAfter least number of records before the log is compacted
+	 * @return the open log
+	 * @throws IOException if the log can't be opened or is not a change log
+	 */
+	public static ChangeLog open(Path path, int compactAfter) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if (channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION);
+				header.flip();
+				writeFully(channel, header);
+				channel.force(true);
+			}
+			ArrayList<byte[]> payloads = new ArrayList<byte[]>();
+			long end = readRecords(channel, path, 0, payloads);
+			if (end < channel.size()) {
+				channel.truncate(end);
+				channel.force(true);
+			}
+			channel.position(end);
+			return new ChangeLog(path, compactAfter, channel, payloads.size());
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends a record of an actor inserted with the given movies.
+	 * @param actor normalized name of the actor
+	 * @param movies normalized names of the movies
+	 * @return sequence number of the record, to pass to {@link #sync(long)}
+	 */
+	public synchronized long appendActor(String actor, String[] movies) {
+		try {
+			ByteArrayOutputStream payload = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(payload);
+			data.writeByte(ACTOR);
+			writeName(data, actor);
+			data.writeInt(movies.length);
+			for (String movie : movies) {
+				writeName(data, movie);
+			}
+			return append(payload.toByteArray());
+		} catch (IOException e) {
+			// writing to memory does not fail
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Appends a record of the ratings set for a movie.
+	 * @param movie normalized name of the movie
+	 * @param criticRating from 0 to 100
+	 * @param audienceRating from 0 to 100
+	 * @return sequence number of the record, to pass to {@link #sync(long)}
+	 */
+	public synchronized long appendRating(String movie, int criticRating, int audienceRating) {
+		try {
+			ByteArrayOutputStream payload = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(payload);
+			data.writeByte(RATING);
+			writeName(data, movie);
+			data.writeByte(criticRating);
+			data.writeByte(audienceRating);
+			return append(payload.toByteArray());
+		} catch (IOException e) {
+			// writing to memory does not fail
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Buffers a record with the given payload.
+	 * @param payload of the record
+	 * @return sequence number of the record
+	 * @throws IOException never, pending is in memory
+	 */
+	private long append(byte[] payload) throws IOException {
+		writeRecord(out, payload);
+		return ++appended;
+	}
+
+	/**
+	 * Waits until the record with the given sequence number, and every record before it,
+	 * is forced to disk. If no other thread is writing, this one writes and forces every
+	 * record appended so far, and compacts the log if it has grown enough.
+	 * @param sequence number returned by an append
+	 * @throws IOException if the log can't be written; the log is then broken for good
+	 */
+	public void sync(long sequence) throws IOException {
+		synchronized (this) {
+			while (durable < sequence && busy && failure == null) {
+				waitForWriter();
+			}
+			if (failure != null) {
+				throw new IOException(path + ": change log failed", failure);
+			}
+			if (durable >= sequence) {
+				return;
+			}
+			busy = true;
+		}
+		boolean compact = false;
+		try {
+			flush();
+			synchronized (this) {
+				compact = records >= Math.max(compactAfter, 2 * compactedRecords);
+			}
+		} finally {
+			release();
+		}
+		if (compact) {
+			compact();
+		}
+	}
+
+	/**
+	 * Writes the pending records and forces them to disk. The caller must be the busy thread.
+	 * @throws IOException if the log can't be written
+	 */
+	private void flush() throws IOException {
+		byte[] batch;
+		long last;
+		long count;
+		synchronized (this) {
+			batch = pending.toByteArray();
+			pending.reset();
+			last = appended;
+			count = appended - durable;
+		}
+		if (count == 0) {
+			return;
+		}
+		try {
+			writeFully(channel, ByteBuffer.wrap(batch));
+			channel.force(false);
+		} catch (IOException e) {
+			synchronized (this) {
+				failure = e;
+			}
+			throw e;
+		}
+		synchronized (this) {
+			durable = last;
+			records += count;
+			syncs++;
+		}
+	}
+
+	/**
+	 * Ends the busy thread's turn and wakes the waiting threads.
+	 */
+	private synchronized void release() {
+		busy = false;
+		notifyAll();
+	}
+
+	/**
+	 * Waits for the busy thread to finish.
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	private void waitForWriter() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for the change log");
+		}
+	}
+
+	/**
+	 * Becomes the busy thread, once the current one is done.
+	 * @throws IOException if the log is broken or the wait is interrupted
+	 */
+	private synchronized void acquire() throws IOException {
+		while (busy && failure == null) {
+			waitForWriter();
+		}
+		if (failure != null) {
+			throw new IOException(path + ": change log failed", failure);
+		}
+		busy = true;
+	}
+
+	/**
+	 * Applies every record of the log to the given database as an upsert: actors get the
+	 * logged movies they do not have yet, movies get their last logged ratings. Records
+	 * appended but not yet synced are written first, so the replay sees every append.
+	 * @param movieDB to apply the records to; the caller holds its write lock if it is shared
+	 * @return counts of the records and the actors and movies they added or changed
+	 * @throws IOException if the log can't be read or written
+	 */
+	public BatchSummary replay(MovieDB movieDB) throws IOException {
+		return replay(movieDB, new Cursor());
+	}
+
+	/**
+	 * Applies the records after the given cursor to the given database, as
+	 * {@link #replay(MovieDB)} does, and moves the cursor past them. If the log was compacted
+	 * or checkpointed since the cursor was moved, every record is applied.
+	 * @param movieDB to apply the records to; the caller holds its write lock if it is shared
+	 * @param cursor where the last replay onto movieDB stopped
+	 * @return counts of the records and the actors and movies they added or changed
+	 * @throws IOException if the log can't be read or written
+	 */
+	BatchSummary replay(MovieDB movieDB, Cursor cursor) throws IOException {
+		ArrayList<byte[]> payloads = new ArrayList<byte[]>();
+		acquire();
+		try {
+			flush();
+			synchronized (this) {
+				if (cursor.rewrites != rewrites) {
+					cursor.rewrites = rewrites;
+					cursor.offset = 0;
+				}
+			}
+			cursor.offset = readRecords(channel, path, cursor.offset, payloads);
+		} finally {
+			release();
+		}
+
+		ArrayList<Actor> actors = new ArrayList<Actor>();
+		ArrayList<Movie> movies = new ArrayList<Movie>();
+		for (byte[] payload : payloads) {
+			ByteBuffer data = ByteBuffer.wrap(payload);
+			if (data.get() == ACTOR) {
+				Actor actor = new Actor(readName(data), movieDB.getMovieNames());
+				for (int i = data.getInt(); i > 0; i--) {
+					actor.getMoviesCast().add(readName(data));
+				}
+				actors.add(actor);
+			} else {
+				movies.add(new Movie(readName(data), data.get(), data.get()));
+			}
+		}
+		BatchSummary actorSummary = movieDB.insertActors(actors);
+		BatchSummary movieSummary = movieDB.insertMovies(movies);
+		return new BatchSummary(payloads.size(), actorSummary.getInserted() + movieSummary.getInserted(),
+				actorSummary.getUpdated() + movieSummary.getUpdated(),
+				actorSummary.getUnchanged() + movieSummary.getUnchanged());
+	}
+
+	/**
+	 * Rewrites the log with one record per actor, holding all of the actor's logged movies,
+	 * and one per movie, holding its last logged ratings. The new log is written aside,
+	 * forced and moved over the old one, so a crash leaves either log whole. Appends may go
+	 * on meanwhile; syncs wait until the rewrite is done.
+	 * @throws IOException if the log can't be rewritten
+	 */
+	public void compact() throws IOException {
+		acquire();
+		try {
+			flush();
+			ArrayList<byte[]> payloads = new ArrayList<byte[]>();
+			readRecords(channel, path, 0, payloads);
+
+			// fold the records by name, in order of first appearance
+			LinkedHashMap<String, LinkedHashSet<String>> actors = new LinkedHashMap<String, LinkedHashSet<String>>();
+			LinkedHashMap<String, byte[]> ratings = new LinkedHashMap<String, byte[]>();
+			for (byte[] payload : payloads) {
+				ByteBuffer data = ByteBuffer.wrap(payload);
+				if (data.get() == ACTOR) {
+					LinkedHashSet<String> movies = actors.computeIfAbsent(readName(data), name -> new LinkedHashSet<String>());
+					for (int i = data.getInt(); i > 0; i--) {
+						movies.add(readName(data));
+					}
+				} else {
+					String movie = readName(data);
+					ratings.remove(movie);
+					ratings.put(movie, payload);
+				}
+			}
+
+			Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+			try {
+				ByteArrayOutputStream compacted = new ByteArrayOutputStream();
+				DataOutputStream data = new DataOutputStream(compacted);
+				data.writeInt(MAGIC);
+				data.writeInt(VERSION);
+				for (Map.Entry<String, LinkedHashSet<String>> actor : actors.entrySet()) {
+					ByteArrayOutputStream payload = new ByteArrayOutputStream();
+					DataOutputStream record = new DataOutputStream(payload);
+					record.writeByte(ACTOR);
+					writeName(record, actor.getKey());
+					record.writeInt(actor.getValue().size());
+					for (String movie : actor.getValue()) {
+						writeName(record, movie);
+					}
+					writeRecord(data, payload.toByteArray());
+				}
+				for (byte[] payload : ratings.values()) {
+					writeRecord(data, payload);
+				}
+				try (FileChannel rewritten = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+					writeFully(rewritten, ByteBuffer.wrap(compacted.toByteArray()));
+					rewritten.force(true);
+				}
+				channel.close();
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+			channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			channel.position(channel.size());
+			synchronized (this) {
+				records = actors.size() + ratings.size();
+				compactedRecords = records;
+				compactions++;
+				rewrites++;
+			}
+		} catch (IOException e) {
+			synchronized (this) {
+				failure = e;
+			}
+			throw e;
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Drops every record, leaving an empty log. To be called once the data files or a snapshot
+	 * hold everything logged, as the records are then no longer needed to rebuild the
+	 * database, and replaying them would override later edits to the files. Records appended
+	 * but not yet synced are written and dropped too.
+	 * @return number of records dropped
+	 * @throws IOException if the log can't be written; the log is then broken for good
+	 */
+	public long checkpoint() throws IOException {
+		acquire();
+		try {
+			flush();
+			long dropped;
+			synchronized (this) {
+				dropped = records;
+			}
+			channel.truncate(HEADER);
+			channel.position(HEADER);
+			channel.force(true);
+			synchronized (this) {
+				records = 0;
+				compactedRecords = 0;
+				rewrites++;
+			}
+			return dropped;
+		} catch (IOException e) {
+			synchronized (this) {
+				failure = e;
+			}
+			throw e;
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * @return number of records in the log file, not counting those appended but not synced
+	 */
+	public synchronized long getRecordCount() {
+		return records;
+	}
+
+	/**
+	 * @return number of fsyncs done; fewer than the records synced when commits were grouped
+	 */
+	public synchronized long getSyncCount() {
+		return syncs;
+	}
+
+	/**
+	 * @return number of compactions done
+	 */
+	public synchronized long getCompactionCount() {
+		return compactions;
+	}
+
+	/**
+	 * @return the log file
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Syncs every appended record and closes the log.
+	 * @throws IOException if the records can't be written
+	 */
+	@Override
+	public void close() throws IOException {
+		long last;
+		synchronized (this) {
+			last = appended;
+		}
+		try {
+			sync(last);
+		} finally {
+			synchronized (this) {
+				while (busy) {
+					waitForWriter();
+				}
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the records of a log from the given offset, stopping at the first one that is
+	 * cut short or does not match its checksum.
+	 * @param channel on the log
+	 * @param path of the log, for messages
+	 * @param from offset of the first record to read, 0 for the first in the log
+	 * @param payloads receives the payload of every whole record
+	 * @return offset just past the last whole record
+	 * @throws IOException if the log can't be read or is not a change log
+	 */
+	private static long readRecords(FileChannel channel, Path path, long from, ArrayList<byte[]> payloads) throws IOException {
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(Math.max(HEADER, RECORD_HEADER));
+		header.limit(HEADER);
+		if (size < HEADER || readFully(channel, header, 0) < HEADER || header.getInt(0) != MAGIC) {
+			throw new IOException(path + ": not a change log");
+		}
+		int version = header.getInt(4);
+		if (version != VERSION) {
+			throw new IOException(path + ": change log version " + version + ", expected " + VERSION);
+		}
+		CRC32 check = new CRC32();
+		long position = Math.max(HEADER, from);
+		while (position + RECORD_HEADER <= size) {
+			header.clear();
+			header.limit(RECORD_HEADER);
+			readFully(channel, header, position);
+			int length = header.getInt(0);
+			if (length <= 0 || position + RECORD_HEADER + length > size) {
+				break;
+			}
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(channel, payload, position + RECORD_HEADER);
+			check.reset();
+			check.update(payload.array());
+			if ((int) check.getValue() != header.getInt(4)) {
+				break;
+			}
+			payloads.add(payload.array());
+			position += RECORD_HEADER + length;
+		}
+		return position;
+	}
+
+	/**
+	 * @param channel to read from
+	 * @param buffer to fill up to its limit
+	 * @param position in the file to read from
+	 * @return number of bytes read, less than asked only at the end of the file
+	 * @throws IOException if the file can't be read
+	 */
+	private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + total);
+			if (read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * @param channel to write to at its position
+	 * @param buffer to write all of
+	 * @throws IOException if the file can't be written
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * @param data to write to
+	 * @param payload of the record
+	 * @throws IOException if data can't be written
+	 */
+	private static void writeRecord(DataOutputStream data, byte[] payload) throws IOException {
+		CRC32 check = new CRC32();
+		check.update(payload);
+		data.writeInt(payload.length);
+		data.writeInt((int) check.getValue());
+		data.write(payload);
+	}
+
+	/**
+	 * @param data to write to
+	 * @param name to write as byte count and UTF-8 bytes
+	 * @throws IOException if data can't be written
+	 */
+	private static void writeName(DataOutputStream data, String name) throws IOException {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+	/**
+	 * @param data positioned on a name
+	 * @return the name
+	 */
+	private static String readName(ByteBuffer data) {
+		byte[] bytes = new byte[data.getInt()];
+		data.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,71 @@
+package file;
+
+import java.util.ArrayList;
+
+/**
+ * Undirected graph of actors who were cast in at least one movie together.
+ * Actors are identified by their position in the actors list and each actor
+ * keeps the sorted positions of its co-actors.
+ */
+public class CoActorGraph {
+	
+	/**
+	 * Shared empty adjacency for actors without co-actors.
+	 */
+	private static final SortedIntList NONE = new SortedIntList();
+	
+	/**
+	 * Co-actors of each actor by position, null until the actor has a co-actor.
+	 */
+	private ArrayList<SortedIntList> coActors = new ArrayList<SortedIntList>();
+	
+	/**
+	 * Connects the given actor to every other actor of the given cast.
+	 * Called when the actor joins a movie, before or after being added to its cast.
+	 * @param actorRow position of the actor
+	 * @param cast sorted positions of the actors cast in the movie
+	 */
+	public void addCast(int actorRow, SortedIntList cast) {
+		for (int i = 0; i < cast.size(); i++) {
+			int other = cast.get(i);
+			if (other != actorRow) {
+				adjacency(actorRow).add(other);
+				adjacency(other).add(actorRow);
+			}
+		}
+	}
+	
+	/**
+	 * @param actorRow position of the actor
+	 * @return sorted positions of the actor's co-actors, not to be modified
+	 */
+	public SortedIntList getCoActors(int actorRow) {
+		SortedIntList list = actorRow < coActors.size() ? coActors.get(actorRow) : null;
+		return list == null ? NONE : list;
+	}
+	
+	/**
+	 * @param actorRow position of the actor
+	 * @return number of co-actors of the actor
+	 */
+	public int getDegree(int actorRow) {
+		return getCoActors(actorRow).size();
+	}
+	
+	/**
+	 * @param actorRow position of the actor
+	 * @return modifiable adjacency of the actor, created on first use
+	 */
+	private SortedIntList adjacency(int actorRow) {
+		while (coActors.size() <= actorRow) {
+			coActors.add(null);
+		}
+		SortedIntList list = coActors.get(actorRow);
+		if (list == null) {
+			list = new SortedIntList();
+			coActors.set(actorRow, list);
+		}
+		return list;
+	}
+
+}
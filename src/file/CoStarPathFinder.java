@@ -0,0 +1,240 @@
+package file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import movies.Actor;
+import movies.NameDictionary;
+
+/**
+ * Finds the shortest chain of co-stars between two actors ("six degrees") by
+ * bidirectional breadth first search over the bipartite graph of actors and
+ * the movies they were cast in.
+ * Actors are identified by their position in the actors list and movies by
+ * their id in the database's movie name dictionary. All search state lives
+ * in int arrays that are reused between queries; a node counts as visited
+ * when its stamp equals the current query's generation, so nothing is
+ * cleared or allocated per query.
+ */
+public class CoStarPathFinder {
+
+	/**
+	 * Side searching from the first actor.
+	 */
+	private static final int SOURCE = 0;
+
+	/**
+	 * Side searching from the second actor.
+	 */
+	private static final int TARGET = 1;
+
+	/**
+	 * Database to search.
+	 */
+	private final MovieDB movieDB;
+
+	/**
+	 * Generation of the current query.
+	 */
+	private int generation;
+
+	/**
+	 * Per side, generation in which each actor was reached.
+	 */
+	private int[][] actorSeen = new int[2][0];
+
+	/**
+	 * Per side, generation in which each movie was reached.
+	 */
+	private int[][] movieSeen = new int[2][0];
+
+	/**
+	 * Per side, number of movies between each reached actor and the side's start.
+	 */
+	private int[][] actorDepth = new int[2][0];
+
+	/**
+	 * Per side, movie through which each actor was reached.
+	 */
+	private int[][] viaMovie = new int[2][0];
+
+	/**
+	 * Per side, actor through which each movie was reached.
+	 */
+	private int[][] viaActor = new int[2][0];
+
+	/**
+	 * Per side, actors reached in the last level.
+	 */
+	private int[][] frontier = new int[2][16];
+
+	/**
+	 * Per side, number of actors in frontier.
+	 */
+	private int[] frontierSize = new int[2];
+
+	/**
+	 * Actors reached in the level being expanded.
+	 */
+	private int[] next = new int[16];
+
+	/**
+	 * Creates a path finder over the given database.
+	 * @param movieDB to search
+	 */
+	public CoStarPathFinder(MovieDB movieDB) {
+		this.movieDB = movieDB;
+	}
+
+	/**
+	 * Returns the shortest chain linking the two actors, alternating actor and movie names
+	 * and starting and ending with the given actors.
+	 * @param actor1 name of the first actor
+	 * @param actor2 name of the second actor
+	 * @param maxDepth maximum number of movies in the chain
+	 * @return actor, movie, actor, ... chain, or an empty list if the actors are unknown
+	 * or not connected within maxDepth movies
+	 */
+	public synchronized ArrayList<String> findPath(String actor1, String actor2, int maxDepth) {
+		ArrayList<String> path = new ArrayList<String>();
+		int source = movieDB.getActorRow(actor1);
+		int target = movieDB.getActorRow(actor2);
+		if (source < 0 || target < 0) {
+			return path;
+		}
+		ArrayList<Actor> actorsInfo = movieDB.getActorsInfo();
+		if (source == target) {
+			path.add(actorsInfo.get(source).getName());
+			return path;
+		}
+
+		prepare();
+		start(SOURCE, source);
+		start(TARGET, target);
+		int[] depth = new int[2];
+		int meet = -1;
+		while (meet < 0 && depth[SOURCE] + depth[TARGET] < maxDepth
+				&& frontierSize[SOURCE] > 0 && frontierSize[TARGET] > 0) {
+			// grow the side with the smaller frontier
+			int side = frontierSize[SOURCE] <= frontierSize[TARGET] ? SOURCE : TARGET;
+			meet = expand(side, depth[side]);
+			depth[side]++;
+		}
+		if (meet < 0) {
+			return path;
+		}
+
+		// walk back from the meeting actor to the source, then forward to the target
+		NameDictionary movieNames = movieDB.getMovieNames();
+		for (int actor = meet; actor != source; ) {
+			int movie = viaMovie[SOURCE][actor];
+			path.add(actorsInfo.get(actor).getName());
+			path.add(movieNames.name(movie));
+			actor = viaActor[SOURCE][movie];
+		}
+		path.add(actorsInfo.get(source).getName());
+		Collections.reverse(path);
+		for (int actor = meet; actor != target; ) {
+			int movie = viaMovie[TARGET][actor];
+			path.add(movieNames.name(movie));
+			actor = viaActor[TARGET][movie];
+			path.add(actorsInfo.get(actor).getName());
+		}
+		return path;
+	}
+
+	/**
+	 * Starts a new generation, growing the arrays to the current database size.
+	 */
+	private void prepare() {
+		int actors = movieDB.getActorsInfo().size();
+		int movies = movieDB.getMovieNames().size();
+		if (generation == Integer.MAX_VALUE) {
+			generation = 0;
+			for (int side = 0; side < 2; side++) {
+				Arrays.fill(actorSeen[side], 0);
+				Arrays.fill(movieSeen[side], 0);
+			}
+		}
+		generation++;
+		for (int side = 0; side < 2; side++) {
+			if (actorSeen[side].length < actors) {
+				int length = Math.max(actors, actorSeen[side].length * 2);
+				actorSeen[side] = Arrays.copyOf(actorSeen[side], length);
+				actorDepth[side] = Arrays.copyOf(actorDepth[side], length);
+				viaMovie[side] = Arrays.copyOf(viaMovie[side], length);
+			}
+			if (movieSeen[side].length < movies) {
+				int length = Math.max(movies, movieSeen[side].length * 2);
+				movieSeen[side] = Arrays.copyOf(movieSeen[side], length);
+				viaActor[side] = Arrays.copyOf(viaActor[side], length);
+			}
+		}
+	}
+
+	/**
+	 * Puts the given actor alone in the frontier of the given side.
+	 * @param side SOURCE or TARGET
+	 * @param actor position of the start actor
+	 */
+	private void start(int side, int actor) {
+		actorSeen[side][actor] = generation;
+		actorDepth[side][actor] = 0;
+		frontier[side][0] = actor;
+		frontierSize[side] = 1;
+	}
+
+	/**
+	 * Expands the frontier of the given side by one movie. The whole level is expanded and,
+	 * if it reaches actors seen by the other side, the one giving the shortest chain is returned.
+	 * @param side SOURCE or TARGET
+	 * @param depth number of movies between the frontier and the side's start
+	 * @return position of the meeting actor, or -1 if the sides did not meet
+	 */
+	private int expand(int side, int depth) {
+		int other = 1 - side;
+		ArrayList<Actor> actorsInfo = movieDB.getActorsInfo();
+		CastIndex castIndex = movieDB.getCastIndex();
+		int[] current = frontier[side];
+		int nextSize = 0;
+		int meet = -1;
+		int best = Integer.MAX_VALUE;
+		for (int i = 0; i < frontierSize[side]; i++) {
+			int actor = current[i];
+			Actor a = actorsInfo.get(actor);
+			for (int k = 0; k < a.getMovieCount(); k++) {
+				int movie = a.getMovieId(k);
+				if (movieSeen[side][movie] == generation) {
+					continue;
+				}
+				movieSeen[side][movie] = generation;
+				viaActor[side][movie] = actor;
+				SortedIntList cast = castIndex.getCast(movie);
+				for (int j = 0; j < cast.size(); j++) {
+					int coActor = cast.get(j);
+					if (actorSeen[side][coActor] == generation) {
+						continue;
+					}
+					actorSeen[side][coActor] = generation;
+					actorDepth[side][coActor] = depth + 1;
+					viaMovie[side][coActor] = movie;
+					if (actorSeen[other][coActor] == generation && actorDepth[other][coActor] < best) {
+						best = actorDepth[other][coActor];
+						meet = coActor;
+					}
+					if (nextSize == next.length) {
+						next = Arrays.copyOf(next, nextSize * 2);
+					}
+					next[nextSize++] = coActor;
+				}
+			}
+		}
+		// the filled level becomes the frontier, the old frontier array is reused next time
+		frontier[side] = next;
+		frontierSize[side] = nextSize;
+		next = current;
+		return meet;
+	}
+
+}
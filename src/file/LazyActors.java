@@ -0,0 +1,260 @@
+package file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import movies.Actor;
+import movies.MovieLoader;
+
+/**
+ * Actors of a movieData file loaded lazily. Indexing the file keeps only each
+ * actor's name and the offsets of its lines; an actor's movies are parsed from
+ * the file when first used. At most a given number of actors keep their
+ * decoded movies: beyond that, actors are unloaded in the order they were
+ * decoded, except that those used since they were last passed over get
+ * another round, which approximates least recently used without
+ * bookkeeping on every use. The actor just decoded is never the one unloaded,
+ * but any other may be, even one in use, so code reading two actors must
+ * decode both before reading either, see {@link Actor#commonMovieIds(Actor)}.
+ * Actors that had movies added keep them. The file stays open until closed,
+ * so it may be appended to or replaced by another file meanwhile, but lines
+ * must not be changed in place. Not thread-safe: a database is only lazy
+ * outside concurrent mode.
+ */
+class LazyActors implements Closeable {
+
+	/**
+	 * Database the actors belong to; lines are parsed, errors reported and decode times
+	 * recorded by it.
+	 */
+	private MovieDB movieDB;
+
+	/**
+	 * Name of the file as given.
+	 */
+	private final String path;
+
+	/**
+	 * The file, read with positional reads.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Most actors keeping decoded movies.
+	 */
+	private final int capacity;
+
+	/**
+	 * Actors with decoded movies, in the order they were decoded or passed over.
+	 */
+	private final ArrayDeque<Actor> decoded = new ArrayDeque<Actor>();
+
+	/**
+	 * Tokenizes the lines indexed and decoded.
+	 */
+	private final LineTokenizer tokens = new LineTokenizer();
+
+	/**
+	 * Lines of each actor by row while indexing, null once indexed.
+	 */
+	private ArrayList<Lines> linesByRow = new ArrayList<Lines>();
+
+	/**
+	 * Opens the given file for indexing.
+	 * @param movieDB to add the actors to
+	 * @param path of the movieData file
+	 * @param capacity most actors keeping decoded movies, at least 1
+	 * @throws IOException if the file can't be opened
+	 */
+	LazyActors(MovieDB movieDB, String path, int capacity) throws IOException {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+		}
+		this.movieDB = movieDB;
+		this.path = path;
+		this.capacity = capacity;
+		channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Indexes one line of the file: adds its actor to the database with its movies left in the
+	 * file, or records the line as another one of an actor added before.
+	 * @param line text of the line
+	 * @param index of the line
+	 * @param offset of the line in the file
+	 * @return row of the line's actor, -1 if the line holds none
+	 * @throws IllegalArgumentException if the actor's name is malformed
+	 */
+	int index(String line, int index, long offset) {
+		if (!tokens.reset(line).hasNext()) {
+			return -1;
+		}
+		String name = tokens.nextField();
+		int row = movieDB.getActorRow(name);
+		if (row >= 0) {
+			Lines first = linesByRow.get(row);
+			Lines last = first;
+			while (last.next != null) {
+				last = last.next;
+			}
+			last.next = new Lines(offset);
+			return row;
+		}
+		Lines lines = new Lines(offset);
+		row = movieDB.addActor(new Actor(name, movieDB.getMovieNames(), lines));
+		linesByRow.add(lines);
+		return row;
+	}
+
+	/**
+	 * Moves the actors over to the database that took over the one they were indexed into,
+	 * so that its metrics and load errors are used from then on.
+	 * @param movieDB the database now holding the actors
+	 */
+	void attach(MovieDB movieDB) {
+		this.movieDB = movieDB;
+	}
+
+	/**
+	 * Drops what was only needed while indexing.
+	 */
+	void indexed() {
+		linesByRow = null;
+	}
+
+	/**
+	 * @return most actors keeping decoded movies
+	 */
+	int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of actors holding decoded movies, at most the capacity
+	 */
+	int getDecodedCount() {
+		return decoded.size();
+	}
+
+	/**
+	 * Parses an actor's lines. Movies repeated on later lines are added once, as when the file
+	 * is loaded in full. A malformed line is reported and adds no movies.
+	 * @param lines of the actor
+	 * @return dictionary ids of the actor's movies
+	 * @throws UncheckedIOException if the file can't be read
+	 */
+	private int[] decode(Lines lines) {
+		long start = movieDB.getMetrics().isEnabled() ? System.nanoTime() : 0;
+		int[] ids = new int[8];
+		int count = 0;
+		int lineCount = 0;
+		for (Lines line = lines; line != null; line = line.next, lineCount++) {
+			Actor parsed;
+			try {
+				parsed = movieDB.parseActor(tokens.reset(TrackedFile.readLine(channel, line.offset)), false);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (IllegalArgumentException e) {
+				movieDB.reportError(path, 0, "line at byte " + line.offset + ": " + e.getMessage());
+				continue;
+			}
+			for (int i = 0; i < parsed.getMovieCount(); i++) {
+				int id = parsed.getMovieId(i);
+				if (line != lines && contains(ids, count, id)) {
+					continue;
+				}
+				if (count == ids.length) {
+					ids = Arrays.copyOf(ids, count * 2);
+				}
+				ids[count++] = id;
+			}
+		}
+		if (movieDB.getMetrics().isEnabled()) {
+			movieDB.getMetrics().record("lazy.decode", System.nanoTime() - start, count, lineCount);
+		}
+		return Arrays.copyOf(ids, count);
+	}
+
+	/**
+	 * Keeps a newly decoded actor and unloads others to stay within the capacity; the actor
+	 * itself is kept even when every other one was used since it was last passed over.
+	 * @param actor whose movies were decoded
+	 */
+	private void keep(Actor actor) {
+		decoded.add(actor);
+		while (decoded.size() > capacity) {
+			Actor eldest = decoded.poll();
+			if (eldest == actor || eldest.clearReferenced() && eldest.isLoaded()) {
+				// used since it was last passed over, give it another round
+				decoded.add(eldest);
+			} else {
+				eldest.unload();
+			}
+		}
+	}
+
+	/**
+	 * @param values to search
+	 * @param size number of values in use
+	 * @param value to look for
+	 * @return true if value is among the first size values
+	 */
+	private static boolean contains(int[] values, int size, int value) {
+		for (int i = 0; i < size; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Closes the file; actors left unloaded can't be decoded afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Offsets of the lines of one actor, as a chain, and the loader of its movies.
+	 */
+	private class Lines implements MovieLoader {
+
+		/**
+		 * Offset of the line in the file.
+		 */
+		private final long offset;
+
+		/**
+		 * The actor's next line, null if none.
+		 */
+		private Lines next;
+
+		/**
+		 * @param offset of the line in the file
+		 */
+		private Lines(long offset) {
+			this.offset = offset;
+		}
+
+		@Override
+		public int[] loadMovieIds(Actor actor) {
+			return decode(this);
+		}
+
+		@Override
+		public void loaded(Actor actor) {
+			keep(actor);
+		}
+
+	}
+
+}
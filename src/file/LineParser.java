@@ -0,0 +1,17 @@
+package file;
+
+/**
+ * Turns one tokenized line of a data file into a value.
+ * @param <T> type of the values
+ */
+interface LineParser<T> {
+	
+	/**
+	 * @param tokens positioned on the line
+	 * @param firstLine true for the first line of the file
+	 * @return the value, or null if the line holds none
+	 * @throws IllegalArgumentException if the line is malformed
+	 */
+	T parse(LineTokenizer tokens, boolean firstLine);
+
+}
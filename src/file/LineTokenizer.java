@@ -0,0 +1,209 @@
+package file;
+
+import java.util.Arrays;
+
+/**
+ * Splits one line of a data file into comma separated fields in a single pass.
+ * Fields are trimmed and lower-cased while they are copied, so each field
+ * costs one String and numbers are parsed without any. A field may be put in
+ * double quotes to contain commas, with "" standing for a quote inside it.
+ * A tokenizer is reset for every line and reuses its buffer, so one
+ * tokenizer should be used per thread.
+ */
+public class LineTokenizer {
+
+	/**
+	 * Text containing the line.
+	 */
+	private CharSequence text;
+
+	/**
+	 * Start of the next field, or -1 after the last field.
+	 */
+	private int pos;
+
+	/**
+	 * End of the line in text.
+	 */
+	private int end;
+
+	/**
+	 * Buffer the current field is copied into.
+	 */
+	private char[] buffer = new char[64];
+
+	/**
+	 * Starts tokenizing the given line.
+	 * @param line to tokenize
+	 * @return this tokenizer
+	 */
+	public LineTokenizer reset(CharSequence line) {
+		return reset(line, 0, line.length());
+	}
+
+	/**
+	 * Starts tokenizing the line between the given positions of the given text.
+	 * A blank line has no fields.
+	 * @param text containing the line
+	 * @param start of the line
+	 * @param end of the line, exclusive
+	 * @return this tokenizer
+	 */
+	public LineTokenizer reset(CharSequence text, int start, int end) {
+		this.text = text;
+		this.end = end;
+		this.pos = skipSpaces(start) < end ? start : -1;
+		return this;
+	}
+
+	/**
+	 * @return true if there is another field
+	 */
+	public boolean hasNext() {
+		return pos >= 0;
+	}
+
+	/**
+	 * Returns the next field trimmed and lower-cased.
+	 * @return the field, empty if there is nothing between the commas
+	 * @throws IllegalArgumentException if there is no next field or a quoted field is malformed
+	 */
+	public String nextField() {
+		int i = start();
+		int length = 0;
+		if (i < end && text.charAt(i) == '"') {
+			i++;
+			while (true) {
+				if (i >= end) {
+					throw new IllegalArgumentException("unterminated quote");
+				}
+				char c = text.charAt(i++);
+				if (c == '"') {
+					if (i < end && text.charAt(i) == '"') {
+						i++;
+					} else {
+						break;
+					}
+				}
+				length = append(length, c);
+			}
+			// trim inside the quotes like outside
+			int from = 0;
+			while (from < length && buffer[from] <= ' ') {
+				from++;
+			}
+			while (length > from && buffer[length - 1] <= ' ') {
+				length--;
+			}
+			finish(skipSpaces(i));
+			return new String(buffer, from, length - from);
+		}
+		int trimmed = 0;
+		while (i < end && text.charAt(i) != ',') {
+			char c = text.charAt(i++);
+			length = append(length, c);
+			if (c > ' ') {
+				trimmed = length;
+			}
+		}
+		finish(i);
+		return new String(buffer, 0, trimmed);
+	}
+
+	/**
+	 * Returns the next field as an int, without creating a String.
+	 * @return the number
+	 * @throws IllegalArgumentException if there is no next field or it is not an int
+	 */
+	public int nextInt() {
+		int i = skipSpaces(start());
+		boolean negative = false;
+		if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+			negative = text.charAt(i) == '-';
+			i++;
+		}
+		int digits = 0;
+		long value = 0;
+		while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+			value = value * 10 + (text.charAt(i) - '0');
+			if (value > Integer.MAX_VALUE + 1L) {
+				throw new IllegalArgumentException("number out of range");
+			}
+			digits++;
+			i++;
+		}
+		value = negative ? -value : value;
+		i = skipSpaces(i);
+		if (digits == 0 || (i < end && text.charAt(i) != ',') || value > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("not a number");
+		}
+		finish(i);
+		return (int) value;
+	}
+
+	/**
+	 * @return true if the next field starts with a digit, optionally signed
+	 */
+	public boolean nextIsNumber() {
+		if (pos < 0) {
+			return false;
+		}
+		int i = skipSpaces(pos);
+		if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+			i++;
+		}
+		return i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9';
+	}
+
+	/**
+	 * @return start of the next field, skipping leading whitespace
+	 * @throws IllegalArgumentException if there is no next field
+	 */
+	private int start() {
+		if (pos < 0) {
+			throw new IllegalArgumentException("missing field");
+		}
+		return skipSpaces(pos);
+	}
+
+	/**
+	 * Moves past the field ending at the given position.
+	 * @param i position of the comma after the field, or of the end of the line
+	 * @throws IllegalArgumentException if the field is followed by something else
+	 */
+	private void finish(int i) {
+		if (i >= end) {
+			pos = -1;
+		} else if (text.charAt(i) == ',') {
+			pos = i + 1;
+		} else {
+			throw new IllegalArgumentException("unexpected character after quoted field");
+		}
+	}
+
+	/**
+	 * @param i position in text
+	 * @return first position from i that is not whitespace, or end
+	 */
+	private int skipSpaces(int i) {
+		while (i < end && text.charAt(i) <= ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Appends the lower-cased character to the buffer.
+	 * @param length of the field so far
+	 * @param c character to append
+	 * @return new length of the field
+	 */
+	private int append(int length, char c) {
+		if (length == buffer.length) {
+			buffer = Arrays.copyOf(buffer, length * 2);
+		}
+		buffer[length] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c < 128 ? c : Character.toLowerCase(c);
+		return length + 1;
+	}
+
+}
@@ -1,83 +1,1710 @@
 package file;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import metrics.QueryMetrics;
 import movies.Actor;
 import movies.Movie;
+import movies.NameDictionary;
+import movies.RatingListener;
 
 /**
  * Loads movie and ratings data from two given data files.
  * Creates two ArrayLists for storing the information in those data files.
+ * Movie names are stored once in a dictionary shared by all actors.
+ * Keeps hash indexes from normalized names to positions in those lists, so
+ * point lookups do not have to scan them, an inverted index from each
+ * movie to its cast, the graph of actors who were cast together and
+ * per-rating buckets of movies for the critic and audience ratings, and
+ * the ratings again as primitive columns for scans.
+ * In concurrent mode, see {@link #setConcurrent(boolean)}, the lists and
+ * indexes are guarded by a read-write lock so that many readers can query
+ * while writers insert. The lookups by name take the read lock themselves;
+ * callers reading several things at once hold it around all of them.
+ * Loading replaces the lists and indexes as a whole, and {@link #reload()}
+ * applies only the lines of the data files that changed since they were
+ * loaded. Inserts logged to a change log, see {@link #setChangeLog(ChangeLog)},
+ * are replayed on top of every load.
+ * A lazy load, see {@link #setUpLazy(String, String, int)}, keeps only the
+ * actors' names and line offsets and parses their movies on first use.
+ * Queries whose results may be large can be streamed one result at a time,
+ * stopping as early as the caller does.
  *
  */
 public class MovieDB {
 	
 	/**
-	 * List of actors information.
+	 * List of actors information. Loads refill it rather than replace it, so references to it stay valid.
 	 */
-	private ArrayList<Actor> actorsInfo = new ArrayList<Actor>();
+	private final ArrayList<Actor> actorsInfo = new ArrayList<Actor>();
 	
 	/**
-	 * List of movies information.
+	 * List of movies information. Loads refill it rather than replace it, so references to it stay valid.
 	 */
-	private ArrayList<Movie> moviesInfo = new ArrayList<Movie>();
+	private final ArrayList<Movie> moviesInfo = new ArrayList<Movie>();
 	
 	/**
-	 * Loads and parses the given movieData and movieRatings data files.
+	 * Normalized actor name to index in actorsInfo.
+	 */
+	private HashMap<String, Integer> actorIndex = new HashMap<String, Integer>();
+	
+	/**
+	 * Normalized movie name to index in moviesInfo.
+	 */
+	private HashMap<String, Integer> movieIndex = new HashMap<String, Integer>();
+	
+	/**
+	 * Ids of all movie names, shared by the actors of this database.
+	 */
+	private NameDictionary movieNames = new NameDictionary();
+	
+	/**
+	 * Movie to the actors cast in it.
+	 */
+	private CastIndex castIndex = new CastIndex();
+	
+	/**
+	 * Actors who were cast together, derived from the cast index.
+	 */
+	private CoActorGraph coActorGraph = new CoActorGraph();
+	
+	/**
+	 * Movies by critic rating.
+	 */
+	private RatingIndex criticIndex = new RatingIndex();
+	
+	/**
+	 * Movies by audience rating.
+	 */
+	private RatingIndex audienceIndex = new RatingIndex();
+	
+	/**
+	 * Ratings and name ids of the movies in moviesInfo, stored as columns for scans.
+	 */
+	private RatingColumns ratingColumns = new RatingColumns();
+	
+	/**
+	 * A range query scans the rating columns instead of reading buckets when it
+	 * matches more than 1 in this many movies.
+	 */
+	private static final int SCAN_FRACTION = 8;
+	
+	/**
+	 * Keeps the rating indexes current when a movie's rating is set.
+	 */
+	private RatingListener ratingListener = this::ratingChanged;
+	
+	/**
+	 * Problems found while loading the data files.
+	 */
+	private ArrayList<String> loadErrors = new ArrayList<String>();
+	
+	/**
+	 * Guards the lists and indexes in concurrent mode.
+	 */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	/**
+	 * True if readLock() and writeLock() hand out the real locks.
+	 */
+	private volatile boolean concurrent;
+	
+	/**
+	 * Receives the timings of the load phases.
+	 */
+	private QueryMetrics metrics = QueryMetrics.NONE;
+	
+	/**
+	 * Log of inserts replayed on top of every load, null if there is none.
+	 */
+	private ChangeLog changeLog;
+	
+	/**
+	 * Called under the write lock whenever a load or reload changed the database, null if none.
+	 */
+	private Runnable changeListener;
+	
+	/**
+	 * Called under the write lock after a database movie's rating was set, null if none.
+	 */
+	private RatingListener ratingChangeListener;
+	
+	/**
+	 * Actors whose movies are parsed from the movieData file on first use, null unless the
+	 * database was loaded lazily.
+	 */
+	private LazyActors lazyActors;
+	
+	/**
+	 * False while castIndex and coActorGraph are not built yet, after a lazy load.
+	 */
+	private boolean castIndexed = true;
+	
+	/**
+	 * The movieData file as last loaded or reloaded, null if none was loaded.
+	 */
+	private TrackedFile dataFile;
+	
+	/**
+	 * The movieRatings file as last loaded or reloaded, null if none was loaded.
+	 */
+	private TrackedFile ratingsFile;
+	
+	/**
+	 * True while a reload rebuilds the database, so that the actors and movies inserted
+	 * since the last load are carried over into the rebuilt one.
+	 */
+	private boolean rebuilding;
+	
+	/**
+	 * Loads and parses the given movieData and movieRatings data files, replacing what the
+	 * database held. The files are loaded into new lists and indexes, which take the place of
+	 * the current ones at once under the write lock, so readers see the database as it was
+	 * before or after the load, never half loaded.
+	 * An actor listed on several lines gets the movies of all of them, and a movie rated on
+	 * several lines the ratings of the last one.
+	 * Malformed lines are skipped and reported, see {@link #getLoadErrors()}.
+	 * The files are remembered for {@link #reload()}.
+	 * @param movieData file to load and parse
+	 * @param movieRatings file to load and parse
+	 */
+	public synchronized void setUp (String movieData, String movieRatings) {
+		MovieDB loaded = emptyCopy();
+		loaded.dataFile = new TrackedFile(movieData);
+		loaded.ratingsFile = new TrackedFile(movieRatings);
+		
+		//load movieData file
+		long start = metrics.isEnabled() ? System.nanoTime() : 0;
+		long lines = loaded.load(loaded.dataFile, loaded::parseActor, loaded::upsertActor);
+		if (metrics.isEnabled()) {
+			metrics.record("setUp.movieData", System.nanoTime() - start, loaded.actorsInfo.size(), lines);
+		}
+		
+		//load movieRatings file
+		start = metrics.isEnabled() ? System.nanoTime() : 0;
+		lines = loaded.load(loaded.ratingsFile, loaded::parseMovie, loaded::upsertMovie);
+		if (metrics.isEnabled()) {
+			metrics.record("setUp.movieRatings", System.nanoTime() - start, loaded.moviesInfo.size(), lines);
+		}
+		replaceWith(loaded);
+	}
+	
+	/**
+	 * Loads the given data files lazily, replacing what the database held: the movieRatings
+	 * file is loaded as by {@link #setUp(String, String)}, but of the movieData file only each
+	 * actor's name and the offsets of its lines are kept. An actor's movies are parsed from the
+	 * file when first used, and at most cacheSize actors keep them decoded. The movie to cast
+	 * index and the co-actor graph are built on first use by decoding every actor once, and
+	 * are not bounded by cacheSize: queries on casts and co-actors, co-star paths and
+	 * connectivity rankings build them in full, so only queries by actor or rating keep the
+	 * memory of a lazy load small.
+	 * The file stays open until the next load and may be appended to or replaced meanwhile,
+	 * but not changed in place. A database in concurrent mode is loaded in full instead, and
+	 * turning concurrent mode on loads a lazy database in full, see {@link #materialize()}.
+	 * @param movieData file to index
+	 * @param movieRatings file to load and parse
+	 * @param cacheSize most actors keeping decoded movies, at least 1
+	 */
+	public synchronized void setUpLazy (String movieData, String movieRatings, int cacheSize) {
+		if (cacheSize < 1) {
+			throw new IllegalArgumentException("cacheSize must be at least 1: " + cacheSize);
+		}
+		if (concurrent) {
+			setUp(movieData, movieRatings);
+			return;
+		}
+		MovieDB loaded = emptyCopy();
+		loaded.dataFile = new TrackedFile(movieData);
+		loaded.ratingsFile = new TrackedFile(movieRatings);
+		
+		//index movieData file
+		long start = metrics.isEnabled() ? System.nanoTime() : 0;
+		long lines = 0;
+		try {
+			LazyActors lazy = new LazyActors(loaded, movieData, cacheSize);
+			loaded.lazyActors = lazy;
+			loaded.castIndexed = false;
+			lines = loaded.load(loaded.dataFile, lazy::index);
+			lazy.indexed();
+		} catch (IOException e) {
+			loaded.reportError(movieData, 0, e.toString());
+		}
+		if (metrics.isEnabled()) {
+			metrics.record("setUp.lazyIndex", System.nanoTime() - start, loaded.actorsInfo.size(), lines);
+		}
+		
+		//load movieRatings file
+		start = metrics.isEnabled() ? System.nanoTime() : 0;
+		lines = loaded.load(loaded.ratingsFile, loaded::parseMovie, loaded::upsertMovie);
+		if (metrics.isEnabled()) {
+			metrics.record("setUp.movieRatings", System.nanoTime() - start, loaded.moviesInfo.size(), lines);
+		}
+		replaceWith(loaded);
+	}
+	
+	/**
+	 * Turns a lazily loaded database into a fully loaded one: every actor's movies are decoded
+	 * and kept, the cast index and co-actor graph are built and the movieData file is closed.
+	 * Does nothing if the database was not loaded lazily.
+	 */
+	public synchronized void materialize() {
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			if (lazyActors == null) {
+				return;
+			}
+			long start = metrics.isEnabled() ? System.nanoTime() : 0;
+			for (Actor actor : actorsInfo) {
+				actor.keepMovies();
+			}
+			indexCasts();
+			closeLazyActors();
+			if (metrics.isEnabled()) {
+				metrics.record("materialize", System.nanoTime() - start, actorsInfo.size(), actorsInfo.size());
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * @return true if the database was loaded lazily and not materialized since
+	 */
+	public boolean isLazy() {
+		return lazyActors != null;
+	}
+	
+	/**
+	 * @return number of actors holding decoded movies after a lazy load, all actors otherwise
+	 */
+	public int getDecodedActorCount() {
+		return lazyActors != null ? lazyActors.getDecodedCount() : actorsInfo.size();
+	}
+	
+	/**
+	 * Builds the cast index and the co-actor graph after a lazy load, decoding every actor.
+	 * The actors are decoded one at a time through the bounded cache, but the index and graph
+	 * hold every cast and are kept from then on, so a lazy database that answers cast queries
+	 * ends up holding as much as a full load less the actors' own movie lists.
+	 */
+	private void indexCasts() {
+		if (castIndexed) {
+			return;
+		}
+		long start = metrics.isEnabled() ? System.nanoTime() : 0;
+		castIndexed = true;
+		for (int row = 0; row < actorsInfo.size(); row++) {
+			Actor actor = actorsInfo.get(row);
+			for (int i = 0; i < actor.getMovieCount(); i++) {
+				int movieId = actor.getMovieId(i);
+				if (castIndex.add(movieId, row)) {
+					coActorGraph.addCast(row, castIndex.getCast(movieId));
+				}
+			}
+		}
+		if (metrics.isEnabled()) {
+			metrics.record("indexCasts", System.nanoTime() - start, actorsInfo.size(), actorsInfo.size());
+		}
+	}
+	
+	/**
+	 * Closes the movieData file of a lazy load, reporting a failure as a load error.
+	 */
+	private void closeLazyActors() {
+		try {
+			lazyActors.close();
+		} catch (IOException e) {
+			reportError(dataFile.getPath(), 0, e.toString());
+		}
+		lazyActors = null;
+	}
+	
+	/**
+	 * Loads and parses the given movieData and movieRatings data files, reading both files
+	 * at the same time and parsing chunks of each on the given number of threads.
+	 * Actors and movies end up in the same order as with {@link #setUp(String, String)},
+	 * and replace what the database held in the same way. The first {@link #reload()}
+	 * after a parallel load reads the files in full.
+	 * @param movieData file to load and parse
+	 * @param movieRatings file to load and parse
+	 * @param threads to parse on, 1 or less loads sequentially
+	 */
+	public synchronized void setUp (String movieData, String movieRatings, int threads) {
+		if (threads <= 1) {
+			setUp(movieData, movieRatings);
+		} else {
+			long start = metrics.isEnabled() ? System.nanoTime() : 0;
+			MovieDB loaded = emptyCopy();
+			loaded.dataFile = new TrackedFile(movieData);
+			loaded.ratingsFile = new TrackedFile(movieRatings);
+			new ParallelLoader(threads).load(loaded, movieData, movieRatings);
+			if (metrics.isEnabled()) {
+				int rows = loaded.actorsInfo.size() + loaded.moviesInfo.size();
+				metrics.record("setUp.parallel", System.nanoTime() - start, rows, rows);
+			}
+			replaceWith(loaded);
+		}
+	}
+	
+	/**
+	 * Loads the given data files from a binary snapshot of them when possible, replacing what
+	 * the database held. The snapshot is used if it is newer than both files and valid;
+	 * otherwise the files are parsed as with {@link #setUp(String, String)} and the snapshot
+	 * is rewritten. The first {@link #reload()} after a restore reads the files in full.
 	 * @param movieData file to load and parse
 	 * @param movieRatings file to load and parse
+	 * @param snapshot file to restore from or write
+	 */
+	public synchronized void setUpFromSnapshot (String movieData, String movieRatings, String snapshot) {
+		Path snapshotPath = Paths.get(snapshot);
+		String snapshotError = null;
+		try {
+			if (MovieSnapshot.isCurrent(snapshotPath, Paths.get(movieData), Paths.get(movieRatings))) {
+				long start = metrics.isEnabled() ? System.nanoTime() : 0;
+				MovieDB loaded = emptyCopy();
+				loaded.dataFile = new TrackedFile(movieData);
+				loaded.ratingsFile = new TrackedFile(movieRatings);
+				MovieSnapshot.read(snapshotPath, loaded);
+				if (metrics.isEnabled()) {
+					int rows = loaded.actorsInfo.size() + loaded.moviesInfo.size();
+					metrics.record("setUp.snapshotRead", System.nanoTime() - start, rows, rows);
+				}
+				replaceWith(loaded);
+				return;
+			}
+		} catch (IOException e) {
+			// stale format or damaged file, rebuild it from the data files
+			snapshotError = e.getMessage();
+		}
+		setUp(movieData, movieRatings);
+		if (snapshotError != null) {
+			reportError(snapshot, 0, snapshotError);
+		}
+		// inserts take the write lock, not this object's monitor
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			long start = metrics.isEnabled() ? System.nanoTime() : 0;
+			MovieSnapshot.write(this, snapshotPath);
+			if (metrics.isEnabled()) {
+				int rows = actorsInfo.size() + moviesInfo.size();
+				metrics.record("setUp.snapshotWrite", System.nanoTime() - start, rows, rows);
+			}
+		} catch (IOException e) {
+			reportError(snapshot, 0, e.toString());
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Reloads the data files last loaded by setUp, applying only what changed since: lines
+	 * appended or changed are parsed and applied as upserts, so a new actor or movie is added,
+	 * an actor listed again gets the movies it did not have and a movie rated again gets the
+	 * new ratings. When a file is the same file, no shorter, and the bytes just before its
+	 * last line ending are unchanged, only the bytes after it are parsed. All changes are
+	 * applied at once under the write lock.
+	 * Changes that are not upserts, a line removed, an actor losing a movie or a line now
+	 * naming another actor or movie, make the reload rebuild the database from the files as
+	 * {@link #setUp(String, String)} does. Actors and movies inserted through the database
+	 * rather than the files are carried over into the rebuilt database; movies inserted into
+	 * actors of the files and ratings set on movies of the files give way to the files,
+	 * unless they are in the change log. Changed lines
+	 * are applied over the logged inserts, which are in memory already, so an edit to the files
+	 * wins over an earlier logged rating; a rebuild however replays the change log after the
+	 * files, so logged inserts win until {@link #checkpointChangeLog()} drops them.
+	 * @return counts of the lines read and the actors and movies added or changed
+	 * @throws IllegalStateException if no data files were loaded
+	 */
+	public synchronized ReloadSummary reload() {
+		if (dataFile == null) {
+			throw new IllegalStateException("no data files loaded");
+		}
+		long start = metrics.isEnabled() ? System.nanoTime() : 0;
+		ArrayList<Integer> actorLines = new ArrayList<Integer>();
+		ArrayList<Actor> actors = new ArrayList<Actor>();
+		ArrayList<Integer> movieLines = new ArrayList<Integer>();
+		ArrayList<Movie> movies = new ArrayList<Movie>();
+		TrackedFile.Scan actorScan;
+		TrackedFile.Scan movieScan;
+		TrackedFile file = dataFile;
+		try {
+			boolean modified = dataFile.isModified();
+			file = ratingsFile;
+			if (!modified && !ratingsFile.isModified()) {
+				return new ReloadSummary(0, 0, 0, false);
+			}
+			// parse the changed lines before taking the write lock
+			file = dataFile;
+			actorScan = scanChanges(dataFile, this::parseActor, actorLines, actors);
+			file = ratingsFile;
+			movieScan = scanChanges(ratingsFile, this::parseMovie, movieLines, movies);
+		} catch (IOException e) {
+			// keep the database as it is, the next reload tries again
+			reportError(file.getPath(), 0, e.toString());
+			return new ReloadSummary(0, 0, 0, false);
+		}
+		int linesRead = actorScan.getLinesRead() + movieScan.getLinesRead();
+		
+		int inserted = 0;
+		int updated = 0;
+		boolean rebuild = actorScan.getRemovedLines() > 0 || movieScan.getRemovedLines() > 0;
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			// check all changes before applying any; a lazy load reads unchanged lines again
+			for (int i = 0; !rebuild && i < actors.size(); i++) {
+				rebuild = lazyActors != null && actorLines.get(i) < dataFile.getLineCount()
+						|| !isActorUpsert(dataFile.getRow(actorLines.get(i)), actors.get(i));
+			}
+			for (int i = 0; !rebuild && i < movies.size(); i++) {
+				rebuild = !isMovieUpsert(ratingsFile.getRow(movieLines.get(i)), movies.get(i));
+			}
+			if (!rebuild) {
+				for (int i = 0; i < actors.size(); i++) {
+					Actor actor = actors.get(i);
+					if (actor == null) {
+						continue;
+					}
+					int row = getActorRow(actor.getName());
+					int movieCount = row < 0 ? -1 : actorsInfo.get(row).getMovieCount();
+					row = upsertActor(actor);
+					if (movieCount < 0) {
+						inserted++;
+					} else if (actorsInfo.get(row).getMovieCount() > movieCount) {
+						updated++;
+					}
+					actorScan.setRow(actorLines.get(i), row);
+				}
+				for (int i = 0; i < movies.size(); i++) {
+					Movie movie = movies.get(i);
+					if (movie == null) {
+						continue;
+					}
+					Movie existing = getMovie(movie.getName());
+					if (existing == null) {
+						inserted++;
+					} else if (existing.getCriticRating() != movie.getCriticRating()
+							|| existing.getAudienceRating() != movie.getAudienceRating()) {
+						updated++;
+					}
+					movieScan.setRow(movieLines.get(i), upsertMovie(movie));
+				}
+				// the logged inserts are in memory already, and the files' changes are newer
+				dataFile.commit(actorScan);
+				ratingsFile.commit(movieScan);
+				if (inserted + updated > 0) {
+					changed();
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+		
+		rebuilding = rebuild;
+		try {
+			if (rebuild && lazyActors != null) {
+				setUpLazy(dataFile.getPath(), ratingsFile.getPath(), lazyActors.getCapacity());
+			} else if (rebuild) {
+				setUp(dataFile.getPath(), ratingsFile.getPath());
+			}
+		} finally {
+			rebuilding = false;
+		}
+		ReloadSummary summary = new ReloadSummary(linesRead, inserted, updated, rebuild);
+		if (metrics.isEnabled()) {
+			metrics.record("reload", System.nanoTime() - start, summary.getInserted() + summary.getUpdated(), linesRead);
+		}
+		return summary;
+	}
+	
+	/**
+	 * Parses every line of the given file and adds the results, recording the row each line
+	 * was added as for later reloads.
+	 * @param file to load
+	 * @param parser turning a line into a value, or null to skip the line
+	 * @param add called with each parsed value, in file order, returning its row
+	 * @return number of lines read
+	 */
+	private <T> long load(TrackedFile file, LineParser<T> parser, ToIntFunction<T> add) {
+		LineTokenizer tokens = new LineTokenizer();
+		return load(file, (line, index, offset) -> {
+			T value = parser.parse(tokens.reset(line), index == 0);
+			return value == null ? -1 : add.applyAsInt(value);
+		});
+	}
+	
+	/**
+	 * Hands every line of the given file to the given visitor, recording the row each line
+	 * was added as for later reloads. Malformed lines are skipped and reported.
+	 * @param file to load
+	 * @param visitor adding each line, in file order, and returning its row
+	 * @return number of lines read
+	 */
+	private long load(TrackedFile file, TrackedFile.LineVisitor visitor) {
+		try {
+			TrackedFile.Scan scan = file.scan((line, index, offset) -> {
+				try {
+					return visitor.visit(line, index, offset);
+				} catch (IllegalArgumentException e) {
+					reportError(file.getPath(), index + 1, e.getMessage());
+					return -1;
+				}
+			});
+			file.commit(scan);
+			return scan.getLinesRead();
+		} catch (IOException e) {
+			reportError(file.getPath(), 0, e.toString());
+			return 0;
+		}
+	}
+	
+	/**
+	 * Parses the lines of the given file that changed since it was last loaded.
+	 * @param file to scan
+	 * @param parser turning a line into a value, or null to skip the line
+	 * @param lines receives the index of each changed line
+	 * @param values receives the value of each changed line, null if it holds none
+	 * @return the scan, to commit once the values are applied
+	 * @throws IOException if the file can't be read
+	 */
+	private <T> TrackedFile.Scan scanChanges(TrackedFile file, LineParser<T> parser, ArrayList<Integer> lines,
+			ArrayList<T> values) throws IOException {
+		LineTokenizer tokens = new LineTokenizer();
+		return file.scan((line, index, offset) -> {
+			T value = null;
+			try {
+				value = parser.parse(tokens.reset(line), index == 0);
+			} catch (IllegalArgumentException e) {
+				reportError(file.getPath(), index + 1, e.getMessage());
+			}
+			lines.add(index);
+			values.add(value);
+			return -1;
+		});
+	}
+	
+	/**
+	 * Checks if a changed line of the movieData file only adds to what the database holds.
+	 * @param row the line was loaded into before, -1 if none
+	 * @param actor parsed from the line now, null if it holds none
+	 * @return true if the line is new or names the same actor with all of the actor's movies
+	 */
+	private boolean isActorUpsert(int row, Actor actor) {
+		if (row < 0) {
+			return true;
+		}
+		Actor loaded = actorsInfo.get(row);
+		if (actor == null || !normalize(loaded.getName()).equals(normalize(actor.getName()))) {
+			return false;
+		}
+		for (int i = 0; i < loaded.getMovieCount(); i++) {
+			if (!actor.containsMovieId(loaded.getMovieId(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks if a changed line of the movieRatings file only adds to what the database holds.
+	 * @param row the line was loaded into before, -1 if none
+	 * @param movie parsed from the line now, null if it holds none
+	 * @return true if the line is new or names the same movie
+	 */
+	private boolean isMovieUpsert(int row, Movie movie) {
+		return row < 0 || movie != null && normalize(moviesInfo.get(row).getName()).equals(normalize(movie.getName()));
+	}
+	
+	/**
+	 * Replays the records of the given change log after the cursor onto the given database.
+	 * Errors are reported as load errors of that database.
+	 * @param movieDB one loaded to take this database's place
+	 * @param log to replay, null for none
+	 * @param cursor where the last replay onto movieDB stopped
+	 */
+	private void replayChangeLog(MovieDB movieDB, ChangeLog log, ChangeLog.Cursor cursor) {
+		if (log == null) {
+			return;
+		}
+		long start = metrics.isEnabled() ? System.nanoTime() : 0;
+		try {
+			BatchSummary summary = log.replay(movieDB, cursor);
+			if (metrics.isEnabled()) {
+				metrics.record("setUp.changeLog", System.nanoTime() - start, summary.getInserted() + summary.getUpdated(),
+						summary.getRecords());
+			}
+		} catch (IOException e) {
+			movieDB.reportError(log.getPath().toString(), 0, e.toString());
+		}
+	}
+	
+	/**
+	 * @return an empty database reporting to the same metrics, to load into
+	 */
+	private MovieDB emptyCopy() {
+		MovieDB loaded = new MovieDB();
+		loaded.metrics = metrics;
+		return loaded;
+	}
+	
+	/**
+	 * Takes over the lists, indexes and tracked files of the given database, dropping this
+	 * database's own, in one step under the write lock.
+	 * @param loaded database to take over; it must not be used afterwards
+	 */
+	private void replaceWith(MovieDB loaded) {
+		// replay the change log before taking the write lock, so readers only wait for the tail
+		ChangeLog log = changeLog;
+		ChangeLog.Cursor cursor = new ChangeLog.Cursor();
+		replayChangeLog(loaded, log, cursor);
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			if (rebuilding) {
+				carryInserts(loaded);
+			}
+			// inserts logged since, none can be logged before the swap
+			replayChangeLog(loaded, changeLog, changeLog == log ? cursor : new ChangeLog.Cursor());
+			for (Movie movie : loaded.moviesInfo) {
+				movie.setRatingListener(ratingListener);
+			}
+			// refill the lists in place, callers may hold them
+			actorsInfo.clear();
+			actorsInfo.addAll(loaded.actorsInfo);
+			moviesInfo.clear();
+			moviesInfo.addAll(loaded.moviesInfo);
+			actorIndex = loaded.actorIndex;
+			movieIndex = loaded.movieIndex;
+			movieNames = loaded.movieNames;
+			castIndex = loaded.castIndex;
+			coActorGraph = loaded.coActorGraph;
+			criticIndex = loaded.criticIndex;
+			audienceIndex = loaded.audienceIndex;
+			ratingColumns = loaded.ratingColumns;
+			loadErrors = loaded.loadErrors;
+			if (lazyActors != null && lazyActors != loaded.lazyActors) {
+				closeLazyActors();
+			}
+			lazyActors = loaded.lazyActors;
+			if (lazyActors != null) {
+				lazyActors.attach(this);
+			}
+			castIndexed = loaded.castIndexed;
+			dataFile = loaded.dataFile;
+			ratingsFile = loaded.ratingsFile;
+			changed();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Inserts into the given database the actors and movies of this one that no line of the
+	 * data files was loaded into, that is those inserted since the last load. Called under
+	 * the write lock, before a rebuilt database takes this one's place.
+	 * @param loaded database rebuilt from the files
+	 */
+	private void carryInserts(MovieDB loaded) {
+		boolean[] actorFromFile = new boolean[actorsInfo.size()];
+		for (int line = 0; line < dataFile.getLineCount(); line++) {
+			int row = dataFile.getRow(line);
+			if (row >= 0 && row < actorFromFile.length) {
+				actorFromFile[row] = true;
+			}
+		}
+		ArrayList<Actor> actors = new ArrayList<Actor>();
+		for (int row = 0; row < actorsInfo.size(); row++) {
+			if (!actorFromFile[row]) {
+				Actor actor = actorsInfo.get(row);
+				Actor record = new Actor(actor.getName());
+				for (String movie : actor.getMoviesCast()) {
+					record.getMoviesCast().add(movie);
+				}
+				actors.add(record);
+			}
+		}
+		boolean[] movieFromFile = new boolean[moviesInfo.size()];
+		for (int line = 0; line < ratingsFile.getLineCount(); line++) {
+			int row = ratingsFile.getRow(line);
+			if (row >= 0 && row < movieFromFile.length) {
+				movieFromFile[row] = true;
+			}
+		}
+		ArrayList<Movie> movies = new ArrayList<Movie>();
+		for (int row = 0; row < moviesInfo.size(); row++) {
+			if (!movieFromFile[row]) {
+				Movie movie = moviesInfo.get(row);
+				movies.add(new Movie(movie.getName(), movie.getCriticRating(), movie.getAudienceRating()));
+			}
+		}
+		loaded.insertActors(actors);
+		loaded.insertMovies(movies);
+	}
+	
+	/**
+	 * Tells the change listener, if any, that a load, reload or change log replay changed the database.
+	 * Called under the write lock.
+	 */
+	private void changed() {
+		if (changeListener != null) {
+			changeListener.run();
+		}
+	}
+	
+	/**
+	 * Sets what to call whenever a load, reload, rebuild or change log replay changes the
+	 * database. It is called under the write lock, before any reader sees the change, so for
+	 * instance results cached from the database can be dropped without a window in which
+	 * readers see stale ones. Inserts made through the database's methods do not call it.
+	 * @param listener to call, null for none
+	 */
+	public void setChangeListener(Runnable listener) {
+		this.changeListener = listener;
+	}
+	
+	/**
+	 * Sets what to call whenever the rating of one of the database's movies is set through
+	 * its Movie setters, including by inserts and reloads. It is called under the write lock,
+	 * after the rating indexes were updated.
+	 * @param listener to call, null for none
+	 */
+	public void setRatingChangeListener(RatingListener listener) {
+		this.ratingChangeListener = listener;
+	}
+	
+	/**
+	 * Records and prints a problem found while loading a file.
+	 * @param path of the file
+	 * @param lineNumber of the malformed line, 0 if the problem is not about one line
+	 * @param message describing the problem
+	 */
+	void reportError(String path, long lineNumber, String message) {
+		String error = lineNumber > 0 ? path + ":" + lineNumber + ": " + message : path + ": " + message;
+		loadErrors.add(error);
+		System.err.println(error);
+	}
+	
+	/**
+	 * Parses a line of the movieData file: actor name followed by the movies, comma separated.
+	 * Empty movie names are left out. Movie names go into this database's dictionary; this
+	 * may run on several threads at once.
+	 * @param tokens positioned on the line
+	 * @param firstLine true for the first line of the file
+	 * @return the actor with its movies, or null for a blank line
+	 */
+	Actor parseActor(LineTokenizer tokens, boolean firstLine) {
+		if (!tokens.hasNext()) {
+			return null;
+		}
+		Actor newActor = new Actor (tokens.nextField(), movieNames);
+		while (tokens.hasNext()) {
+			String movie = tokens.nextField();
+			if (!movie.isEmpty()) {
+				newActor.getMoviesCast().add(movie);
+			}
+		}
+		return newActor;
+	}
+	
+	/**
+	 * Parses a line of the movieRatings file: movie name, critic rating and audience rating, comma separated.
+	 * The movie shares its name with the actors' movies through this database's dictionary.
+	 * @param tokens positioned on the line
+	 * @param firstLine true for the first line of the file, which is skipped if it is a header
+	 * @return the movie, or null for a blank line or the header
+	 * @throws IllegalArgumentException if the line is malformed
+	 */
+	Movie parseMovie(LineTokenizer tokens, boolean firstLine) {
+		if (!tokens.hasNext()) {
+			return null;
+		}
+		String name = tokens.nextField();
+		if (firstLine && !tokens.nextIsNumber()) {
+			return null;
+		}
+		int criticRating = tokens.nextInt();
+		int audienceRating = tokens.nextInt();
+		// trailing commas leave empty fields, which loaded fine when lines were split
+		while (tokens.hasNext()) {
+			if (!tokens.nextField().isEmpty()) {
+				throw new IllegalArgumentException("too many fields");
+			}
+		}
+		return new Movie(movieNames.intern(name), criticRating, audienceRating);
+	}
+	
+	/**
+	 * Trims and lower-cases the given actor or movie name, the form used as key in all indexes.
+	 * @param name to normalize
+	 * @return normalized name
+	 */
+	public static String normalize(String name) {
+		return name.trim().toLowerCase();
+	}
+	
+	/**
+	 * Appends the given actor to actorsInfo and indexes it by name and by the movies it was cast in.
+	 * The actor's movies are moved to this database's dictionary.
+	 * If an actor with the same name is already indexed, the first one stays indexed.
+	 * @param actor to add
+	 * @return index of the actor in actorsInfo
+	 */
+	public int addActor(Actor actor) {
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			int row = actorsInfo.size();
+			actor.setDictionary(movieNames);
+			actorsInfo.add(actor);
+			actorIndex.putIfAbsent(normalize(actor.getName()), row);
+			for (int i = 0; castIndexed && i < actor.getMovieCount(); i++) {
+				int movieId = actor.getMovieId(i);
+				if (castIndex.add(movieId, row)) {
+					coActorGraph.addCast(row, castIndex.getCast(movieId));
+				}
+			}
+			return row;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Adds the given movie to the movies of the actor at the given position, unless already there.
+	 * @param actorRow index of the actor in actorsInfo
+	 * @param movie name of the movie
+	 * @return true if the movie was added
+	 */
+	public boolean addActorMovie(int actorRow, String movie) {
+		return addActorMovieId(actorRow, movieNames.id(normalize(movie)));
+	}
+	
+	/**
+	 * Adds the movie with the given id to the movies of the actor at the given position, unless already there.
+	 * @param actorRow index of the actor in actorsInfo
+	 * @param movieId id of the movie in this database's dictionary
+	 * @return true if the movie was added
+	 */
+	private boolean addActorMovieId(int actorRow, int movieId) {
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			if (!castIndexed) {
+				// the casts are indexed from the actors later
+				Actor actor = actorsInfo.get(actorRow);
+				if (actor.containsMovieId(movieId)) {
+					return false;
+				}
+				actor.addMovieId(movieId);
+				return true;
+			}
+			if (!castIndex.add(movieId, actorRow)) {
+				return false;
+			}
+			coActorGraph.addCast(actorRow, castIndex.getCast(movieId));
+			actorsInfo.get(actorRow).addMovieId(movieId);
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Adds the given actor, or if an actor of that name is indexed already, adds the
+	 * given actor's movies to that actor's.
+	 * @param actor to add or merge
+	 * @return index of the actor in actorsInfo
 	 */
-	public void setUp (String movieData, String movieRatings) {
-		//load movieData file
+	int upsertActor(Actor actor) {
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			int row = getActorRow(actor.getName());
+			if (row < 0) {
+				return addActor(actor);
+			}
+			NameDictionary dictionary = actor.getDictionary();
+			for (int i = 0; i < actor.getMovieCount(); i++) {
+				int movieId = actor.getMovieId(i);
+				addActorMovieId(row, dictionary == movieNames ? movieId : movieNames.id(dictionary.name(movieId)));
+			}
+			return row;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Adds the given movie, or if a movie of that name is indexed already, sets that movie's
+	 * ratings to the given movie's.
+	 * @param movie to add or take the ratings of
+	 * @return index of the movie in moviesInfo
+	 */
+	int upsertMovie(Movie movie) {
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			int row = getMovieRow(movie.getName());
+			if (row < 0) {
+				return addMovie(movie);
+			}
+			Movie existing = moviesInfo.get(row);
+			existing.setCriticRating(movie.getCriticRating());
+			existing.setAudienceRating(movie.getAudienceRating());
+			return row;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Appends the given movie to moviesInfo, indexes it by name and ratings and adds it to the rating columns.
+	 * Later rating changes through the movie's setters are tracked by the rating indexes.
+	 * If a movie with the same name is already indexed, the first one stays indexed by name.
+	 * @param movie to add
+	 * @return index of the movie in moviesInfo
+	 */
+	public int addMovie(Movie movie) {
+		int nameId = movieNames.id(movie.getName());
+		Lock writeLock = writeLock();
+		writeLock.lock();
 		try {
-			File f = new File (movieData);
-			FileReader fd = new FileReader(f);
-			BufferedReader br = new BufferedReader(fd);
-			while (true) {
-				String line = br.readLine();
-				if (line == null) {
-					break;
+			int row = moviesInfo.size();
+			moviesInfo.add(movie);
+			movieIndex.putIfAbsent(normalize(movie.getName()), row);
+			criticIndex.add(row, movie.getCriticRating());
+			audienceIndex.add(row, movie.getAudienceRating());
+			ratingColumns.add(nameId, movie.getCriticRating(), movie.getAudienceRating());
+			movie.setRatingListener(ratingListener);
+			return row;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Inserts a batch of actors. Records are grouped by normalized actor name first, so
+	 * an actor listed several times is looked up once, with the movies of all its records.
+	 * The groups are then applied in one pass under one write lock: new actors are added
+	 * with all their movies at once, existing actors get the movies they do not have yet.
+	 * A stream of actors can be passed as {@code stream::iterator}.
+	 * @param actors records to insert; their names and movie names are normalized
+	 * @return counts of records, new actors and actors that got new movies
+	 */
+	public BatchSummary insertActors(Iterable<Actor> actors) {
+		// group the records by actor, keeping the first position of each actor and movie
+		LinkedHashMap<String, LinkedHashSet<String>> groups = new LinkedHashMap<String, LinkedHashSet<String>>();
+		int records = 0;
+		for (Actor actor : actors) {
+			records++;
+			LinkedHashSet<String> movies = groups.computeIfAbsent(normalize(actor.getName()),
+					name -> new LinkedHashSet<String>());
+			for (String movie : actor.getMoviesCast()) {
+				movie = normalize(movie);
+				if (!movie.isEmpty()) {
+					movies.add(movie);
 				}
-				String [] array = line.trim().split(",");
-				Actor newActor = new Actor (array[0].trim().toLowerCase());
-				for (int i = 1; i < array.length; i++) {
-					newActor.getMoviesCast().add(array[i].trim().toLowerCase());
+			}
+		}
+		
+		int inserted = 0;
+		int updated = 0;
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			actorsInfo.ensureCapacity(actorsInfo.size() + groups.size());
+			for (Map.Entry<String, LinkedHashSet<String>> group : groups.entrySet()) {
+				int row = getActorRow(group.getKey());
+				if (row < 0) {
+					Actor actor = new Actor(group.getKey(), movieNames);
+					for (String movie : group.getValue()) {
+						actor.addMovieId(movieNames.id(movie));
+					}
+					addActor(actor);
+					inserted++;
+				} else {
+					boolean changed = false;
+					for (String movie : group.getValue()) {
+						changed |= addActorMovie(row, movie);
+					}
+					if (changed) {
+						updated++;
+					}
 				}
-				actorsInfo.add(newActor);
 			}
-			fd.close();
-			br.close();
-		} catch (Exception e) {
-			e.printStackTrace();
+		} finally {
+			writeLock.unlock();
+		}
+		return new BatchSummary(records, inserted, updated, groups.size() - inserted - updated);
+	}
+	
+	/**
+	 * Inserts a batch of movie ratings. Records are grouped by normalized movie name first;
+	 * the last record of a movie wins. The groups are then applied in one pass under one
+	 * write lock: new movies are added, existing movies get the new ratings.
+	 * A stream of movies can be passed as {@code stream::iterator}.
+	 * @param movies records to insert
+	 * @return counts of records, new movies and movies whose ratings changed
+	 */
+	public BatchSummary insertMovies(Iterable<Movie> movies) {
+		// group the records by movie, the last one wins
+		LinkedHashMap<String, Movie> groups = new LinkedHashMap<String, Movie>();
+		int records = 0;
+		for (Movie movie : movies) {
+			records++;
+			groups.put(normalize(movie.getName()), movie);
 		}
 		
-		//load movieRatings file
+		int inserted = 0;
+		int updated = 0;
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			moviesInfo.ensureCapacity(moviesInfo.size() + groups.size());
+			for (Map.Entry<String, Movie> group : groups.entrySet()) {
+				Movie record = group.getValue();
+				Movie movie = getMovie(group.getKey());
+				if (movie == null) {
+					addMovie(new Movie(movieNames.intern(group.getKey()), record.getCriticRating(),
+							record.getAudienceRating()));
+					inserted++;
+				} else if (movie.getCriticRating() != record.getCriticRating()
+						|| movie.getAudienceRating() != record.getAudienceRating()) {
+					movie.setCriticRating(record.getCriticRating());
+					movie.setAudienceRating(record.getAudienceRating());
+					updated++;
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+		return new BatchSummary(records, inserted, updated, groups.size() - inserted - updated);
+	}
+	
+	/**
+	 * Moves a movie whose rating was set to its new rating bucket, updates its rating column
+	 * and tells the rating change listener, if any.
+	 * @param movie whose rating changed
+	 * @param isCritic true if the critic rating changed
+	 * @param oldRating rating before the change
+	 * @param newRating rating after the change
+	 */
+	private void ratingChanged(Movie movie, boolean isCritic, int oldRating, int newRating) {
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			int row = getMovieRow(movie.getName());
+			if (row < 0 || moviesInfo.get(row) != movie) {
+				// a later movie with an already indexed name
+				row = moviesInfo.indexOf(movie);
+			}
+			(isCritic ? criticIndex : audienceIndex).move(row, oldRating, newRating);
+			ratingColumns.setRating(row, isCritic, newRating);
+			if (ratingChangeListener != null) {
+				ratingChangeListener.ratingChanged(movie, isCritic, oldRating, newRating);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Looks up an actor by name, ignoring case and surrounding whitespace. Takes the read
+	 * lock, so it is safe to call in concurrent mode without holding it.
+	 * @param name of actor
+	 * @return the actor, or null if there is no such actor
+	 */
+	public Actor getActor(String name) {
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			int row = getActorRow(name);
+			return row < 0 ? null : actorsInfo.get(row);
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Looks up a movie by name, ignoring case and surrounding whitespace. Takes the read
+	 * lock, so it is safe to call in concurrent mode without holding it.
+	 * @param name of movie
+	 * @return the movie, or null if there is no such movie
+	 */
+	public Movie getMovie(String name) {
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			int row = getMovieRow(name);
+			return row < 0 ? null : moviesInfo.get(row);
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Takes the read lock, so it is safe to call in concurrent mode without holding it; a
+	 * row is only stable while the caller holds the lock, as a rebuild renumbers the rows.
+	 * @param name of actor
+	 * @return index of the actor in actorsInfo, or -1 if there is no such actor
+	 */
+	public int getActorRow(String name) {
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			Integer row = actorIndex.get(normalize(name));
+			return row == null ? -1 : row;
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Takes the read lock, so it is safe to call in concurrent mode without holding it; a
+	 * row is only stable while the caller holds the lock, as a rebuild renumbers the rows.
+	 * @param name of movie
+	 * @return index of the movie in moviesInfo, or -1 if there is no such movie
+	 */
+	public int getMovieRow(String name) {
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			Integer row = movieIndex.get(normalize(name));
+			return row == null ? -1 : row;
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * @param movie name of movie
+	 * @return sorted indexes in actorsInfo of the actors cast in the movie, or null if no actor was
+	 */
+	public SortedIntList getCast(String movie) {
+		indexCasts();
+		return castIndex.getCast(movieNames.find(normalize(movie)));
+	}
+	
+	/**
+	 * Returns the movies whose rating compares to the given target as requested.
+	 * Reads only the rating buckets in range, unless the bucket sizes show that the range
+	 * holds a large share of the movies; then the rating column is scanned.
+	 * @param comparison is either '=', '>', or '<'
+	 * @param targetRating from 0 to 100
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @return indexes in moviesInfo of the matching movies
+	 */
+	public BitSet getRowsWhereRatingIs(char comparison, int targetRating, boolean isCritic) {
+		RatingIndex index = isCritic ? criticIndex : audienceIndex;
+		int from = comparison == '>' ? targetRating + 1 : comparison == '<' ? 0 : targetRating;
+		int to = comparison == '<' ? targetRating - 1 : comparison == '>' ? 100 : targetRating;
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			if (index.count(from, to) > moviesInfo.size() / SCAN_FRACTION) {
+				return ratingColumns.selectRange(isCritic, from, to);
+			}
+			BitSet rows = new BitSet(moviesInfo.size());
+			for (int rating = Math.max(0, from); rating <= Math.min(100, to); rating++) {
+				for (int i = 0; i < index.count(rating); i++) {
+					rows.set(index.get(rating, i));
+				}
+			}
+			return rows;
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Counts the movies whose rating compares to the given target as requested, from the
+	 * sizes of the rating buckets in range.
+	 * @param comparison is either '=', '>', or '<'
+	 * @param targetRating from 0 to 100
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @return number of matching movies
+	 */
+	public int countWhereRatingIs(char comparison, int targetRating, boolean isCritic) {
+		int from = comparison == '>' ? targetRating + 1 : comparison == '<' ? 0 : targetRating;
+		int to = comparison == '<' ? targetRating - 1 : comparison == '>' ? 100 : targetRating;
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			return (isCritic ? criticIndex : audienceIndex).count(from, to);
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Evaluates a compound query, see {@link Query}, under the read lock.
+	 * @param query to evaluate
+	 * @return indexes in actorsInfo of the matching actors if the query selects actors,
+	 * otherwise indexes in moviesInfo of the matching movies
+	 */
+	public BitSet select(Query query) {
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			return query.rows(this);
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the movies rated at least the given critic and audience ratings.
+	 * Starts from whichever rating has fewer movies in range and checks the other one per movie,
+	 * or scans both rating columns if even that rating matches a large share of the movies.
+	 * @param minCritic lowest critic rating, from 0 to 100
+	 * @param minAudience lowest audience rating, from 0 to 100
+	 * @return indexes in moviesInfo of the matching movies
+	 */
+	public BitSet getRowsRatedAtLeast(int minCritic, int minAudience) {
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			boolean byCritic = criticIndex.count(minCritic, 100) <= audienceIndex.count(minAudience, 100);
+			RatingIndex index = byCritic ? criticIndex : audienceIndex;
+			if (index.count(byCritic ? minCritic : minAudience, 100) > moviesInfo.size() / SCAN_FRACTION) {
+				return ratingColumns.selectAtLeast(minCritic, minAudience);
+			}
+			BitSet rows = new BitSet(moviesInfo.size());
+			for (int rating = byCritic ? minCritic : minAudience; rating <= 100; rating++) {
+				for (int i = 0; i < index.count(rating); i++) {
+					int row = index.get(rating, i);
+					Movie m = moviesInfo.get(row);
+					if (byCritic ? m.getAudienceRating() >= minAudience : m.getCriticRating() >= minCritic) {
+						rows.set(row);
+					}
+				}
+			}
+			return rows;
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the best rated movies without sorting them all: the rating buckets are read from
+	 * 100 down until k movies are found, and only the buckets read are sorted.
+	 * @param k most movies returned, at least 0
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @return indexes in moviesInfo of the k best rated movies, best first, ties in moviesInfo order
+	 */
+	public int[] getTopRatedMovieRows(int k, boolean isCritic) {
+		if (k < 0) {
+			throw new IllegalArgumentException("k must be at least 0: " + k);
+		}
+		RatingIndex index = isCritic ? criticIndex : audienceIndex;
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			int[] rows = new int[Math.min(k, moviesInfo.size())];
+			int count = 0;
+			for (int rating = 100; rating >= 0 && count < rows.length; rating--) {
+				int[] bucket = new int[index.count(rating)];
+				for (int i = 0; i < bucket.length; i++) {
+					bucket[i] = index.get(rating, i);
+				}
+				Arrays.sort(bucket);
+				int taken = Math.min(bucket.length, rows.length - count);
+				System.arraycopy(bucket, 0, rows, count, taken);
+				count += taken;
+			}
+			return rows;
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the actors whose rated movies have the best average rating. The ratings are first
+	 * laid out by movie dictionary id, so each actor's average is read straight from its movie
+	 * ids, and the best actors are kept in a bounded heap rather than sorting all of them.
+	 * Movies without ratings don't count.
+	 * @param k most actors returned, at least 0
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @param minMovies fewest rated movies an actor must have, at least 1
+	 * @return indexes in actorsInfo of the k best rated actors, best first, ties in actorsInfo order
+	 */
+	public int[] getTopRatedActorRows(int k, boolean isCritic, int minMovies) {
+		if (minMovies < 1) {
+			throw new IllegalArgumentException("minMovies must be at least 1: " + minMovies);
+		}
+		TopK top = new TopK(k);
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			int[] ratingById = new int[movieNames.size()];
+			Arrays.fill(ratingById, -1);
+			for (int row = 0; row < ratingColumns.size(); row++) {
+				ratingById[ratingColumns.getNameId(row)] = ratingColumns.getRating(row, isCritic);
+			}
+			for (int row = 0; row < actorsInfo.size(); row++) {
+				Actor actor = actorsInfo.get(row);
+				long sum = 0;
+				int rated = 0;
+				for (int i = 0; i < actor.getMovieCount(); i++) {
+					int rating = ratingById[actor.getMovieId(i)];
+					if (rating >= 0) {
+						sum += rating;
+						rated++;
+					}
+				}
+				if (rated >= minMovies) {
+					top.offer(row, (double) sum / rated);
+				}
+			}
+			return top.drain();
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the actors with the most co-actors, kept in a bounded heap rather than sorting
+	 * all actors by degree.
+	 * @param k most actors returned, at least 0
+	 * @return indexes in actorsInfo of the k actors with the most co-actors, most first, ties in
+	 * actorsInfo order
+	 */
+	public int[] getMostConnectedActorRows(int k) {
+		TopK top = new TopK(k);
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			indexCasts();
+			for (int row = 0; row < actorsInfo.size(); row++) {
+				top.offer(row, coActorGraph.getDegree(row));
+			}
+			return top.drain();
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the mean ratings of all movies from running sums, without a pass over the movies.
+	 * @return mean critic rating at index 0 and mean audience rating at index 1
+	 */
+	public double[] getMeanRatings() {
+		Lock readLock = readLock();
+		readLock.lock();
+		try {
+			return new double[] { criticIndex.getMean(), audienceIndex.getMean() };
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @return count, mean, variance, min, max and histogram of the ratings of all movies
+	 */
+	public RatingStats getRatingStats(boolean isCritic) {
+		Lock readLock = readLock();
+		readLock.lock();
 		try {
-			File f = new File (movieRatings);
-			FileReader fd = new FileReader(f);
-			BufferedReader br = new BufferedReader(fd);
-			while (true) {
-				String line = br.readLine();
-				if (line == null) {
-					break;
+			return (isCritic ? criticIndex : audienceIndex).getStats();
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Streams the movies of the given actor, in the order they were added.
+	 * See {@link #stream(Supplier)} for how the stream sees inserts.
+	 * @param actor name of actor
+	 * @return names of the actor's movies, empty if there is no such actor
+	 */
+	public Stream<String> streamMoviesOf(String actor) {
+		Actor a = getActor(actor);
+		if (a == null) {
+			return Stream.empty();
+		}
+		int[] next = { 0 };
+		return stream(() -> next[0] < a.getMovieCount() ? a.getDictionary().name(a.getMovieId(next[0]++)) : null);
+	}
+	
+	/**
+	 * Streams the actors cast in the given movie, in actorsInfo order.
+	 * See {@link #stream(Supplier)} for how the stream sees inserts.
+	 * @param movie name of movie
+	 * @return names of the actors cast in the movie
+	 */
+	public Stream<String> streamCast(String movie) {
+		indexCasts();
+		String name = normalize(movie);
+		return streamActorNames(() -> castIndex.getCast(movieNames.find(name)));
+	}
+	
+	/**
+	 * Streams the co-actors of the actor at the given position, in actorsInfo order.
+	 * See {@link #stream(Supplier)} for how the stream sees inserts.
+	 * @param actorRow index of the actor in actorsInfo
+	 * @return names of the actor's co-actors
+	 */
+	public Stream<String> streamCoActors(int actorRow) {
+		indexCasts();
+		return streamActorNames(() -> coActorGraph.getCoActors(actorRow));
+	}
+	
+	/**
+	 * Streams the movies whose rating compares to the given target as requested, in
+	 * moviesInfo order. The rating column is scanned only as far as the stream is read, so
+	 * taking the first few results of a broad range reads few rows; for a narrow range,
+	 * {@link #getRowsWhereRatingIs(char, int, boolean)} reads the rating buckets instead.
+	 * See {@link #stream(Supplier)} for how the stream sees inserts.
+	 * @param comparison is either '=', '>', or '<'
+	 * @param targetRating from 0 to 100
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @return names of the matching movies
+	 */
+	public Stream<String> streamWhereRatingIs(char comparison, int targetRating, boolean isCritic) {
+		int from = comparison == '>' ? targetRating + 1 : comparison == '<' ? 0 : targetRating;
+		int to = comparison == '<' ? targetRating - 1 : comparison == '>' ? 100 : targetRating;
+		int[] next = { 0 };
+		return stream(() -> {
+			while (next[0] < ratingColumns.size()) {
+				int row = next[0]++;
+				int rating = ratingColumns.getRating(row, isCritic);
+				if (rating >= from && rating <= to) {
+					return moviesInfo.get(row).getName();
+				}
+			}
+			return null;
+		});
+	}
+	
+	/**
+	 * Streams the names of the actors at the positions of a sorted list, resuming after the
+	 * last position read so that positions added meanwhile neither repeat nor skip any.
+	 * @param rows supplies the current list, or null while there is none
+	 * @return names of the actors at the positions
+	 */
+	private Stream<String> streamActorNames(Supplier<SortedIntList> rows) {
+		int[] last = { -1 };
+		return stream(() -> {
+			SortedIntList list = rows.get();
+			int next = list == null ? 0 : list.indexAfter(last[0]);
+			if (list == null || next == list.size()) {
+				return null;
+			}
+			last[0] = list.get(next);
+			return actorsInfo.get(last[0]).getName();
+		});
+	}
+	
+	/**
+	 * Makes an ordered, sequential stream that takes each result under the read lock, so a
+	 * result is never seen half inserted, but holds no lock between results. The stream is
+	 * weakly consistent, like the iterators of the concurrent collections: it reads the current
+	 * lists and indexes at each step, and shows inserts made while it is read if they come after
+	 * its position. After a reload that rebuilt the database it goes on over the rebuilt one,
+	 * so it may skip or repeat results. A stream that is not read to the end can be dropped
+	 * without closing it.
+	 * @param next returns the next result, or null after the last one; called under the read lock
+	 * @return stream of the results
+	 */
+	private Stream<String> stream(Supplier<String> next) {
+		Spliterator<String> results = new Spliterators.AbstractSpliterator<String>(Long.MAX_VALUE,
+				Spliterator.ORDERED | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(Consumer<? super String> action) {
+				String result;
+				Lock readLock = readLock();
+				readLock.lock();
+				try {
+					result = next.get();
+				} finally {
+					readLock.unlock();
 				}
-				String [] array = line.trim().split(",");
-				if (array[1].trim().charAt(0) >= '0' && array[1].trim().charAt(0) <= '9') {
-					Movie newMovie = new Movie(array[0].trim().toLowerCase(), Integer.parseInt(array[1]), Integer.parseInt(array[2]));
-					moviesInfo.add(newMovie);
+				if (result == null) {
+					return false;
 				}
+				action.accept(result);
+				return true;
+			}
+		};
+		return StreamSupport.stream(results, false);
+	}
+	
+	/**
+	 * @param actorRow index of the actor in actorsInfo
+	 * @return sorted indexes in actorsInfo of the actor's co-actors
+	 */
+	public SortedIntList getCoActors(int actorRow) {
+		indexCasts();
+		return coActorGraph.getCoActors(actorRow);
+	}
+	
+	/**
+	 * @return the graph of actors cast together
+	 */
+	public CoActorGraph getCoActorGraph() {
+		indexCasts();
+		return coActorGraph;
+	}
+	
+	/**
+	 * Replays the given change log onto this database and keeps it: every later load and
+	 * rebuild replays it again on top of the files, so that the inserts logged to it survive.
+	 * A reload that only applies changed lines does not, as every logged insert was applied to
+	 * this database when it was made. Logging the inserts is up to the caller, as MovieTrivia does.
+	 * @param changeLog to replay, or null to stop replaying one
+	 * @return counts of the replayed records and the actors and movies they added or changed
+	 * @throws IOException if the log can't be read
+	 */
+	public BatchSummary setChangeLog(ChangeLog changeLog) throws IOException {
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			BatchSummary summary = changeLog == null ? new BatchSummary(0, 0, 0, 0) : changeLog.replay(this);
+			this.changeLog = changeLog;
+			if (changeLog != null) {
+				changed();
 			}
-			fd.close();
-			br.close();
-		} catch (Exception e) {
-			e.printStackTrace();
+			return summary;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Empties the change log, once the data files hold every insert logged to it, for instance
+	 * after they were rewritten from this database. Later loads and rebuilds then take the
+	 * files as they are, so a movie edited in the files keeps its new ratings.
+	 * @return number of records dropped
+	 * @throws IOException if the log can't be written
+	 */
+	public synchronized long checkpointChangeLog() throws IOException {
+		Lock writeLock = writeLock();
+		writeLock.lock();
+		try {
+			return changeLog == null ? 0 : changeLog.checkpoint();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the change log replayed on every load, null if there is none
+	 */
+	public ChangeLog getChangeLog() {
+		return changeLog;
+	}
+	
+	/**
+	 * @param metrics to receive the time, rows loaded and lines read of each load phase
+	 */
+	public void setMetrics(QueryMetrics metrics) {
+		this.metrics = metrics == null ? QueryMetrics.NONE : metrics;
+	}
+	
+	/**
+	 * @return the metrics receiving the load phase timings
+	 */
+	public QueryMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Turns concurrent mode on or off. In concurrent mode {@link #readLock()} and
+	 * {@link #writeLock()} return a shared read-write lock, which this database's own
+	 * inserts, rating updates and computed queries take; otherwise they return a lock
+	 * that does nothing, so single-threaded use pays no locking cost.
+	 * A lazily loaded database is materialized first, as lazy actors decode on use.
+	 * @param concurrent true to guard the database with the read-write lock
+	 */
+	public void setConcurrent(boolean concurrent) {
+		if (concurrent) {
+			materialize();
 		}
+		this.concurrent = concurrent;
+	}
+	
+	/**
+	 * @return true if the database is in concurrent mode
+	 */
+	public boolean isConcurrent() {
+		return concurrent;
+	}
+	
+	/**
+	 * Callers that read several things from the lists or indexes hold this lock around
+	 * all of them, so that they see no insert half done.
+	 * @return the read lock in concurrent mode, otherwise a lock that does nothing
+	 */
+	public Lock readLock() {
+		return concurrent ? lock.readLock() : NoLock.INSTANCE;
+	}
+	
+	/**
+	 * Callers that make several changes, or read and then change, hold this lock around
+	 * all of them. Ratings changed through the Movie setters should be set while holding it.
+	 * The read lock cannot be upgraded to this lock.
+	 * @return the write lock in concurrent mode, otherwise a lock that does nothing
+	 */
+	public Lock writeLock() {
+		return concurrent ? lock.writeLock() : NoLock.INSTANCE;
+	}
+	
+	/**
+	 * @return ratings and name ids of the movies in moviesInfo, by position
+	 */
+	public RatingColumns getRatingColumns() {
+		return ratingColumns;
+	}
+	
+	/**
+	 * @return dictionary of movie names shared by the actors of this database
+	 */
+	public NameDictionary getMovieNames() {
+		return movieNames;
+	}
+	
+	/**
+	 * @return the movie to cast index
+	 */
+	public CastIndex getCastIndex() {
+		indexCasts();
+		return castIndex;
+	}
+	
+	/**
+	 * @return malformed lines and other problems found while loading, as "file:line: message"
+	 */
+	public ArrayList<String> getLoadErrors() {
+		return loadErrors;
 	}
 	
 	/**
 	 * Get actors information.
+	 * Actors and their movies should be added through {@link #addActor(Actor)} and
+	 * {@link #addActorMovie(int, String)} so they are indexed. The list is the same object
+	 * for the life of the database; loads and reloads refill it.
 	 * @return list of actors
 	 */
 	public ArrayList<Actor> getActorsInfo() {
@@ -86,10 +1713,52 @@ public class MovieDB {
 	
 	/**
 	 * Get movies information.
+	 * Movies should be added through {@link #addMovie(Movie)} so they are indexed, and their
+	 * ratings changed through the Movie setters. The list is the same object for the life of
+	 * the database; loads and reloads refill it.
 	 * @return list of movies
 	 */
 	public ArrayList<Movie> getMoviesInfo() {
 		return this.moviesInfo;
 	}
+	
+	/**
+	 * Lock handed out outside concurrent mode; locking and unlocking do nothing.
+	 */
+	private static class NoLock implements Lock {
+		
+		/**
+		 * The only instance.
+		 */
+		static final NoLock INSTANCE = new NoLock();
+		
+		@Override
+		public void lock() {
+		}
+		
+		@Override
+		public void lockInterruptibly() {
+		}
+		
+		@Override
+		public boolean tryLock() {
+			return true;
+		}
+		
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) {
+			return true;
+		}
+		
+		@Override
+		public void unlock() {
+		}
+		
+		@Override
+		public Condition newCondition() {
+			throw new UnsupportedOperationException("no conditions outside concurrent mode");
+		}
+		
+	}
 
 }
@@ -2,8 +2,28 @@ package file;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import movies.Actor;
+import movies.Movie;
 
 class MovieDBTest {
 
@@ -33,4 +53,620 @@ class MovieDBTest {
 		assertEquals(78, this.db.getMoviesInfo().get(0).getAudienceRating());
 	}
 
+	@Test
+	void testLookup() {
+		assertEquals("tom hanks", this.db.getActor("  Tom HANKS ").getName());
+		assertEquals(1, this.db.getActorRow("tom hanks"));
+		assertNull(this.db.getActor("nobody"));
+		assertEquals(-1, this.db.getActorRow("nobody"));
+		
+		assertEquals(97, this.db.getMovie("JAWS").getCriticRating());
+		assertNull(this.db.getMovie("nothing"));
+		
+		//added entries are indexed as well
+		this.db.addActor(new Actor("new actor"));
+		assertEquals(6, this.db.getActorRow("New Actor"));
+		this.db.addMovie(new Movie("New Movie", 1, 2));
+		assertEquals(2, this.db.getMovie("new movie").getAudienceRating());
+	}
+
+	@Test
+	void testCast() {
+		//meryl streep and amy adams, by position in actorsInfo
+		assertEquals("[0, 2]", this.db.getCast(" Doubt ").toString());
+		assertEquals(1, this.db.getCast("cast away").size());
+		assertNull(this.db.getCast("jaws"));
+		
+		//adding a movie to an actor updates the cast
+		assertTrue(this.db.addActorMovie(1, "Doubt"));
+		assertFalse(this.db.addActorMovie(1, "doubt"));
+		assertEquals("[0, 1, 2]", this.db.getCast("doubt").toString());
+		assertEquals(4, this.db.getActorsInfo().get(1).getMoviesCast().size());
+		
+		//so does adding an actor
+		Actor actor = new Actor("new actor");
+		actor.getMoviesCast().add("jaws");
+		this.db.addActor(actor);
+		assertEquals("[6]", this.db.getCast("jaws").toString());
+	}
+
+	@Test
+	void testCoActors() {
+		//meryl streep worked with tom hanks and amy adams
+		assertEquals("[1, 2]", this.db.getCoActors(0).toString());
+		assertEquals(0, this.db.getCoActors(3).size());
+		
+		//graph follows new casting
+		this.db.addActorMovie(3, "the post");
+		assertEquals("[0, 1]", this.db.getCoActors(3).toString());
+		assertEquals("[0, 3]", this.db.getCoActors(1).toString());
+		assertTrue(this.db.getCoActors(0).contains(3));
+	}
+
+	@Test
+	void testRatingIndex() {
+		//seven and popeye
+		assertEquals("{4, 5}", this.db.getRowsWhereRatingIs('<', 30, true).toString());
+		assertEquals("{2}", this.db.getRowsWhereRatingIs('=', 90, false).toString());
+		assertEquals("{2, 3, 6}", this.db.getRowsRatedAtLeast(85, 85).toString());
+		
+		//setting a rating moves the movie to its new bucket
+		this.db.getMovie("seven").setCriticRating(95);
+		assertEquals("{5}", this.db.getRowsWhereRatingIs('<', 30, true).toString());
+		assertEquals("{2, 4}", this.db.getRowsWhereRatingIs('>', 94, true).toString());
+		this.db.getMovie("doubt").setAudienceRating(120);
+		assertEquals("{0, 2, 3, 6}", this.db.getRowsRatedAtLeast(0, 85).toString());
+		
+		//added movies are indexed
+		this.db.addMovie(new Movie("new movie", 100, 100));
+		assertEquals("{2, 3, 6, 7}", this.db.getRowsRatedAtLeast(85, 85).toString());
+	}
+
+	@Test
+	void testSetUpParallel() {
+		MovieDB parallel = new MovieDB();
+		parallel.setUp("moviedata.txt", "movieratings.csv", 4);
+		
+		assertEquals(this.db.getActorsInfo().toString(), parallel.getActorsInfo().toString());
+		assertEquals(this.db.getMoviesInfo().toString(), parallel.getMoviesInfo().toString());
+		assertEquals("[0, 2]", parallel.getCast("doubt").toString());
+		
+		//chunks stay within what one byte array can hold, whatever the file size
+		assertEquals(1 << 20, ParallelLoader.chunkSize(1000, 4));
+		assertEquals((100L << 20) / 8 + 1, ParallelLoader.chunkSize(100L << 20, 2));
+		assertEquals(ParallelLoader.MAX_CHUNK, ParallelLoader.chunkSize(20L << 30, 2));
+		assertTrue(ParallelLoader.chunkSize(Long.MAX_VALUE / 2, 1) < Integer.MAX_VALUE);
+	}
+
+	@Test
+	void testReloadChecksWindow(@TempDir Path dir) throws Exception {
+		Path data = dir.resolve("data.txt");
+		Path ratings = dir.resolve("ratings.csv");
+		new MovieDataGenerator(3000, 1000, 5).write(data, ratings);
+		assertTrue(Files.size(data) > 2 * TrackedFile.WINDOW);
+		MovieDB movieDB = new MovieDB();
+		movieDB.setUp(data.toString(), ratings.toString());
+		
+		//an append is checked against the bytes just before it, not the whole file: an edit in
+		//place far back is not seen, which is what makes the append cheap
+		byte[] bytes = Files.readAllBytes(data);
+		int pos = new String(bytes, StandardCharsets.UTF_8).indexOf("Movie 94,");
+		bytes[pos + 7] = '5';
+		Files.write(data, bytes);
+		Files.write(data, "new actor, new movie\n".getBytes(), StandardOpenOption.APPEND);
+		ReloadSummary summary = movieDB.reload();
+		assertEquals(1, summary.getLinesRead());
+		assertFalse(summary.isRebuilt());
+		
+		//an edit in the window is seen
+		bytes = Files.readAllBytes(data);
+		pos = new String(bytes, StandardCharsets.UTF_8).lastIndexOf("new movie");
+		bytes[pos] = 'N';
+		Files.write(data, bytes);
+		Files.write(data, "other actor, other movie\n".getBytes(), StandardOpenOption.APPEND);
+		summary = movieDB.reload();
+		assertEquals(3002, summary.getLinesRead());
+		
+		//and so is a file replaced by another one
+		Path replacement = dir.resolve("replacement.txt");
+		Files.write(replacement, bytes);
+		Files.move(replacement, data, StandardCopyOption.REPLACE_EXISTING);
+		summary = movieDB.reload();
+		assertEquals(3001, summary.getLinesRead());
+		assertTrue(summary.isRebuilt());
+		assertTrue(movieDB.getActor("actor 0").getMoviesCast().contains("movie 95"));
+	}
+
+	@Test
+	void testNonAsciiNames(@TempDir Path dir) throws Exception {
+		Path data = dir.resolve("data.txt");
+		Path ratings = dir.resolve("ratings.csv");
+		String name = "Pen\u00e9lope Cruz";
+		Files.write(data, Arrays.asList(name + ", Volver, Vicky Cristina Barcelona"), StandardCharsets.UTF_8);
+		Files.write(ratings, Arrays.asList("movie,critics,audience", "Volver,92,84"), StandardCharsets.UTF_8);
+		
+		//every loader decodes the files as UTF-8, whatever the default charset
+		MovieDB sequential = new MovieDB();
+		sequential.setUp(data.toString(), ratings.toString());
+		MovieDB parallel = new MovieDB();
+		parallel.setUp(data.toString(), ratings.toString(), 4);
+		MovieDB lazy = new MovieDB();
+		lazy.setUpLazy(data.toString(), ratings.toString(), 1);
+		for (MovieDB movieDB : Arrays.asList(sequential, parallel, lazy)) {
+			assertEquals(name.toLowerCase(), movieDB.getActorsInfo().get(0).getName());
+			assertEquals("[volver, vicky cristina barcelona]", movieDB.getActor(name).getMoviesCast().toString());
+		}
+	}
+
+	@Test
+	void testMalformedLines(@TempDir Path dir) throws Exception {
+		Path data = dir.resolve("data.txt");
+		Path ratings = dir.resolve("ratings.csv");
+		Files.write(data, Arrays.asList("Michelle Yeoh, \"Crouching Tiger, Hidden Dragon\" , Everything Everywhere", "",
+				"Chow Yun-fat, \"Crouching Tiger, Hidden Dragon", "Zhang Ziyi,,\"CROUCHING tiger, hidden dragon\""));
+		Files.write(ratings, Arrays.asList("movie,critics,audience", "\"Crouching Tiger, Hidden Dragon\",97,86",
+				"Everything Everywhere, 94 , 89", "Broken,9x,10", "Short,50", "Trailing,90,80, ,", "Long,90,80,70"));
+		
+		for (int threads = 1; threads <= 2; threads++) {
+			MovieDB movieDB = new MovieDB();
+			movieDB.setUp(data.toString(), ratings.toString(), threads);
+			
+			//blank line skipped, unterminated quote reported
+			assertEquals(2, movieDB.getActorsInfo().size());
+			assertEquals("[crouching tiger, hidden dragon, everything everywhere]", movieDB.getActor("michelle yeoh").getMoviesCast().toString());
+			assertEquals("[0, 1]", movieDB.getCast("crouching tiger, hidden dragon").toString());
+			
+			//header skipped, trailing commas ignored, bad numbers and missing or extra fields reported
+			assertEquals(3, movieDB.getMoviesInfo().size());
+			assertEquals(80, movieDB.getMovie("trailing").getAudienceRating());
+			assertEquals(97, movieDB.getMovie("crouching tiger, hidden dragon").getCriticRating());
+			assertEquals(89, movieDB.getMovie("everything everywhere").getAudienceRating());
+			
+			assertEquals(4, movieDB.getLoadErrors().size());
+			assertEquals(data + ":3: unterminated quote", movieDB.getLoadErrors().get(0));
+			assertTrue(movieDB.getLoadErrors().get(1).startsWith(ratings + ":4: "));
+			assertTrue(movieDB.getLoadErrors().get(2).startsWith(ratings + ":5: "));
+			assertEquals(ratings + ":7: too many fields", movieDB.getLoadErrors().get(3));
+		}
+	}
+
+	@Test
+	void testGenerator(@TempDir Path dir) throws Exception {
+		Path data = dir.resolve("data.txt");
+		Path ratings = dir.resolve("ratings.csv");
+		new MovieDataGenerator(5000, 2000, 7).write(data, ratings);
+		
+		//the generated files load without errors
+		MovieDB movieDB = new MovieDB();
+		movieDB.setUp(data.toString(), ratings.toString());
+		assertTrue(movieDB.getLoadErrors().isEmpty());
+		assertEquals(5000, movieDB.getActorsInfo().size());
+		assertTrue(movieDB.getMoviesInfo().size() > 1600 && movieDB.getMoviesInfo().size() < 2000);
+		
+		//most actors have few movies, a few have many, and some movies have large casts
+		int single = 0;
+		int most = 0;
+		for (Actor actor : movieDB.getActorsInfo()) {
+			assertTrue(actor.getMovieCount() >= 1);
+			single += actor.getMovieCount() == 1 ? 1 : 0;
+			most = Math.max(most, actor.getMovieCount());
+		}
+		assertTrue(single > 2500, "most actors should have one movie: " + single);
+		assertTrue(most > 50, "a few actors should have many movies: " + most);
+		int largestCast = 0;
+		for (int movie = 0; movie < movieDB.getMovieNames().size(); movie++) {
+			SortedIntList cast = movieDB.getCastIndex().getCast(movie);
+			largestCast = Math.max(largestCast, cast == null ? 0 : cast.size());
+		}
+		assertTrue(largestCast > 100, "popular movies should have large casts: " + largestCast);
+		
+		//the same seed writes the same files, another seed does not
+		Path data2 = dir.resolve("data2.txt");
+		Path ratings2 = dir.resolve("ratings2.csv");
+		new MovieDataGenerator(5000, 2000, 7).write(data2, ratings2);
+		assertArrayEquals(Files.readAllBytes(data), Files.readAllBytes(data2));
+		assertArrayEquals(Files.readAllBytes(ratings), Files.readAllBytes(ratings2));
+		new MovieDataGenerator(5000, 2000, 8).write(data2, ratings2);
+		assertFalse(Arrays.equals(Files.readAllBytes(data), Files.readAllBytes(data2)));
+	}
+	
+	@Test
+	void testSnapshot(@TempDir Path dir) throws Exception {
+		Path snapshot = dir.resolve("movies.snapshot");
+		
+		//first start writes the snapshot
+		MovieDB first = new MovieDB();
+		first.setUpFromSnapshot("moviedata.txt", "movieratings.csv", snapshot.toString());
+		assertTrue(Files.exists(snapshot));
+		
+		//next start restores the same database from it
+		MovieDB restored = new MovieDB();
+		MovieSnapshot.read(snapshot, restored);
+		assertEquals(this.db.getActorsInfo().toString(), restored.getActorsInfo().toString());
+		assertEquals(this.db.getMoviesInfo().toString(), restored.getMoviesInfo().toString());
+		assertEquals("[0, 2]", restored.getCast("doubt").toString());
+		
+		//a damaged snapshot is rejected and rebuilt
+		byte[] bytes = Files.readAllBytes(snapshot);
+		bytes[bytes.length - 1]++;
+		Files.write(snapshot, bytes);
+		assertThrows(IOException.class, () -> MovieSnapshot.read(snapshot, new MovieDB()));
+		MovieDB rebuilt = new MovieDB();
+		rebuilt.setUpFromSnapshot("moviedata.txt", "movieratings.csv", snapshot.toString());
+		assertEquals(7, rebuilt.getMoviesInfo().size());
+		assertEquals(1, rebuilt.getLoadErrors().size());
+		MovieSnapshot.read(snapshot, new MovieDB());
+		
+		//a snapshot older than the data files is not used
+		Files.setLastModifiedTime(snapshot, FileTime.fromMillis(0));
+		assertFalse(MovieSnapshot.isCurrent(snapshot, Paths.get("moviedata.txt"), Paths.get("movieratings.csv")));
+	}
+
+	@Test
+	void testSnapshotWhileInserting(@TempDir Path dir) throws Exception {
+		Path snapshot = dir.resolve("movies.snapshot");
+		MovieDB movieDB = new MovieDB();
+		movieDB.setConcurrent(true);
+		movieDB.setUp("moviedata.txt", "movieratings.csv");
+		//enough rows that writing the snapshot takes a while
+		ArrayList<Actor> actors = new ArrayList<>();
+		ArrayList<Movie> movies = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			Actor actor = new Actor("bulk actor " + i);
+			actor.getMoviesCast().add("bulk movie " + i);
+			actors.add(actor);
+			movies.add(new Movie("bulk movie " + i, 50, 50));
+		}
+		movieDB.insertActors(actors);
+		movieDB.insertMovies(movies);
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; !done.get(); i++) {
+					Actor actor = new Actor("writer actor " + i);
+					actor.getMoviesCast().add("writer movie " + i);
+					Lock lock = movieDB.writeLock();
+					lock.lock();
+					try {
+						movieDB.insertActors(Arrays.asList(actor));
+						movieDB.insertMovies(Arrays.asList(new Movie("writer movie " + i, i % 101, i % 101)));
+					} finally {
+						lock.unlock();
+					}
+				}
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+		writer.start();
+		try {
+			//the snapshot is written under the read lock, so inserts wait for it and it is whole
+			for (int i = 0; i < 10; i++) {
+				Files.deleteIfExists(snapshot);
+				movieDB.setUpFromSnapshot("moviedata.txt", "movieratings.csv", snapshot.toString());
+				MovieDB restored = new MovieDB();
+				MovieSnapshot.read(snapshot, restored);
+				assertEquals(restored.getActorsInfo().size(), restored.getMoviesInfo().size() - 7 + 6,
+						"Each insert adds an actor and a movie.");
+			}
+		} finally {
+			done.set(true);
+			writer.join();
+		}
+		assertNull(failure.get());
+		assertTrue(movieDB.getLoadErrors().isEmpty(), movieDB.getLoadErrors().toString());
+	}
+
+	@Test
+	void testReload(@TempDir Path dir) throws Exception {
+		Path data = dir.resolve("data.txt");
+		Path ratings = dir.resolve("ratings.csv");
+		Files.write(data, Arrays.asList("meryl streep, doubt, sophie's choice", "amy adams, doubt"));
+		Files.write(ratings, Arrays.asList("movie,critics,audience", "doubt,78,74", "sophie's choice,75,84"));
+		MovieDB movieDB = new MovieDB();
+		movieDB.setUp(data.toString(), ratings.toString());
+		assertEquals(0, movieDB.reload().getLinesRead());
+		
+		//appended lines are read alone and applied as upserts
+		Files.write(data, Arrays.asList("tom hanks, big", "amy adams, arrival"), StandardOpenOption.APPEND);
+		Files.write(ratings, Arrays.asList("big,97,83", "doubt,80,74"), StandardOpenOption.APPEND);
+		ReloadSummary summary = movieDB.reload();
+		assertEquals(4, summary.getLinesRead());
+		assertEquals(2, summary.getInserted(), "tom hanks and big are new.");
+		assertEquals(2, summary.getUpdated(), "amy adams got a movie, doubt new ratings.");
+		assertFalse(summary.isRebuilt());
+		assertEquals(3, movieDB.getActorsInfo().size());
+		assertEquals("[doubt, arrival]", movieDB.getActor("amy adams").getMoviesCast().toString());
+		assertEquals("{0, 2}", movieDB.getRowsWhereRatingIs('>', 79, true).toString());
+		
+		//a last line without line ending is read again once completed
+		Files.write(data, "emma stone, la la land".getBytes(), StandardOpenOption.APPEND);
+		assertEquals(1, movieDB.reload().getInserted());
+		Files.write(data, ", birdman\n".getBytes(), StandardOpenOption.APPEND);
+		summary = movieDB.reload();
+		assertEquals(1, summary.getLinesRead());
+		assertEquals(1, summary.getUpdated());
+		assertEquals("[3]", movieDB.getCast("birdman").toString());
+		
+		//a line changed in place that adds a movie is applied alone
+		List<String> lines = Files.readAllLines(data);
+		lines.set(0, "meryl streep, doubt, sophie's choice, the post");
+		Files.write(data, lines);
+		summary = movieDB.reload();
+		assertEquals(5, summary.getLinesRead());
+		assertEquals(1, summary.getUpdated());
+		assertFalse(summary.isRebuilt());
+		assertEquals("[0]", movieDB.getCast("the post").toString());
+		
+		//a movie taken from an actor rebuilds the database
+		lines.set(0, "meryl streep, doubt");
+		Files.write(data, lines);
+		summary = movieDB.reload();
+		assertTrue(summary.isRebuilt());
+		assertNull(movieDB.getCast("the post"));
+		assertEquals(4, movieDB.getActorsInfo().size());
+		assertEquals(80, movieDB.getMovie("doubt").getCriticRating(), "The last rating of a movie wins.");
+		assertEquals(0, movieDB.reload().getLinesRead());
+		
+		//actors and movies inserted rather than loaded from the files survive a rebuild
+		Actor inserted = new Actor("bill murray");
+		inserted.getMoviesCast().add("groundhog day");
+		movieDB.insertActors(Arrays.asList(inserted));
+		movieDB.insertMovies(Arrays.asList(new Movie("groundhog day", 96, 89)));
+		lines.remove("amy adams, doubt");
+		Files.write(data, lines);
+		assertTrue(movieDB.reload().isRebuilt());
+		assertEquals("[arrival]", movieDB.getActor("amy adams").getMoviesCast().toString());
+		assertEquals("[groundhog day]", movieDB.getActor("bill murray").getMoviesCast().toString());
+		assertEquals(96, movieDB.getMovie("groundhog day").getCriticRating());
+		
+		//setting up again replaces the database, inserted actors and movies too
+		movieDB.setUp(data.toString(), ratings.toString());
+		assertEquals(4, movieDB.getActorsInfo().size());
+		assertEquals(3, movieDB.getMoviesInfo().size());
+		assertEquals("[0]", movieDB.getCast("doubt").toString());
+	}
+	
+	@Test
+	void testChangeLog(@TempDir Path dir) throws Exception {
+		Path path = dir.resolve("changes.log");
+		try (ChangeLog log = ChangeLog.open(path, 10)) {
+			long sequence = 0;
+			for (int i = 0; i < 30; i++) {
+				sequence = log.appendRating("movie " + (i % 3), i, 100 - i);
+				log.sync(sequence);
+			}
+			log.sync(log.appendActor("new actor", new String[] { "movie 0", "movie 1" }));
+			log.sync(log.appendActor("new actor", new String[] { "movie 2", "movie 0" }));
+			
+			//compaction keeps one record per movie and actor
+			assertTrue(log.getCompactionCount() >= 1);
+			log.compact();
+			assertEquals(4, log.getRecordCount());
+		}
+		
+		//a record cut short by a crash is dropped
+		byte[] bytes = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bytes, bytes.length + 6), StandardOpenOption.APPEND);
+		try (ChangeLog log = ChangeLog.open(path)) {
+			assertEquals(4, log.getRecordCount());
+			assertEquals(bytes.length, Files.size(path));
+			
+			//replaying gives the last ratings and all movies
+			MovieDB movieDB = new MovieDB();
+			BatchSummary summary = movieDB.setChangeLog(log);
+			assertEquals(4, summary.getInserted());
+			assertEquals(28, movieDB.getMovie("movie 1").getCriticRating());
+			assertEquals(71, movieDB.getMovie("movie 2").getAudienceRating());
+			assertEquals("[movie 0, movie 1, movie 2]", movieDB.getActor("new actor").getMoviesCast().toString());
+			
+			//replaying twice changes nothing
+			BatchSummary again = log.replay(movieDB);
+			assertEquals(0, again.getInserted() + again.getUpdated());
+		}
+		
+		Files.write(path, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		assertThrows(IOException.class, () -> ChangeLog.open(path));
+	}
+	
+	@Test
+	void testSetUpLazy(@TempDir Path dir) throws Exception {
+		Path data = dir.resolve("data.txt");
+		Path ratings = dir.resolve("ratings.csv");
+		new MovieDataGenerator(3000, 1000, 11).write(data, ratings);
+		Files.write(data, "Actor 5, Movie 1, Movie 2, Movie 1\n".getBytes(), StandardOpenOption.APPEND);
+		MovieDB full = new MovieDB();
+		full.setUp(data.toString(), ratings.toString());
+		MovieDB lazy = new MovieDB();
+		lazy.setUpLazy(data.toString(), ratings.toString(), 16);
+		assertTrue(lazy.isLazy());
+		assertEquals(0, lazy.getDecodedActorCount());
+		assertEquals(full.getActorsInfo().size(), lazy.getActorsInfo().size());
+		assertEquals(full.getMoviesInfo().size(), lazy.getMoviesInfo().size());
+		
+		//movies are decoded on use and at most 16 actors keep them
+		for (int row = 0; row < full.getActorsInfo().size(); row += 7) {
+			Actor actor = full.getActorsInfo().get(row);
+			assertEquals(actor.getMoviesCast(), lazy.getActor(actor.getName()).getMoviesCast());
+		}
+		assertEquals(16, lazy.getDecodedActorCount());
+		assertEquals(full.getActor("actor 5").getMoviesCast(), lazy.getActor("actor 5").getMoviesCast(),
+				"The movies of both lines, each once.");
+		
+		//the cast index and co-actor graph are built on first use
+		assertEquals(full.getCast("movie 1").toString(), lazy.getCast("movie 1").toString());
+		for (int row = 0; row < full.getActorsInfo().size(); row += 101) {
+			assertEquals(full.getCoActors(row).toString(), lazy.getCoActors(row).toString());
+		}
+		assertEquals(16, lazy.getDecodedActorCount());
+		
+		//actors that had movies added keep them
+		Actor record = new Actor("Actor 7");
+		record.getMoviesCast().add("new movie");
+		lazy.insertActors(Arrays.asList(record));
+		for (Actor actor : lazy.getActorsInfo()) {
+			actor.getMovieCount();
+		}
+		assertTrue(lazy.getActor("actor 7").getMoviesCast().contains("new movie"));
+		assertEquals(1, lazy.getCast("new movie").size());
+		
+		//appended lines are applied, lines changed in place load lazily again
+		Files.write(data, "New Actor, Movie 3\n".getBytes(), StandardOpenOption.APPEND);
+		ReloadSummary summary = lazy.reload();
+		assertFalse(summary.isRebuilt());
+		assertEquals("[movie 3]", lazy.getActor("new actor").getMoviesCast().toString());
+		List<String> lines = Files.readAllLines(data);
+		lines.set(0, "Actor 0, Movie 4");
+		Files.write(data, lines);
+		assertTrue(lazy.reload().isRebuilt());
+		assertTrue(lazy.isLazy());
+		assertEquals("[movie 4]", lazy.getActor("actor 0").getMoviesCast().toString());
+		assertFalse(lazy.getActor("actor 7").getMoviesCast().contains("new movie"));
+		
+		//concurrent mode loads every actor
+		lazy.setConcurrent(true);
+		assertFalse(lazy.isLazy());
+		assertEquals(lazy.getActorsInfo().size(), lazy.getDecodedActorCount());
+		assertEquals(full.getActor("actor 9").getMoviesCast(), lazy.getActor("actor 9").getMoviesCast());
+		assertEquals(full.getCast("movie 2").toString(), lazy.getCast("movie 2").toString());
+	}
+	
+	@Test
+	void testMovieNames() {
+		//actors refer to the same movie by the same id and share the name
+		Actor meryl = this.db.getActor("meryl streep");
+		Actor amy = this.db.getActor("amy adams");
+		int doubt = this.db.getMovieNames().find("doubt");
+		assertEquals(doubt, meryl.getMovieId(0));
+		assertEquals(doubt, amy.getMovieId(0));
+		assertSame(meryl.getMoviesCast().get(0), amy.getMoviesCast().get(0));
+		assertSame(meryl.getMoviesCast().get(0), this.db.getMovie("doubt").getName());
+		assertTrue(amy.getMoviesCast().contains("arrival"));
+		assertFalse(amy.getMoviesCast().contains("jaws"));
+		
+		//an actor made outside the database moves to its dictionary when added
+		Actor actor = new Actor("new actor");
+		actor.getMoviesCast().add("doubt");
+		assertNotSame(this.db.getMovieNames(), actor.getDictionary());
+		this.db.addActor(actor);
+		assertSame(this.db.getMovieNames(), actor.getDictionary());
+		assertEquals(doubt, actor.getMovieId(0));
+		assertEquals("[doubt]", actor.getMoviesCast().toString());
+	}
+
+	@Test
+	void testMovieIdLookup() {
+		//membership and common movies hold past the linear search limit, in insertion order
+		Actor actor = new Actor("prolific actor", this.db.getMovieNames());
+		Actor other = new Actor("other actor", this.db.getMovieNames());
+		for (int i = 20; i > 0; i--) {
+			actor.getMoviesCast().add("movie " + i);
+			if (i % 3 == 0) {
+				other.getMoviesCast().add("movie " + i);
+			}
+		}
+		assertTrue(actor.getMoviesCast().contains("movie 1"));
+		assertTrue(actor.getMoviesCast().contains("movie 20"));
+		assertFalse(actor.getMoviesCast().contains("movie 21"));
+		assertFalse(actor.getMoviesCast().contains("doubt"));
+		assertEquals("movie 7", actor.getMoviesCast().get(13));
+		
+		int[] common = actor.commonMovieIds(other);
+		assertEquals(6, common.length);
+		assertEquals("movie 18", this.db.getMovieNames().name(common[0]));
+		assertEquals("movie 3", this.db.getMovieNames().name(common[5]));
+		assertEquals(0, actor.commonMovieIds(new Actor("nobody", this.db.getMovieNames())).length);
+	}
+	
+	@Test
+	void testRatingColumns() {
+		RatingColumns columns = this.db.getRatingColumns();
+		assertEquals(7, columns.size());
+		assertEquals(97, columns.getRating(2, true));
+		assertEquals(90, columns.getRating(2, false));
+		assertEquals("jaws", this.db.getMovieNames().name(columns.getNameId(2)));
+		
+		//columns follow rating changes and give the same answers as the buckets
+		this.db.getMovie("jaws").setAudienceRating(10);
+		assertEquals(10, columns.getRating(2, false));
+		assertEquals("{4, 5}", columns.selectRange(true, 0, 29).toString());
+		assertEquals(this.db.getRowsWhereRatingIs('>', 80, false), columns.selectRange(false, 81, 100));
+		assertEquals(this.db.getRowsRatedAtLeast(85, 85), columns.selectAtLeast(85, 85));
+		assertEquals("{3, 6}", this.db.getRowsRatedAtLeast(85, 85).toString());
+	}
+	
+	@Test
+	void testQuery() {
+		//movies without ratings have no row
+		assertEquals("{0, 1}", this.db.select(Query.movieWithActor("Amy Adams")).toString());
+		assertEquals("{1}", this.db.select(Query.movieWithActor("amy adams").and(Query.criticRating('>', 80))).toString());
+		assertEquals("{0}", this.db.select(Query.criticRating('>', 50).and(Query.movieWithActor("meryl streep"))).toString());
+		assertEquals("{0, 4}", this.db.select(Query.movie("doubt").or(Query.audienceRating('=', 29))).toString());
+		assertEquals(4, this.db.countWhereRatingIs('>', 80, true));
+		
+		//plans start from the most selective predicate
+		assertEquals("(movie with actor = meryl streep [3] and critic rating > 50 [5]) [3]",
+				Query.criticRating('>', 50).and(Query.movieWithActor("meryl streep")).explain(this.db));
+		assertEquals("(movie = jaws [1] and (critic rating > 90 [3] or audience rating < 10 [1]) [4]) [1]",
+				Query.allOf(Query.criticRating('>', 90).or(Query.audienceRating('<', 10)), Query.movie("jaws")).explain(this.db));
+		
+		//few rows are checked one by one, more are intersected, with the same results
+		Query amyRated = Query.movieWithActor("amy adams").and(Query.criticRating('>', 50));
+		assertEquals("{0, 1}", this.db.select(amyRated).toString());
+		assertEquals("{0}", this.db.select(Query.allOf(Query.movie("doubt"), Query.criticRating('>', 50))).toString());
+		for (int row = 0; row < this.db.getMoviesInfo().size(); row++) {
+			assertEquals(row <= 1, amyRated.matches(this.db, row));
+		}
+		
+		//actors
+		assertEquals("{0}", this.db.select(Query.actorInMovie("doubt").and(Query.coActorOf("tom hanks"))).toString());
+		assertEquals("{0, 2, 5}", this.db.select(Query.actor("brad pitt").or(Query.actorInMovie("doubt"))).toString());
+		assertEquals("{0, 2}", this.db.select(Query.coActorOf("meryl streep").or(Query.actorInMovie("doubt"))
+				.and(Query.anyOf(Query.actor("amy adams"), Query.coActorOf("tom hanks")))).toString());
+		assertTrue(this.db.select(Query.coActorOf("nobody").or(Query.actorInMovie("nothing"))).isEmpty());
+		assertTrue(Query.actor("tom hanks").selectsActors());
+		assertFalse(Query.movie("jaws").selectsActors());
+		
+		//actor and movie predicates don't mix, and ratings are checked
+		assertThrows(IllegalArgumentException.class, () -> Query.actor("tom hanks").and(Query.movie("jaws")));
+		assertThrows(IllegalArgumentException.class, () -> Query.criticRating('!', 50));
+		assertThrows(IllegalArgumentException.class, () -> Query.audienceRating('>', 101));
+		assertThrows(IllegalArgumentException.class, () -> Query.allOf());
+	}
+	
+	@Test
+	void testTopK() {
+		//bounded heap keeps the best rows, ties by position
+		Random random = new Random(42);
+		double[] scores = new double[1000];
+		TopK top = new TopK(10);
+		for (int row = 0; row < scores.length; row++) {
+			scores[row] = random.nextInt(50);
+			top.offer(row, scores[row]);
+		}
+		Integer[] sorted = new Integer[scores.length];
+		for (int row = 0; row < scores.length; row++) {
+			sorted[row] = row;
+		}
+		Arrays.sort(sorted, (a, b) -> scores[a] != scores[b] ? Double.compare(scores[b], scores[a]) : a - b);
+		int[] best = top.drain();
+		assertEquals(10, best.length);
+		for (int i = 0; i < best.length; i++) {
+			assertEquals((int) sorted[i], best[i]);
+		}
+		assertEquals(0, top.drain().length);
+		assertEquals(0, new TopK(0).drain().length);
+		
+		//movies from the rating buckets, actors from their movies' ratings and co-actors
+		assertEquals("[2, 1, 3]", Arrays.toString(this.db.getTopRatedMovieRows(3, true)));
+		assertEquals("[3, 2, 6]", Arrays.toString(this.db.getTopRatedMovieRows(3, false)));
+		assertEquals(7, this.db.getTopRatedMovieRows(100, true).length);
+		assertEquals("[2, 0, 5, 4]", Arrays.toString(this.db.getTopRatedActorRows(10, true, 1)));
+		assertEquals("[2]", Arrays.toString(this.db.getTopRatedActorRows(10, true, 2)));
+		assertEquals("[0, 1, 2]", Arrays.toString(this.db.getMostConnectedActorRows(3)));
+		assertThrows(IllegalArgumentException.class, () -> this.db.getTopRatedMovieRows(-1, true));
+		assertThrows(IllegalArgumentException.class, () -> this.db.getTopRatedActorRows(3, true, 0));
+	}
+
 }
@@ -0,0 +1,205 @@
+package file;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Writes synthetic movieData and movieRatings files in the formats
+ * {@link MovieDB#setUp(String, String)} reads, for load and query tests at
+ * any scale. The output depends only on the sizes and the seed.
+ * The data is skewed like real casting data: the number of movies per actor
+ * follows a power law, so most actors have a few movies and a few prolific
+ * actors have hundreds; actors pick movies by a Zipf-like popularity, so a
+ * few movies have large casts of up to a few hundred actors. Critic ratings
+ * are spread around 60 and audience ratings follow the critic rating with
+ * some noise. Some movies in the cast lists have no ratings, as in the real
+ * files.
+ */
+public class MovieDataGenerator {
+
+	/**
+	 * Exponent of the power law of movies per actor.
+	 */
+	private static final double MOVIES_PER_ACTOR_EXPONENT = 2.2;
+
+	/**
+	 * Most movies one actor can have.
+	 */
+	private static final int MAX_MOVIES_PER_ACTOR = 500;
+
+	/**
+	 * Exponent of the Zipf-like popularity of movies.
+	 */
+	private static final double POPULARITY_EXPONENT = 1.1;
+
+	/**
+	 * Most actors one movie can have. Without a bound the most popular movies would be
+	 * cast with a sizable share of all actors, and the co-actor graph grows with the
+	 * square of the cast sizes.
+	 */
+	private static final int MAX_CAST_SIZE = 250;
+
+	/**
+	 * Share of the movies that get a line in the ratings file.
+	 */
+	private static final double RATED_FRACTION = 0.9;
+
+	/**
+	 * Number of actors to write.
+	 */
+	private final int actors;
+
+	/**
+	 * Number of distinct movies.
+	 */
+	private final int movies;
+
+	/**
+	 * Seed of the random numbers.
+	 */
+	private final long seed;
+
+	/**
+	 * Creates a generator of the given size.
+	 * @param actors number of actors, one line each in the movieData file
+	 * @param movies number of distinct movies
+	 * @param seed of the random numbers; equal seeds and sizes give equal files
+	 */
+	public MovieDataGenerator(int actors, int movies, long seed) {
+		if (actors < 0 || movies < 1) {
+			throw new IllegalArgumentException("need actors >= 0 and movies >= 1: " + actors + ", " + movies);
+		}
+		this.actors = actors;
+		this.movies = movies;
+		this.seed = seed;
+	}
+
+	/**
+	 * Writes both files.
+	 * @param movieData file of actors and their movies to write
+	 * @param movieRatings file of movie ratings to write
+	 * @throws IOException if a file cannot be written
+	 */
+	public void write(Path movieData, Path movieRatings) throws IOException {
+		Random random = new Random(seed);
+
+		// popularity rank to movie number, so popular movies are spread over the numbers
+		int[] byRank = new int[movies];
+		for (int i = 0; i < movies; i++) {
+			byRank[i] = i;
+		}
+		for (int i = movies - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = byRank[i];
+			byRank[i] = byRank[j];
+			byRank[j] = swap;
+		}
+
+		int maxMovies = Math.min(MAX_MOVIES_PER_ACTOR, movies);
+		int[] cast = new int[maxMovies];
+		int[] castSizes = new int[movies];
+		try (BufferedWriter out = Files.newBufferedWriter(movieData)) {
+			StringBuilder line = new StringBuilder();
+			for (int a = 0; a < actors; a++) {
+				line.setLength(0);
+				line.append("Actor ").append(a);
+				int count = powerLaw(random, MOVIES_PER_ACTOR_EXPONENT, maxMovies);
+				int size = 0;
+				// draw distinct movies with room in their cast, giving up after a few repeats
+				for (int tries = 0; size < count && tries < count * 8; tries++) {
+					int movie = byRank[powerLaw(random, POPULARITY_EXPONENT, movies) - 1];
+					if (castSizes[movie] < MAX_CAST_SIZE && !contains(cast, size, movie)) {
+						castSizes[movie]++;
+						cast[size++] = movie;
+						line.append(", ").append(movieName(movie));
+					}
+				}
+				// every actor has a movie: take the next one with room after a random movie
+				for (int tries = 0, movie = random.nextInt(movies); size == 0 && tries < movies; tries++, movie = (movie + 1) % movies) {
+					if (castSizes[movie] < MAX_CAST_SIZE) {
+						castSizes[movie]++;
+						cast[size++] = movie;
+						line.append(", ").append(movieName(movie));
+					}
+				}
+				out.append(line).append('\n');
+			}
+		}
+
+		try (BufferedWriter out = Files.newBufferedWriter(movieRatings)) {
+			out.append("movie,critics,audience\n");
+			for (int m = 0; m < movies; m++) {
+				if (random.nextDouble() >= RATED_FRACTION) {
+					continue;
+				}
+				int critic = clamp(60 + random.nextGaussian() * 20);
+				int audience = clamp(critic + 5 + random.nextGaussian() * 12);
+				out.append(movieName(m)).append(',').append(Integer.toString(critic)).append(',')
+						.append(Integer.toString(audience)).append('\n');
+			}
+		}
+	}
+
+	/**
+	 * @param movie number of the movie
+	 * @return name of the movie, without commas or quotes
+	 */
+	static String movieName(int movie) {
+		return "Movie " + movie;
+	}
+
+	/**
+	 * Draws from a discrete power law over 1 to max by inverting the continuous distribution.
+	 * @param random source of random numbers
+	 * @param exponent of the power law, not 1
+	 * @param max largest value
+	 * @return value from 1 to max, small values most likely
+	 */
+	private static int powerLaw(Random random, double exponent, int max) {
+		double oneMinus = 1 - exponent;
+		double x = Math.pow((Math.pow(max + 1, oneMinus) - 1) * random.nextDouble() + 1, 1 / oneMinus);
+		return Math.min(max, (int) x);
+	}
+
+	/**
+	 * @param values to search
+	 * @param size number of values in use
+	 * @param value to look for
+	 * @return true if value is among the first size values
+	 */
+	private static boolean contains(int[] values, int size, int value) {
+		for (int i = 0; i < size; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param rating to round and clamp
+	 * @return rating rounded to 0-100
+	 */
+	private static int clamp(double rating) {
+		return (int) Math.max(0, Math.min(100, Math.round(rating)));
+	}
+
+	/**
+	 * Writes a data set from the command line.
+	 * Usage: java file.MovieDataGenerator actors movies seed movieData movieRatings
+	 * @param args actors, movies, seed and the two file names
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 5) {
+			System.err.println("usage: java file.MovieDataGenerator actors movies seed movieData movieRatings");
+			System.exit(2);
+		}
+		new MovieDataGenerator(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Long.parseLong(args[2]))
+				.write(Paths.get(args[3]), Paths.get(args[4]));
+	}
+
+}
@@ -0,0 +1,229 @@
+package file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import movies.Actor;
+import movies.Movie;
+import movies.NameDictionary;
+
+/**
+ * Binary snapshot of the actors and movies of a MovieDB, so that a database
+ * can be restored without parsing the text data files.
+ * <p>
+ * Layout, all numbers big-endian: a header with the magic number, the format
+ * version, the payload length and the CRC32 of the payload, followed by the
+ * payload. The payload is a string table holding every actor and movie name
+ * once, then the actors as name id, movie count and movie name ids, then the
+ * movies as name id, critic rating and audience rating, one byte each.
+ * A snapshot is read through a memory mapping and each name is decoded once,
+ * however many actors refer to it.
+ */
+public class MovieSnapshot {
+
+	/**
+	 * Marks a snapshot file, "MTDB".
+	 */
+	private static final int MAGIC = 0x4D544442;
+
+	/**
+	 * Version of the layout, to be increased when it changes.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Bytes before the payload: magic, version, payload length and checksum.
+	 */
+	private static final int HEADER = 4 + 4 + 8 + 4;
+
+	/**
+	 * Writes a snapshot of the given database. The file is replaced atomically
+	 * so readers never see a partial snapshot.
+	 * @param movieDB to write
+	 * @param path of the snapshot
+	 * @throws IOException if the snapshot can't be written
+	 */
+	public static void write(MovieDB movieDB, Path path) throws IOException {
+		ArrayList<Actor> actorsInfo = movieDB.getActorsInfo();
+		ArrayList<Movie> moviesInfo = movieDB.getMoviesInfo();
+
+		// give every distinct name an id
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		ArrayList<String> names = new ArrayList<String>();
+		for (Actor a : actorsInfo) {
+			id(a.getName(), ids, names);
+			for (String movie : a.getMoviesCast()) {
+				id(movie, ids, names);
+			}
+		}
+		for (Movie m : moviesInfo) {
+			id(m.getName(), ids, names);
+		}
+
+		Path dir = path.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+		try {
+			CRC32 crc = new CRC32();
+			try (OutputStream file = Files.newOutputStream(temp)) {
+				file.write(new byte[HEADER]);
+				CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc);
+				DataOutputStream out = new DataOutputStream(checked);
+				out.writeInt(names.size());
+				for (String name : names) {
+					byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+				out.writeInt(actorsInfo.size());
+				for (Actor a : actorsInfo) {
+					out.writeInt(ids.get(a.getName()));
+					out.writeInt(a.getMoviesCast().size());
+					for (String movie : a.getMoviesCast()) {
+						out.writeInt(ids.get(movie));
+					}
+				}
+				out.writeInt(moviesInfo.size());
+				for (Movie m : moviesInfo) {
+					out.writeInt(ids.get(m.getName()));
+					out.writeByte(m.getCriticRating());
+					out.writeByte(m.getAudienceRating());
+				}
+				out.flush();
+			}
+			long length = Files.size(temp) - HEADER;
+			try (RandomAccessFile header = new RandomAccessFile(temp.toFile(), "rw")) {
+				header.writeInt(MAGIC);
+				header.writeInt(VERSION);
+				header.writeLong(length);
+				header.writeInt((int) crc.getValue());
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Reads a snapshot into the given database, after the actors and movies it already has.
+	 * The whole snapshot is validated before anything is added.
+	 * @param path of the snapshot
+	 * @param movieDB to add the actors and movies to
+	 * @throws IOException if the snapshot can't be read, has another version or is corrupt
+	 */
+	public static void read(Path path, MovieDB movieDB) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(path + ": not a snapshot or too large to map");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException(path + ": not a snapshot");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException(path + ": snapshot version " + version + ", expected " + VERSION);
+			}
+			long length = buffer.getLong();
+			int checksum = buffer.getInt();
+			if (length != channel.size() - HEADER) {
+				throw new IOException(path + ": truncated snapshot");
+			}
+			CRC32 crc = new CRC32();
+			crc.update(buffer.duplicate());
+			if ((int) crc.getValue() != checksum) {
+				throw new IOException(path + ": snapshot checksum mismatch");
+			}
+
+			try {
+				String[] names = new String[buffer.getInt()];
+				byte[] bytes = new byte[256];
+				for (int i = 0; i < names.length; i++) {
+					int size = buffer.getInt();
+					if (size > bytes.length) {
+						bytes = new byte[Math.max(size, bytes.length * 2)];
+					}
+					buffer.get(bytes, 0, size);
+					names[i] = new String(bytes, 0, size, StandardCharsets.UTF_8);
+				}
+				// snapshot name ids to ids in the database's dictionary, assigned on first use
+				NameDictionary dictionary = movieDB.getMovieNames();
+				int[] movieIds = new int[names.length];
+				Arrays.fill(movieIds, -1);
+				Actor[] actors = new Actor[buffer.getInt()];
+				for (int i = 0; i < actors.length; i++) {
+					actors[i] = new Actor(names[buffer.getInt()], dictionary);
+					int movies = buffer.getInt();
+					for (int j = 0; j < movies; j++) {
+						int id = buffer.getInt();
+						if (movieIds[id] < 0) {
+							movieIds[id] = dictionary.id(names[id]);
+						}
+						actors[i].addMovieId(movieIds[id]);
+					}
+				}
+				Movie[] movies = new Movie[buffer.getInt()];
+				for (int i = 0; i < movies.length; i++) {
+					movies[i] = new Movie(dictionary.intern(names[buffer.getInt()]), buffer.get(), buffer.get());
+				}
+				for (Actor a : actors) {
+					movieDB.addActor(a);
+				}
+				for (Movie m : movies) {
+					movieDB.addMovie(m);
+				}
+			} catch (RuntimeException e) {
+				// a valid checksum over inconsistent content
+				throw new IOException(path + ": corrupt snapshot", e);
+			}
+		}
+	}
+
+	/**
+	 * Checks if a snapshot was written after both data files were last modified.
+	 * @param path of the snapshot
+	 * @param movieData file the snapshot was made from
+	 * @param movieRatings file the snapshot was made from
+	 * @return true if the snapshot exists and is newer than both files
+	 * @throws IOException if a file can't be checked
+	 */
+	public static boolean isCurrent(Path path, Path movieData, Path movieRatings) throws IOException {
+		if (!Files.exists(path)) {
+			return false;
+		}
+		long written = Files.getLastModifiedTime(path).toMillis();
+		return written > Files.getLastModifiedTime(movieData).toMillis()
+				&& written > Files.getLastModifiedTime(movieRatings).toMillis();
+	}
+
+	/**
+	 * @param name to look up
+	 * @param ids assigned so far
+	 * @param names by id so far
+	 * @return id of the name, assigned if new
+	 */
+	private static int id(String name, HashMap<String, Integer> ids, ArrayList<String> names) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			ids.put(name, id);
+			names.add(name);
+		}
+		return id;
+	}
+
+}
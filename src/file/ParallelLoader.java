@@ -0,0 +1,259 @@
+package file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import movies.Actor;
+import movies.Movie;
+
+/**
+ * Loads the movie data and movie ratings files on several threads.
+ * Both files are read at the same time; each file is cut into chunks at line
+ * boundaries, the chunks are read with positional reads and parsed in
+ * parallel, and the parsed chunks are concatenated in file order.
+ * Malformed lines are reported to the database with their line numbers.
+ */
+public class ParallelLoader {
+
+	/**
+	 * Smallest chunk worth handing to another thread.
+	 */
+	private static final long MIN_CHUNK = 1 << 20;
+
+	/**
+	 * Largest chunk, so that a chunk always fits in one byte array whatever the file size,
+	 * and the chunks being parsed at once don't hold much more than the file's share per thread.
+	 */
+	static final long MAX_CHUNK = 64 << 20;
+
+	/**
+	 * Pool running the file and chunk tasks.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Number of threads parsing.
+	 */
+	private final int threads;
+
+	/**
+	 * Creates a loader parsing on the given number of threads.
+	 * @param threads to parse on, at least 1
+	 */
+	public ParallelLoader(int threads) {
+		this.threads = Math.max(1, threads);
+		this.pool = new ForkJoinPool(this.threads);
+	}
+
+	/**
+	 * Loads both files into the given database, in file order.
+	 * The files are parsed in parallel; indexing in the database is done on the calling thread.
+	 * @param movieDB to add actors and movies to
+	 * @param movieData file to load and parse
+	 * @param movieRatings file to load and parse
+	 */
+	public void load(MovieDB movieDB, String movieData, String movieRatings) {
+		try {
+			ForkJoinTask<List<Chunk<Actor>>> actors = pool.submit(() -> parse(movieData, movieDB::parseActor));
+			ForkJoinTask<List<Chunk<Movie>>> movies = pool.submit(() -> parse(movieRatings, movieDB::parseMovie));
+			addAll(movieDB, movieData, actors.join(), movieDB::upsertActor);
+			addAll(movieDB, movieRatings, movies.join(), movieDB::upsertMovie);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Adds the values of the parsed chunks in order and reports their malformed lines.
+	 * @param movieDB to report to
+	 * @param path of the parsed file
+	 * @param chunks parsed from the file, in file order
+	 * @param add called with each value
+	 */
+	private static <T> void addAll(MovieDB movieDB, String path, List<Chunk<T>> chunks, Consumer<T> add) {
+		long lines = 0;
+		for (Chunk<T> chunk : chunks) {
+			for (T value : chunk.values) {
+				add.accept(value);
+			}
+			for (int i = 0; i < chunk.errorLines.size(); i++) {
+				movieDB.reportError(path, lines + chunk.errorLines.get(i), chunk.errorMessages.get(i));
+			}
+			if (chunk.ioError != null) {
+				movieDB.reportError(path, 0, chunk.ioError);
+			}
+			lines += chunk.lines;
+		}
+	}
+
+	/**
+	 * Parses every line of the given file, chunk by chunk in parallel.
+	 * @param path of the file
+	 * @param parser turning a line into a value, or null to skip the line
+	 * @return the parsed chunks in file order
+	 */
+	private <T> List<Chunk<T>> parse(String path, LineParser<T> parser) {
+		List<Chunk<T>> chunks = new ArrayList<Chunk<T>>();
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			long[] bounds = chunkBounds(channel);
+			List<ForkJoinTask<Chunk<T>>> tasks = new ArrayList<ForkJoinTask<Chunk<T>>>();
+			for (int i = 0; i + 1 < bounds.length; i++) {
+				long start = bounds[i];
+				long end = bounds[i + 1];
+				tasks.add(ForkJoinTask.adapt(() -> parseChunk(channel, start, end, parser)));
+			}
+			ForkJoinTask.invokeAll(tasks);
+			for (ForkJoinTask<Chunk<T>> task : tasks) {
+				chunks.add(task.join());
+			}
+		} catch (IOException e) {
+			Chunk<T> failed = new Chunk<T>();
+			failed.ioError = e.toString();
+			chunks.add(failed);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Cuts the file into chunks that each end right after a line break (or at the end of the file).
+	 * @param channel of the file
+	 * @return chunk boundaries, starting with 0 and ending with the file size
+	 * @throws IOException if the file can't be read
+	 */
+	private long[] chunkBounds(FileChannel channel) throws IOException {
+		long size = channel.size();
+		long chunk = chunkSize(size, threads);
+		ArrayList<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		long pos = chunk;
+		while (pos < size) {
+			// move forward to the byte after the next line break
+			long next = -1;
+			while (next < 0 && pos < size) {
+				probe.clear();
+				int read = channel.read(probe, pos);
+				for (int i = 0; i < read; i++) {
+					if (probe.get(i) == '\n') {
+						next = pos + i + 1;
+						break;
+					}
+				}
+				pos += Math.max(read, 0);
+			}
+			if (next < 0 || next >= size) {
+				break;
+			}
+			bounds.add(next);
+			pos = next + chunk;
+		}
+		bounds.add(size);
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @param size of the file
+	 * @param threads loading the file
+	 * @return length from which to look for the next chunk boundary: four chunks per thread,
+	 * between MIN_CHUNK and MAX_CHUNK
+	 */
+	static long chunkSize(long size, int threads) {
+		return Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / (threads * 4L) + 1));
+	}
+
+	/**
+	 * Reads and parses the lines between the given offsets.
+	 * @param channel of the file
+	 * @param start offset of the first line
+	 * @param end offset right after the last line
+	 * @param parser turning a line into a value, or null to skip the line
+	 * @return the parsed chunk
+	 */
+	private static <T> Chunk<T> parseChunk(FileChannel channel, long start, long end, LineParser<T> parser) {
+		Chunk<T> chunk = new Chunk<T>();
+		// a chunk runs to the line break after MAX_CHUNK bytes, so only a line of about 2 GB is too long
+		if (end - start > Integer.MAX_VALUE - 8) {
+			chunk.ioError = "line at byte " + start + " is too long to read";
+			return chunk;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+		try {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, start + buffer.position()) < 0) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			chunk.ioError = e.toString();
+			return chunk;
+		}
+		// chunks start and end on line breaks, so no UTF-8 sequence is split
+		String text = new String(buffer.array(), 0, buffer.position(), TrackedFile.CHARSET);
+		LineTokenizer tokens = new LineTokenizer();
+		int lineStart = 0;
+		while (lineStart < text.length()) {
+			int lineEnd = text.indexOf('\n', lineStart);
+			if (lineEnd < 0) {
+				lineEnd = text.length();
+			}
+			chunk.lines++;
+			try {
+				T value = parser.parse(tokens.reset(text, lineStart, lineEnd), start == 0 && chunk.lines == 1);
+				if (value != null) {
+					chunk.values.add(value);
+				}
+			} catch (IllegalArgumentException e) {
+				chunk.errorLines.add(chunk.lines);
+				chunk.errorMessages.add(e.getMessage());
+			}
+			lineStart = lineEnd + 1;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Result of parsing one chunk of a file.
+	 * @param <T> type of the parsed values
+	 */
+	private static class Chunk<T> {
+
+		/**
+		 * Parsed values in file order.
+		 */
+		List<T> values = new ArrayList<T>();
+
+		/**
+		 * Number of lines in the chunk.
+		 */
+		int lines;
+
+		/**
+		 * Line numbers, counted from the start of the chunk, of the malformed lines.
+		 */
+		List<Integer> errorLines = new ArrayList<Integer>();
+
+		/**
+		 * Problems with the malformed lines.
+		 */
+		List<String> errorMessages = new ArrayList<String>();
+
+		/**
+		 * Problem reading the chunk, if any.
+		 */
+		String ioError;
+
+	}
+
+}
@@ -0,0 +1,148 @@
+package file;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Runs scans of lists on a fork/join pool. A list is split in halves until the
+ * ranges are no longer than a threshold, the ranges are scanned in parallel,
+ * and the results of each pair of halves are joined left before right, so a
+ * parallel scan returns what a sequential one would, in the same order.
+ * Lists no longer than the threshold are scanned on the calling thread,
+ * where splitting would cost more than it saves. The lists must not change
+ * while they are scanned.
+ */
+public class ParallelScan implements AutoCloseable {
+
+	/**
+	 * Pool running the range tasks.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Longest range scanned as one task.
+	 */
+	private final int threshold;
+
+	/**
+	 * Creates a scanner on a pool of its own.
+	 * @param threads to scan on, at least 1
+	 * @param threshold longest range scanned as one task, at least 1
+	 */
+	public ParallelScan(int threads, int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("threshold must be at least 1: " + threshold);
+		}
+		this.pool = new ForkJoinPool(Math.max(1, threads));
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Returns the names of the elements that match the filter, in list order.
+	 * @param list to scan
+	 * @param filter of the elements, called from several threads at once
+	 * @param name of a matching element
+	 * @return names of the matching elements
+	 */
+	public <T> ArrayList<String> select(List<T> list, Predicate<? super T> filter, Function<? super T, String> name) {
+		Select<T> task = new Select<T>(list, 0, list.size(), filter, name);
+		return list.size() <= threshold ? task.compute() : pool.invoke(task);
+	}
+
+	/**
+	 * @return number of threads scanning
+	 */
+	public int getThreads() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * @return longest range scanned as one task
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Stops the pool's threads once the scans under way are done.
+	 */
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Scans a range of a list, splitting it while it is longer than the threshold.
+	 */
+	private class Select<T> extends RecursiveTask<ArrayList<String>> {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * List being scanned.
+		 */
+		private final List<T> list;
+
+		/**
+		 * Start of the range.
+		 */
+		private final int from;
+
+		/**
+		 * End of the range, exclusive.
+		 */
+		private final int to;
+
+		/**
+		 * Filter of the elements.
+		 */
+		private final Predicate<? super T> filter;
+
+		/**
+		 * Name of a matching element.
+		 */
+		private final Function<? super T, String> name;
+
+		/**
+		 * @param list being scanned
+		 * @param from start of the range
+		 * @param to end of the range, exclusive
+		 * @param filter of the elements
+		 * @param name of a matching element
+		 */
+		private Select(List<T> list, int from, int to, Predicate<? super T> filter, Function<? super T, String> name) {
+			this.list = list;
+			this.from = from;
+			this.to = to;
+			this.filter = filter;
+			this.name = name;
+		}
+
+		@Override
+		protected ArrayList<String> compute() {
+			if (to - from <= threshold) {
+				ArrayList<String> names = new ArrayList<String>();
+				for (int i = from; i < to; i++) {
+					T element = list.get(i);
+					if (filter.test(element)) {
+						names.add(name.apply(element));
+					}
+				}
+				return names;
+			}
+			int middle = (from + to) >>> 1;
+			Select<T> left = new Select<T>(list, from, middle, filter, name);
+			left.fork();
+			ArrayList<String> right = new Select<T>(list, middle, to, filter, name).compute();
+			ArrayList<String> names = left.join();
+			names.addAll(right);
+			return names;
+		}
+
+	}
+
+}
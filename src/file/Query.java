@@ -0,0 +1,689 @@
+package file;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.Lock;
+
+import movies.Actor;
+
+/**
+ * Compound query over the indexes of a {@link MovieDB}. A query selects either
+ * movies or actors: movies by name, by actor and by critic or audience rating,
+ * actors by name, by movie and by co-actor; predicates on the same kind of row
+ * combine with {@link #and(Query)} and {@link #or(Query)}.
+ * For example, the movies with Tom Hanks that critics rated above 80 are
+ * {@code Query.movieWithActor("tom hanks").and(Query.criticRating('>', 80))}.
+ * Every predicate estimates how many rows it matches from the size of its
+ * index entry. An AND starts from its most selective predicate and narrows
+ * the result with the others, in order of selectivity: by intersecting with
+ * their rows, or, when few rows are left compared to what a predicate would
+ * select, by checking each row left against it. An OR joins the rows of its
+ * predicates.
+ * Queries are immutable and may be evaluated on any database, from any thread.
+ */
+public abstract class Query {
+
+	/**
+	 * An AND checks the rows left against a predicate, rather than intersecting with the rows
+	 * it selects, when it would select more than this many times as many rows. Checking a row
+	 * costs about as much as reading a few index entries.
+	 */
+	private static final int CHECK_COST = 4;
+
+	/**
+	 * True if the query selects actors, false if it selects movies.
+	 */
+	private final boolean actors;
+
+	/**
+	 * @param actors true if the query selects actors, false if it selects movies
+	 */
+	private Query(boolean actors) {
+		this.actors = actors;
+	}
+
+	/**
+	 * @param movie name of a movie
+	 * @return query selecting the movie with the given name
+	 */
+	public static Query movie(String movie) {
+		return new MovieNamed(movie);
+	}
+
+	/**
+	 * @param actor name of an actor
+	 * @return query selecting the movies the actor acted in
+	 */
+	public static Query movieWithActor(String actor) {
+		return new MovieWithActor(actor);
+	}
+
+	/**
+	 * @param comparison is either '=', '>', or '<'
+	 * @param targetRating from 0 to 100
+	 * @return query selecting the movies whose critic rating compares to the target as requested
+	 * @throws IllegalArgumentException if the comparison or target is not valid
+	 */
+	public static Query criticRating(char comparison, int targetRating) {
+		return new Rating(comparison, targetRating, true);
+	}
+
+	/**
+	 * @param comparison is either '=', '>', or '<'
+	 * @param targetRating from 0 to 100
+	 * @return query selecting the movies whose audience rating compares to the target as requested
+	 * @throws IllegalArgumentException if the comparison or target is not valid
+	 */
+	public static Query audienceRating(char comparison, int targetRating) {
+		return new Rating(comparison, targetRating, false);
+	}
+
+	/**
+	 * @param actor name of an actor
+	 * @return query selecting the actor with the given name
+	 */
+	public static Query actor(String actor) {
+		return new ActorNamed(actor);
+	}
+
+	/**
+	 * @param movie name of a movie
+	 * @return query selecting the actors cast in the movie
+	 */
+	public static Query actorInMovie(String movie) {
+		return new ActorInMovie(movie);
+	}
+
+	/**
+	 * @param actor name of an actor
+	 * @return query selecting the actors who acted with the given actor, not the actor itself
+	 */
+	public static Query coActorOf(String actor) {
+		return new CoActorOf(actor);
+	}
+
+	/**
+	 * @param queries selecting the same kind of rows
+	 * @return query selecting the rows all the given queries select
+	 * @throws IllegalArgumentException if no queries are given or they select different kinds of rows
+	 */
+	public static Query allOf(Query... queries) {
+		return new And(queries);
+	}
+
+	/**
+	 * @param queries selecting the same kind of rows
+	 * @return query selecting the rows any of the given queries selects
+	 * @throws IllegalArgumentException if no queries are given or they select different kinds of rows
+	 */
+	public static Query anyOf(Query... queries) {
+		return new Or(queries);
+	}
+
+	/**
+	 * @param other query selecting the same kind of rows
+	 * @return query selecting the rows both this query and the other select
+	 * @throws IllegalArgumentException if the queries select different kinds of rows
+	 */
+	public Query and(Query other) {
+		return allOf(this, other);
+	}
+
+	/**
+	 * @param other query selecting the same kind of rows
+	 * @return query selecting the rows either this query or the other selects
+	 * @throws IllegalArgumentException if the queries select different kinds of rows
+	 */
+	public Query or(Query other) {
+		return anyOf(this, other);
+	}
+
+	/**
+	 * @return true if the query selects actors, false if it selects movies
+	 */
+	public boolean selectsActors() {
+		return actors;
+	}
+
+	/**
+	 * Describes how the query would be evaluated on the given database: the predicates of each
+	 * AND in the order they are applied, each predicate and combination followed by its
+	 * estimated number of rows.
+	 * @param movieDB to plan for
+	 * @return the plan, as text
+	 */
+	public String explain(MovieDB movieDB) {
+		Lock lock = movieDB.readLock();
+		lock.lock();
+		try {
+			return plan(movieDB);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param movieDB to estimate for, read locked
+	 * @return at least the number of rows the query selects, close to it for single predicates
+	 */
+	abstract int estimate(MovieDB movieDB);
+
+	/**
+	 * @param movieDB to evaluate on, read locked
+	 * @return indexes in actorsInfo or moviesInfo of the rows the query selects
+	 */
+	abstract BitSet rows(MovieDB movieDB);
+
+	/**
+	 * @param movieDB to evaluate on, read locked
+	 * @param row index in actorsInfo or moviesInfo
+	 * @return true if the query selects the row
+	 */
+	abstract boolean matches(MovieDB movieDB, int row);
+
+	/**
+	 * @param movieDB to plan for, read locked
+	 * @return the plan, see {@link #explain(MovieDB)}
+	 */
+	String plan(MovieDB movieDB) {
+		return this + " [" + estimate(movieDB) + "]";
+	}
+
+	/**
+	 * @param rows sorted positions, null for none
+	 * @return the positions as a set
+	 */
+	private static BitSet toBitSet(SortedIntList rows) {
+		BitSet set = new BitSet();
+		for (int i = 0; rows != null && i < rows.size(); i++) {
+			set.set(rows.get(i));
+		}
+		return set;
+	}
+
+	/**
+	 * Selects a movie by name.
+	 */
+	private static class MovieNamed extends Query {
+
+		/**
+		 * Normalized name of the movie.
+		 */
+		private final String movie;
+
+		/**
+		 * @param movie name of the movie
+		 */
+		private MovieNamed(String movie) {
+			super(false);
+			this.movie = MovieDB.normalize(movie);
+		}
+
+		@Override
+		int estimate(MovieDB movieDB) {
+			return movieDB.getMovieRow(movie) >= 0 ? 1 : 0;
+		}
+
+		@Override
+		BitSet rows(MovieDB movieDB) {
+			BitSet rows = new BitSet();
+			int row = movieDB.getMovieRow(movie);
+			if (row >= 0) {
+				rows.set(row);
+			}
+			return rows;
+		}
+
+		@Override
+		boolean matches(MovieDB movieDB, int row) {
+			return row == movieDB.getMovieRow(movie);
+		}
+
+		@Override
+		public String toString() {
+			return "movie = " + movie;
+		}
+
+	}
+
+	/**
+	 * Selects the movies of an actor.
+	 */
+	private static class MovieWithActor extends Query {
+
+		/**
+		 * Normalized name of the actor.
+		 */
+		private final String actor;
+
+		/**
+		 * @param actor name of the actor
+		 */
+		private MovieWithActor(String actor) {
+			super(false);
+			this.actor = MovieDB.normalize(actor);
+		}
+
+		@Override
+		int estimate(MovieDB movieDB) {
+			Actor a = movieDB.getActor(actor);
+			return a == null ? 0 : a.getMovieCount();
+		}
+
+		@Override
+		BitSet rows(MovieDB movieDB) {
+			BitSet rows = new BitSet();
+			Actor a = movieDB.getActor(actor);
+			for (int i = 0; a != null && i < a.getMovieCount(); i++) {
+				// movies without ratings have no row
+				int row = movieDB.getMovieRow(a.getDictionary().name(a.getMovieId(i)));
+				if (row >= 0) {
+					rows.set(row);
+				}
+			}
+			return rows;
+		}
+
+		@Override
+		boolean matches(MovieDB movieDB, int row) {
+			Actor a = movieDB.getActor(actor);
+			return a != null && a.containsMovieId(movieDB.getRatingColumns().getNameId(row));
+		}
+
+		@Override
+		public String toString() {
+			return "movie with actor = " + actor;
+		}
+
+	}
+
+	/**
+	 * Selects the movies by critic or audience rating.
+	 */
+	private static class Rating extends Query {
+
+		/**
+		 * Either '=', '>', or '<'.
+		 */
+		private final char comparison;
+
+		/**
+		 * Rating compared to, from 0 to 100.
+		 */
+		private final int targetRating;
+
+		/**
+		 * True for critic ratings, false for audience ratings.
+		 */
+		private final boolean isCritic;
+
+		/**
+		 * @param comparison is either '=', '>', or '<'
+		 * @param targetRating from 0 to 100
+		 * @param isCritic true for critic ratings, false for audience ratings
+		 */
+		private Rating(char comparison, int targetRating, boolean isCritic) {
+			super(false);
+			if (comparison != '=' && comparison != '>' && comparison != '<') {
+				throw new IllegalArgumentException("comparison must be '=', '>' or '<': " + comparison);
+			}
+			if (targetRating < 0 || targetRating > 100) {
+				throw new IllegalArgumentException("rating must be from 0 to 100: " + targetRating);
+			}
+			this.comparison = comparison;
+			this.targetRating = targetRating;
+			this.isCritic = isCritic;
+		}
+
+		@Override
+		int estimate(MovieDB movieDB) {
+			return movieDB.countWhereRatingIs(comparison, targetRating, isCritic);
+		}
+
+		@Override
+		BitSet rows(MovieDB movieDB) {
+			return movieDB.getRowsWhereRatingIs(comparison, targetRating, isCritic);
+		}
+
+		@Override
+		boolean matches(MovieDB movieDB, int row) {
+			int rating = movieDB.getRatingColumns().getRating(row, isCritic);
+			return comparison == '=' ? rating == targetRating : comparison == '>' ? rating > targetRating : rating < targetRating;
+		}
+
+		@Override
+		public String toString() {
+			return (isCritic ? "critic" : "audience") + " rating " + comparison + " " + targetRating;
+		}
+
+	}
+
+	/**
+	 * Selects an actor by name.
+	 */
+	private static class ActorNamed extends Query {
+
+		/**
+		 * Normalized name of the actor.
+		 */
+		private final String actor;
+
+		/**
+		 * @param actor name of the actor
+		 */
+		private ActorNamed(String actor) {
+			super(true);
+			this.actor = MovieDB.normalize(actor);
+		}
+
+		@Override
+		int estimate(MovieDB movieDB) {
+			return movieDB.getActorRow(actor) >= 0 ? 1 : 0;
+		}
+
+		@Override
+		BitSet rows(MovieDB movieDB) {
+			BitSet rows = new BitSet();
+			int row = movieDB.getActorRow(actor);
+			if (row >= 0) {
+				rows.set(row);
+			}
+			return rows;
+		}
+
+		@Override
+		boolean matches(MovieDB movieDB, int row) {
+			return row == movieDB.getActorRow(actor);
+		}
+
+		@Override
+		public String toString() {
+			return "actor = " + actor;
+		}
+
+	}
+
+	/**
+	 * Selects the cast of a movie.
+	 */
+	private static class ActorInMovie extends Query {
+
+		/**
+		 * Normalized name of the movie.
+		 */
+		private final String movie;
+
+		/**
+		 * @param movie name of the movie
+		 */
+		private ActorInMovie(String movie) {
+			super(true);
+			this.movie = MovieDB.normalize(movie);
+		}
+
+		@Override
+		int estimate(MovieDB movieDB) {
+			SortedIntList cast = movieDB.getCast(movie);
+			return cast == null ? 0 : cast.size();
+		}
+
+		@Override
+		BitSet rows(MovieDB movieDB) {
+			return toBitSet(movieDB.getCast(movie));
+		}
+
+		@Override
+		boolean matches(MovieDB movieDB, int row) {
+			SortedIntList cast = movieDB.getCast(movie);
+			return cast != null && cast.contains(row);
+		}
+
+		@Override
+		public String toString() {
+			return "actor in movie = " + movie;
+		}
+
+	}
+
+	/**
+	 * Selects the co-actors of an actor.
+	 */
+	private static class CoActorOf extends Query {
+
+		/**
+		 * Normalized name of the actor.
+		 */
+		private final String actor;
+
+		/**
+		 * @param actor name of the actor
+		 */
+		private CoActorOf(String actor) {
+			super(true);
+			this.actor = MovieDB.normalize(actor);
+		}
+
+		/**
+		 * @param movieDB to look in
+		 * @return sorted positions of the actor's co-actors, null if there is no such actor
+		 */
+		private SortedIntList coActors(MovieDB movieDB) {
+			int row = movieDB.getActorRow(actor);
+			return row < 0 ? null : movieDB.getCoActors(row);
+		}
+
+		@Override
+		int estimate(MovieDB movieDB) {
+			SortedIntList coActors = coActors(movieDB);
+			return coActors == null ? 0 : coActors.size();
+		}
+
+		@Override
+		BitSet rows(MovieDB movieDB) {
+			return toBitSet(coActors(movieDB));
+		}
+
+		@Override
+		boolean matches(MovieDB movieDB, int row) {
+			SortedIntList coActors = coActors(movieDB);
+			return coActors != null && coActors.contains(row);
+		}
+
+		@Override
+		public String toString() {
+			return "actor co-acted with = " + actor;
+		}
+
+	}
+
+	/**
+	 * Combines queries on the same kind of rows.
+	 */
+	private abstract static class Compound extends Query {
+
+		/**
+		 * Queries combined, at least one.
+		 */
+		final Query[] queries;
+
+		/**
+		 * @param queries to combine
+		 */
+		private Compound(Query[] queries) {
+			super(queries.length > 0 && queries[0].actors);
+			if (queries.length == 0) {
+				throw new IllegalArgumentException("no queries to combine");
+			}
+			for (Query query : queries) {
+				if (query.actors != queries[0].actors) {
+					throw new IllegalArgumentException("can't combine queries on actors and on movies: " + Arrays.toString(queries));
+				}
+			}
+			this.queries = queries.clone();
+		}
+
+		/**
+		 * @param operator joining the queries
+		 * @param queries to describe
+		 * @return the queries joined by the operator, in parentheses
+		 */
+		static String join(String operator, Object[] queries) {
+			StringBuilder text = new StringBuilder("(");
+			for (int i = 0; i < queries.length; i++) {
+				text.append(i == 0 ? "" : " " + operator + " ").append(queries[i]);
+			}
+			return text.append(')').toString();
+		}
+
+	}
+
+	/**
+	 * Selects the rows all of its queries select.
+	 */
+	private static class And extends Compound {
+
+		/**
+		 * @param queries to combine
+		 */
+		private And(Query[] queries) {
+			super(queries);
+		}
+
+		/**
+		 * @param movieDB to estimate for
+		 * @param estimates receives the estimate of each query, in the order returned
+		 * @return the queries from the most to the least selective
+		 */
+		private Query[] bySelectivity(MovieDB movieDB, int[] estimates) {
+			Query[] order = queries.clone();
+			for (int i = 0; i < order.length; i++) {
+				estimates[i] = order[i].estimate(movieDB);
+			}
+			// insertion sort, there are few queries
+			for (int i = 1; i < order.length; i++) {
+				for (int j = i; j > 0 && estimates[j] < estimates[j - 1]; j--) {
+					Query q = order[j];
+					order[j] = order[j - 1];
+					order[j - 1] = q;
+					int e = estimates[j];
+					estimates[j] = estimates[j - 1];
+					estimates[j - 1] = e;
+				}
+			}
+			return order;
+		}
+
+		@Override
+		int estimate(MovieDB movieDB) {
+			int min = Integer.MAX_VALUE;
+			for (Query query : queries) {
+				min = Math.min(min, query.estimate(movieDB));
+			}
+			return min;
+		}
+
+		@Override
+		BitSet rows(MovieDB movieDB) {
+			int[] estimates = new int[queries.length];
+			Query[] order = bySelectivity(movieDB, estimates);
+			BitSet rows = order[0].rows(movieDB);
+			for (int i = 1; i < order.length && !rows.isEmpty(); i++) {
+				if ((long) rows.cardinality() * CHECK_COST <= estimates[i]) {
+					// few rows left compared to what the query selects, check them one by one
+					for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+						if (!order[i].matches(movieDB, row)) {
+							rows.clear(row);
+						}
+					}
+				} else {
+					rows.and(order[i].rows(movieDB));
+				}
+			}
+			return rows;
+		}
+
+		@Override
+		boolean matches(MovieDB movieDB, int row) {
+			for (Query query : queries) {
+				if (!query.matches(movieDB, row)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		String plan(MovieDB movieDB) {
+			Query[] order = bySelectivity(movieDB, new int[queries.length]);
+			String[] plans = new String[order.length];
+			for (int i = 0; i < order.length; i++) {
+				plans[i] = order[i].plan(movieDB);
+			}
+			return join("and", plans) + " [" + estimate(movieDB) + "]";
+		}
+
+		@Override
+		public String toString() {
+			return join("and", queries);
+		}
+
+	}
+
+	/**
+	 * Selects the rows any of its queries selects.
+	 */
+	private static class Or extends Compound {
+
+		/**
+		 * @param queries to combine
+		 */
+		private Or(Query[] queries) {
+			super(queries);
+		}
+
+		@Override
+		int estimate(MovieDB movieDB) {
+			long sum = 0;
+			for (Query query : queries) {
+				sum += query.estimate(movieDB);
+			}
+			int size = selectsActors() ? movieDB.getActorsInfo().size() : movieDB.getMoviesInfo().size();
+			return (int) Math.min(sum, size);
+		}
+
+		@Override
+		BitSet rows(MovieDB movieDB) {
+			BitSet rows = queries[0].rows(movieDB);
+			for (int i = 1; i < queries.length; i++) {
+				rows.or(queries[i].rows(movieDB));
+			}
+			return rows;
+		}
+
+		@Override
+		boolean matches(MovieDB movieDB, int row) {
+			for (Query query : queries) {
+				if (query.matches(movieDB, row)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		String plan(MovieDB movieDB) {
+			String[] plans = new String[queries.length];
+			for (int i = 0; i < queries.length; i++) {
+				plans[i] = queries[i].plan(movieDB);
+			}
+			return join("or", plans) + " [" + estimate(movieDB) + "]";
+		}
+
+		@Override
+		public String toString() {
+			return join("or", queries);
+		}
+
+	}
+
+}
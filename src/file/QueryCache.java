@@ -0,0 +1,226 @@
+package file;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache of query results. Each result is stored
+ * with the tags it depends on, such as the actors and movies it was computed
+ * from; invalidating a tag drops exactly the results that depend on it.
+ * Hits, misses, evictions and invalidations are counted for monitoring.
+ * All methods are synchronized, so readers may share one cache.
+ * @param <V> type of the cached results
+ */
+public class QueryCache<V> {
+
+	/**
+	 * Maximum number of results kept.
+	 */
+	private final int capacity;
+
+	/**
+	 * Cached results by key, least recently used first.
+	 */
+	private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true);
+
+	/**
+	 * Keys of the cached results depending on each tag.
+	 */
+	private final HashMap<String, HashSet<String>> keysByTag = new HashMap<String, HashSet<String>>();
+
+	/**
+	 * Number of lookups that found a result.
+	 */
+	private long hits;
+
+	/**
+	 * Number of lookups that found no result.
+	 */
+	private long misses;
+
+	/**
+	 * Number of results dropped to make room.
+	 */
+	private long evictions;
+
+	/**
+	 * Number of results dropped because a tag they depend on was invalidated.
+	 */
+	private long invalidations;
+
+	/**
+	 * Creates an empty cache.
+	 * @param capacity maximum number of results kept, at least 1
+	 */
+	public QueryCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param key of the query
+	 * @return the cached result, or null if there is none
+	 */
+	public synchronized V get(String key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+
+	/**
+	 * Caches a result, dropping the least recently used one if the cache is full.
+	 * @param key of the query
+	 * @param value result of the query
+	 * @param tags the result depends on
+	 */
+	public synchronized void put(String key, V value, Collection<String> tags) {
+		Entry<V> old = entries.remove(key);
+		if (old != null) {
+			unlink(key, old);
+		}
+		Entry<V> entry = new Entry<V>(value, tags.toArray(new String[0]));
+		entries.put(key, entry);
+		for (String tag : entry.tags) {
+			keysByTag.computeIfAbsent(tag, t -> new HashSet<String>()).add(key);
+		}
+		if (entries.size() > capacity) {
+			Iterator<Map.Entry<String, Entry<V>>> eldest = entries.entrySet().iterator();
+			Map.Entry<String, Entry<V>> evicted = eldest.next();
+			eldest.remove();
+			unlink(evicted.getKey(), evicted.getValue());
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops all results depending on the given tag.
+	 * @param tag that changed
+	 */
+	public synchronized void invalidate(String tag) {
+		HashSet<String> keys = keysByTag.remove(tag);
+		if (keys == null) {
+			return;
+		}
+		for (String key : keys) {
+			Entry<V> entry = entries.remove(key);
+			if (entry != null) {
+				unlink(key, entry);
+				invalidations++;
+			}
+		}
+	}
+
+	/**
+	 * Drops all results. The counters are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		keysByTag.clear();
+	}
+
+	/**
+	 * Removes the given result's key from the keys of its tags.
+	 * @param key of the result
+	 * @param entry the result
+	 */
+	private void unlink(String key, Entry<V> entry) {
+		for (String tag : entry.tags) {
+			HashSet<String> keys = keysByTag.get(tag);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					keysByTag.remove(tag);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of cached results
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return maximum number of results kept
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of lookups that found a result
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups that found no result
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of results dropped to make room
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return number of results dropped because something they depend on changed
+	 */
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	/**
+	 * Returns String containing the size and the counters.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "Size: " + entries.size() + "/" + capacity + " Hits: " + hits + " Misses: " + misses
+				+ " Evictions: " + evictions + " Invalidations: " + invalidations;
+	}
+
+	/**
+	 * A cached result and the tags it depends on.
+	 * @param <V> type of the result
+	 */
+	private static class Entry<V> {
+
+		/**
+		 * The result.
+		 */
+		final V value;
+
+		/**
+		 * Tags the result depends on.
+		 */
+		final String[] tags;
+
+		/**
+		 * @param value the result
+		 * @param tags the result depends on
+		 */
+		Entry(V value, String[] tags) {
+			this.value = value;
+			this.tags = tags;
+		}
+
+	}
+
+}
@@ -0,0 +1,121 @@
+package file;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Column store of the movies of a database, by position in the movies list:
+ * the critic and audience ratings as one byte each and the dictionary id of
+ * the movie name. Scans over ratings run over two small primitive arrays
+ * instead of following a pointer to every Movie object, and compare without
+ * branches so random ratings cost no mispredictions. Ratings fit in 0-127,
+ * so the signed bytes compare as they are.
+ */
+public class RatingColumns {
+
+	/**
+	 * Critic rating by movie position.
+	 */
+	private byte[] critic = new byte[16];
+
+	/**
+	 * Audience rating by movie position.
+	 */
+	private byte[] audience = new byte[16];
+
+	/**
+	 * Dictionary id of the movie name by movie position.
+	 */
+	private int[] nameIds = new int[16];
+
+	/**
+	 * Number of movies.
+	 */
+	private int size;
+
+	/**
+	 * Appends a movie.
+	 * @param nameId dictionary id of the movie name
+	 * @param criticRating from 0 to 100
+	 * @param audienceRating from 0 to 100
+	 * @return position of the movie
+	 */
+	public int add(int nameId, int criticRating, int audienceRating) {
+		if (size == critic.length) {
+			critic = Arrays.copyOf(critic, size * 2);
+			audience = Arrays.copyOf(audience, size * 2);
+			nameIds = Arrays.copyOf(nameIds, size * 2);
+		}
+		critic[size] = (byte) criticRating;
+		audience[size] = (byte) audienceRating;
+		nameIds[size] = nameId;
+		return size++;
+	}
+
+	/**
+	 * @param row position of the movie
+	 * @param isCritic true for the critic rating, false for the audience rating
+	 * @param rating from 0 to 100
+	 */
+	public void setRating(int row, boolean isCritic, int rating) {
+		(isCritic ? critic : audience)[row] = (byte) rating;
+	}
+
+	/**
+	 * @param row position of the movie
+	 * @param isCritic true for the critic rating, false for the audience rating
+	 * @return the rating, from 0 to 100
+	 */
+	public int getRating(int row, boolean isCritic) {
+		return (isCritic ? critic : audience)[row];
+	}
+
+	/**
+	 * @param row position of the movie
+	 * @return dictionary id of the movie name
+	 */
+	public int getNameId(int row) {
+		return nameIds[row];
+	}
+
+	/**
+	 * @return number of movies
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Scans one rating column for ratings in the given range.
+	 * @param isCritic true for critic ratings, false for audience ratings
+	 * @param from lowest rating, inclusive
+	 * @param to highest rating, inclusive
+	 * @return positions of the matching movies
+	 */
+	public BitSet selectRange(boolean isCritic, int from, int to) {
+		byte[] column = isCritic ? critic : audience;
+		long[] words = new long[(size + 63) >>> 6];
+		for (int i = 0; i < size; i++) {
+			// branch free: the sign bit is clear only if from <= rating <= to
+			int outside = (column[i] - from) | (to - column[i]);
+			words[i >>> 6] |= (long) (~outside >>> 31) << i;
+		}
+		return BitSet.valueOf(words);
+	}
+
+	/**
+	 * Scans both rating columns for movies rated at least the given ratings.
+	 * @param minCritic lowest critic rating
+	 * @param minAudience lowest audience rating
+	 * @return positions of the matching movies
+	 */
+	public BitSet selectAtLeast(int minCritic, int minAudience) {
+		long[] words = new long[(size + 63) >>> 6];
+		for (int i = 0; i < size; i++) {
+			int below = (critic[i] - minCritic) | (audience[i] - minAudience);
+			words[i >>> 6] |= (long) (~below >>> 31) << i;
+		}
+		return BitSet.valueOf(words);
+	}
+
+}
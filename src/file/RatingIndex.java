@@ -0,0 +1,151 @@
+package file;
+
+import java.util.Arrays;
+
+/**
+ * Index of movies by one kind of rating. Ratings are clamped to 0-100, so
+ * there is one bucket per possible rating holding the positions of the
+ * movies with that rating. Range queries only touch the matching buckets.
+ * The index also keeps the running sum and sum of squares of all ratings,
+ * so statistics never need a pass over the movies.
+ */
+public class RatingIndex {
+	
+	/**
+	 * Number of buckets, one per rating from 0 to 100.
+	 */
+	public static final int BUCKETS = 101;
+	
+	/**
+	 * Movie positions in each bucket, in no particular order.
+	 */
+	private int[][] buckets = new int[BUCKETS][];
+	
+	/**
+	 * Number of movie positions in each bucket.
+	 */
+	private int[] bucketSizes = new int[BUCKETS];
+	
+	/**
+	 * Slot of each movie position inside its bucket.
+	 */
+	private int[] slots = new int[16];
+	
+	/**
+	 * Number of movies in the index.
+	 */
+	private int size;
+	
+	/**
+	 * Sum of all ratings.
+	 */
+	private long sum;
+	
+	/**
+	 * Sum of all squared ratings.
+	 */
+	private long sumOfSquares;
+	
+	/**
+	 * Creates an empty index.
+	 */
+	public RatingIndex() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new int[4];
+		}
+	}
+	
+	/**
+	 * Adds the movie at the given position with the given rating.
+	 * @param row position of the movie
+	 * @param rating of the movie
+	 */
+	public void add(int row, int rating) {
+		size++;
+		sum += rating;
+		sumOfSquares += rating * rating;
+		if (row >= slots.length) {
+			slots = Arrays.copyOf(slots, Math.max(row + 1, slots.length * 2));
+		}
+		int[] bucket = buckets[rating];
+		int size = bucketSizes[rating];
+		if (size == bucket.length) {
+			bucket = Arrays.copyOf(bucket, size * 2);
+			buckets[rating] = bucket;
+		}
+		bucket[size] = row;
+		slots[row] = size;
+		bucketSizes[rating] = size + 1;
+	}
+	
+	/**
+	 * Moves the movie at the given position from one rating bucket to another.
+	 * @param row position of the movie
+	 * @param oldRating the movie is indexed under
+	 * @param newRating to index the movie under
+	 */
+	public void move(int row, int oldRating, int newRating) {
+		// fill the hole with the last entry of the old bucket
+		int[] bucket = buckets[oldRating];
+		int last = bucket[--bucketSizes[oldRating]];
+		bucket[slots[row]] = last;
+		slots[last] = slots[row];
+		size--;
+		sum -= oldRating;
+		sumOfSquares -= oldRating * oldRating;
+		add(row, newRating);
+	}
+	
+	/**
+	 * @return number of movies in the index
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return mean of all ratings, 0 if there are none
+	 */
+	public double getMean() {
+		return size == 0 ? 0.0 : (double) sum / size;
+	}
+	
+	/**
+	 * Returns the current statistics. Costs one pass over the 101 buckets, independent of the number of movies.
+	 * @return statistics of all ratings
+	 */
+	public RatingStats getStats() {
+		return new RatingStats(size, sum, sumOfSquares, Arrays.copyOf(bucketSizes, BUCKETS));
+	}
+	
+	/**
+	 * @param rating from 0 to 100
+	 * @return number of movies with the given rating
+	 */
+	public int count(int rating) {
+		return bucketSizes[rating];
+	}
+	
+	/**
+	 * @param from lowest rating, inclusive
+	 * @param to highest rating, inclusive
+	 * @return number of movies with a rating in the given range
+	 */
+	public int count(int from, int to) {
+		int count = 0;
+		for (int rating = Math.max(0, from); rating <= Math.min(100, to); rating++) {
+			count += bucketSizes[rating];
+		}
+		return count;
+	}
+	
+	/**
+	 * @param rating from 0 to 100
+	 * @param i index inside the bucket, less than count(rating)
+	 * @return position of a movie with the given rating
+	 */
+	public int get(int rating, int i) {
+		return buckets[rating][i];
+	}
+
+}
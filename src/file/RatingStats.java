@@ -0,0 +1,110 @@
+package file;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of one kind of rating (critic or audience) over all movies of a
+ * database at one point in time: count, mean, variance, min, max and the
+ * number of movies with each rating from 0 to 100.
+ */
+public class RatingStats {
+	
+	/**
+	 * Number of movies.
+	 */
+	private int count;
+	
+	/**
+	 * Sum of all ratings.
+	 */
+	private long sum;
+	
+	/**
+	 * Sum of all squared ratings.
+	 */
+	private long sumOfSquares;
+	
+	/**
+	 * Number of movies with each rating from 0 to 100.
+	 */
+	private int[] histogram;
+	
+	/**
+	 * Creates statistics from running aggregates.
+	 * @param count number of movies
+	 * @param sum of all ratings
+	 * @param sumOfSquares of all ratings
+	 * @param histogram number of movies per rating, 101 entries
+	 */
+	public RatingStats(int count, long sum, long sumOfSquares, int[] histogram) {
+		this.count = count;
+		this.sum = sum;
+		this.sumOfSquares = sumOfSquares;
+		this.histogram = histogram;
+	}
+	
+	/**
+	 * @return number of movies
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return mean rating, 0 if there are no movies
+	 */
+	public double getMean() {
+		return count == 0 ? 0.0 : (double) sum / count;
+	}
+	
+	/**
+	 * @return population variance of the ratings, 0 if there are no movies
+	 */
+	public double getVariance() {
+		if (count == 0) {
+			return 0.0;
+		}
+		double mean = getMean();
+		return Math.max(0.0, (double) sumOfSquares / count - mean * mean);
+	}
+	
+	/**
+	 * @return lowest rating, -1 if there are no movies
+	 */
+	public int getMin() {
+		for (int rating = 0; rating < histogram.length; rating++) {
+			if (histogram[rating] > 0) {
+				return rating;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return highest rating, -1 if there are no movies
+	 */
+	public int getMax() {
+		for (int rating = histogram.length - 1; rating >= 0; rating--) {
+			if (histogram[rating] > 0) {
+				return rating;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return number of movies with each rating, indexed by rating from 0 to 100
+	 */
+	public int[] getHistogram() {
+		return Arrays.copyOf(histogram, histogram.length);
+	}
+	
+	/**
+	 * Returns String containing the count, mean, variance, min and max.
+	 */
+	@Override
+	public String toString() {
+		return "Count: " + count + " Mean: " + getMean() + " Variance: " + getVariance() + " Min: " + getMin() + " Max: " + getMax();
+	}
+
+}
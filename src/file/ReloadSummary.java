@@ -0,0 +1,87 @@
+package file;
+
+/**
+ * Outcome of a reload of the data files: how many lines were read, how many
+ * actors and movies were new or changed, and whether the changes could not be
+ * applied as upserts so that the database was rebuilt from the files.
+ */
+public class ReloadSummary {
+
+	/**
+	 * Number of lines read from both files.
+	 */
+	private int linesRead;
+
+	/**
+	 * Number of actors and movies that were not in the database.
+	 */
+	private int inserted;
+
+	/**
+	 * Number of existing actors and movies that were changed.
+	 */
+	private int updated;
+
+	/**
+	 * True if the database was rebuilt from the files.
+	 */
+	private boolean rebuilt;
+
+	/**
+	 * Creates a summary from the counts of a reload.
+	 * @param linesRead number of lines read
+	 * @param inserted number of new actors and movies
+	 * @param updated number of changed actors and movies
+	 * @param rebuilt true if the database was rebuilt
+	 */
+	public ReloadSummary(int linesRead, int inserted, int updated, boolean rebuilt) {
+		this.linesRead = linesRead;
+		this.inserted = inserted;
+		this.updated = updated;
+		this.rebuilt = rebuilt;
+	}
+
+	/**
+	 * @return number of lines read from both files
+	 */
+	public int getLinesRead() {
+		return linesRead;
+	}
+
+	/**
+	 * @return number of actors and movies that were not in the database
+	 */
+	public int getInserted() {
+		return inserted;
+	}
+
+	/**
+	 * @return number of existing actors and movies that were changed
+	 */
+	public int getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * @return true if the database was rebuilt from the files rather than updated
+	 */
+	public boolean isRebuilt() {
+		return rebuilt;
+	}
+
+	/**
+	 * @return true if the reload changed the database
+	 */
+	public boolean hasChanges() {
+		return rebuilt || inserted > 0 || updated > 0;
+	}
+
+	/**
+	 * Returns String containing the counts.
+	 */
+	@Override
+	public String toString() {
+		return "Lines read: " + linesRead + " Inserted: " + inserted + " Updated: " + updated + " Rebuilt: " + rebuilt;
+	}
+
+}
@@ -0,0 +1,84 @@
+package file;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Reloads data files on a background thread at a fixed delay, such as
+ * {@link MovieDB#reload()}, which costs two file checks when nothing changed.
+ * The database being reloaded should be in concurrent mode so that the reloads
+ * do not race with queries. Closing the watcher stops the reloads.
+ */
+public class ReloadWatcher implements AutoCloseable {
+
+	/**
+	 * Runs the reloads on one daemon thread.
+	 */
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * Reloads the files.
+	 */
+	private final Supplier<ReloadSummary> reload;
+
+	/**
+	 * Outcome of the last reload that changed something, null if none did.
+	 */
+	private volatile ReloadSummary lastChange;
+
+	/**
+	 * Starts reloading.
+	 * @param reload reloads the files, such as {@code movieDB::reload}
+	 * @param periodMillis delay between the end of one reload and the start of the next
+	 */
+	public ReloadWatcher(Supplier<ReloadSummary> reload, long periodMillis) {
+		if (periodMillis <= 0) {
+			throw new IllegalArgumentException("period must be positive: " + periodMillis);
+		}
+		this.reload = reload;
+		executor = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "movie-data-reload");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::poll, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Reloads once, keeping the schedule going if the reload fails.
+	 */
+	private void poll() {
+		try {
+			ReloadSummary summary = reload.get();
+			if (summary.hasChanges()) {
+				lastChange = summary;
+			}
+		} catch (RuntimeException e) {
+			// a failed reload leaves the database as it was; try again next time
+			System.err.println("reload failed: " + e);
+		}
+	}
+
+	/**
+	 * @return outcome of the last reload that changed something, null if none did
+	 */
+	public ReloadSummary getLastChange() {
+		return lastChange;
+	}
+
+	/**
+	 * Stops reloading and waits for a reload under way to finish.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
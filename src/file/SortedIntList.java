@@ -0,0 +1,138 @@
+package file;
+
+import java.util.Arrays;
+
+/**
+ * Growable set of ints kept in ascending order in a plain int array.
+ * Membership is a binary search and two lists intersect with a linear merge.
+ */
+public class SortedIntList {
+	
+	/**
+	 * Values in ascending order, valid up to size.
+	 */
+	private int[] values;
+	
+	/**
+	 * Number of values.
+	 */
+	private int size;
+	
+	/**
+	 * Creates an empty list.
+	 */
+	public SortedIntList() {
+		this.values = new int[4];
+	}
+	
+	/**
+	 * Adds the given value if it is not already present.
+	 * Appending a value larger than all others is O(1).
+	 * @param value to add
+	 * @return true if the value was added
+	 */
+	public boolean add(int value) {
+		int pos;
+		if (size == 0 || values[size - 1] < value) {
+			pos = size;
+		} else {
+			pos = Arrays.binarySearch(values, 0, size, value);
+			if (pos >= 0) {
+				return false;
+			}
+			pos = -pos - 1;
+		}
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		System.arraycopy(values, pos, values, pos + 1, size - pos);
+		values[pos] = value;
+		size++;
+		return true;
+	}
+	
+	/**
+	 * @param value to look for
+	 * @return true if the value is in the list
+	 */
+	public boolean contains(int value) {
+		return Arrays.binarySearch(values, 0, size, value) >= 0;
+	}
+	
+	/**
+	 * Finds where to resume a walk over the list after the given value, so that a walk keeps
+	 * its place while values are added.
+	 * @param value to compare with
+	 * @return position of the first value greater than the given one, size if there is none
+	 */
+	public int indexAfter(int value) {
+		int pos = Arrays.binarySearch(values, 0, size, value);
+		return pos >= 0 ? pos + 1 : -pos - 1;
+	}
+	
+	/**
+	 * @param index position in the list
+	 * @return the value at the given position
+	 */
+	public int get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return values[index];
+	}
+	
+	/**
+	 * @return number of values in the list
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the values present in both lists, in ascending order.
+	 * When one list is much smaller, its values are binary searched in the other
+	 * instead of merging both.
+	 * @param a first list
+	 * @param b second list
+	 * @return new list with the common values
+	 */
+	public static SortedIntList intersect(SortedIntList a, SortedIntList b) {
+		SortedIntList result = new SortedIntList();
+		if (a.size > b.size) {
+			SortedIntList t = a;
+			a = b;
+			b = t;
+		}
+		if (a.size * 16 < b.size) {
+			for (int i = 0; i < a.size; i++) {
+				if (b.contains(a.values[i])) {
+					result.add(a.values[i]);
+				}
+			}
+			return result;
+		}
+		int i = 0;
+		int j = 0;
+		while (i < a.size && j < b.size) {
+			if (a.values[i] < b.values[j]) {
+				i++;
+			} else if (a.values[i] > b.values[j]) {
+				j++;
+			} else {
+				result.add(a.values[i]);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns String containing the values in the list.
+	 */
+	@Override
+	public String toString() {
+		return Arrays.toString(Arrays.copyOf(values, size));
+	}
+
+}
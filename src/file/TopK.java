@@ -0,0 +1,128 @@
+package file;
+
+/**
+ * Keeps the k best scored rows seen, in a bounded heap of primitive arrays
+ * with the worst kept row at the root, so offering a row that doesn't make
+ * the cut is one comparison. Of two rows with equal scores the one with the
+ * lower position is the better, so results don't depend on the order rows
+ * are offered in.
+ */
+class TopK {
+
+	/**
+	 * Kept rows, as a heap with the worst at index 0.
+	 */
+	private final int[] rows;
+
+	/**
+	 * Score of each kept row.
+	 */
+	private final double[] scores;
+
+	/**
+	 * Number of rows kept.
+	 */
+	private int size;
+
+	/**
+	 * @param k most rows kept, at least 0
+	 */
+	TopK(int k) {
+		if (k < 0) {
+			throw new IllegalArgumentException("k must be at least 0: " + k);
+		}
+		rows = new int[k];
+		scores = new double[k];
+	}
+
+	/**
+	 * Keeps the row if it is among the k best so far.
+	 * @param row position of the row
+	 * @param score of the row, higher is better
+	 */
+	void offer(int row, double score) {
+		if (size < rows.length) {
+			rows[size] = row;
+			scores[size] = score;
+			siftUp(size++);
+		} else if (size > 0 && isWorse(rows[0], scores[0], row, score)) {
+			rows[0] = row;
+			scores[0] = score;
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Takes the kept rows out, leaving none.
+	 * @return the kept rows, best first
+	 */
+	int[] drain() {
+		int[] best = new int[size];
+		while (size > 0) {
+			best[size - 1] = rows[0];
+			size--;
+			rows[0] = rows[size];
+			scores[0] = scores[size];
+			siftDown(0);
+		}
+		return best;
+	}
+
+	/**
+	 * @param row1 position of the first row
+	 * @param score1 score of the first row
+	 * @param row2 position of the second row
+	 * @param score2 score of the second row
+	 * @return true if the first row ranks below the second
+	 */
+	private static boolean isWorse(int row1, double score1, int row2, double score2) {
+		return score1 < score2 || (score1 == score2 && row1 > row2);
+	}
+
+	/**
+	 * @param i index in the heap of a row that may be worse than its parent
+	 */
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!isWorse(rows[i], scores[i], rows[parent], scores[parent])) {
+				return;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	/**
+	 * @param i index in the heap of a row that may be better than its children
+	 */
+	private void siftDown(int i) {
+		while (true) {
+			int worst = i;
+			for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+				if (isWorse(rows[child], scores[child], rows[worst], scores[worst])) {
+					worst = child;
+				}
+			}
+			if (worst == i) {
+				return;
+			}
+			swap(i, worst);
+			i = worst;
+		}
+	}
+
+	/**
+	 * @param i index in the heap
+	 * @param j index in the heap
+	 */
+	private void swap(int i, int j) {
+		int row = rows[i];
+		rows[i] = rows[j];
+		rows[j] = row;
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+
+}
@@ -0,0 +1,480 @@
+package file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A data file as it was last loaded, for incremental reloads: its identity,
+ * size and modification time, the offset of its complete lines with a
+ * checksum of the bytes just before it, and per line a hash of the line and
+ * the row the line was loaded into. A scan reads only past the recorded
+ * offset if the file is the same file, at least as long, and the checksummed
+ * bytes are unchanged, as when lines were appended; otherwise it reads the
+ * whole file and compares every line's hash. Either way only lines that are
+ * new or changed are decoded and handed on. Checking only a window before the
+ * offset keeps an append at a cost proportional to what was appended; an edit
+ * in place further back, keeping the file and its size before the offset, is
+ * taken as unchanged until the file is replaced or a line near its end
+ * changes. Lines end with "\n" or "\r\n" and are decoded as UTF-8, whatever
+ * the platform's default charset, so that every loader reads the same names.
+ */
+class TrackedFile {
+
+	/**
+	 * Initial value of the 64-bit FNV-1a hash.
+	 */
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	/**
+	 * Multiplier of the 64-bit FNV-1a hash.
+	 */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * Bytes read from the file at a time.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Most bytes before the offset of the complete lines checked by a scan.
+	 */
+	static final int WINDOW = 1 << 16;
+
+	/**
+	 * Charset the lines of the data files are decoded with, by this class and by
+	 * the parallel and lazy loaders.
+	 */
+	static final Charset CHARSET = StandardCharsets.UTF_8;
+
+	/**
+	 * Name of the file as given.
+	 */
+	private final String path;
+
+	/**
+	 * Size of the file when last scanned, -1 if it never was.
+	 */
+	private long size = -1;
+
+	/**
+	 * Modification time of the file when last scanned, in milliseconds.
+	 */
+	private long lastModified;
+
+	/**
+	 * Identity of the file when last scanned, such as its inode, null if not known.
+	 */
+	private Object fileKey;
+
+	/**
+	 * Offset just past the last line ending.
+	 */
+	private long completeOffset;
+
+	/**
+	 * FNV-1a hash of the last WINDOW bytes before completeOffset.
+	 */
+	private long windowHash = FNV_OFFSET;
+
+	/**
+	 * Number of lines before completeOffset.
+	 */
+	private int completeLines;
+
+	/**
+	 * Number of lines, counting a last line without line ending.
+	 */
+	private int lineCount;
+
+	/**
+	 * Hash of each line, without its line ending.
+	 */
+	private long[] hashes = new long[16];
+
+	/**
+	 * Row each line was loaded into, -1 if none.
+	 */
+	private int[] rows = new int[16];
+
+	/**
+	 * Receives the lines a scan found new or changed.
+	 */
+	interface LineVisitor {
+
+		/**
+		 * @param line text of the line, without line ending
+		 * @param index of the line, from 0
+		 * @param offset of the line's first byte in the file
+		 * @return row the line was loaded into, -1 if none or not known yet
+		 */
+		int visit(String line, int index, long offset);
+
+	}
+
+	/**
+	 * Creates a file that was not scanned yet; its first scan reads every line.
+	 * @param path of the file
+	 */
+	TrackedFile(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * @return name of the file as given
+	 */
+	String getPath() {
+		return path;
+	}
+
+	/**
+	 * Compares the size and modification time to those of the last scan. A change that keeps
+	 * the size within the file system's timestamp precision goes unnoticed.
+	 * @return true if the file may have changed since the last scan
+	 * @throws IOException if the file can't be checked
+	 */
+	boolean isModified() throws IOException {
+		Path file = Paths.get(path);
+		return Files.size(file) != size || Files.getLastModifiedTime(file).toMillis() != lastModified;
+	}
+
+	/**
+	 * @return number of lines at the last commit
+	 */
+	int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @param line index of a line
+	 * @return row the line was loaded into at the last commit, -1 if none or the line is new
+	 */
+	int getRow(int line) {
+		return line < lineCount ? rows[line] : -1;
+	}
+
+	/**
+	 * Reads the file and hands the new and changed lines to the visitor, in file order.
+	 * Nothing is recorded until the scan is committed.
+	 * @param visitor of the new and changed lines
+	 * @return the scan, to commit once its lines are applied
+	 * @throws IOException if the file can't be read
+	 */
+	Scan scan(LineVisitor visitor) throws IOException {
+		Path file = Paths.get(path);
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Scan scan = new Scan(attributes.lastModifiedTime().toMillis(), attributes.fileKey());
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			if (completeLines > 0 && Objects.equals(attributes.fileKey(), fileKey) && channel.size() >= completeOffset
+					&& hash(channel, buffer, windowStart(completeOffset), completeOffset) == windowHash) {
+				// the lines before the offset are taken as unchanged, read on from there
+				scan.resume(completeOffset, completeLines);
+				channel.position(completeOffset);
+			} else {
+				channel.position(0);
+			}
+			scan.read(channel, buffer, visitor);
+			scan.windowHash = hash(channel, buffer, windowStart(scan.completeOffset), scan.completeOffset);
+			return scan;
+		}
+	}
+
+	/**
+	 * Records the state of the file as of the given scan.
+	 * @param scan of this file, with the rows of its lines set
+	 */
+	void commit(Scan scan) {
+		size = scan.size;
+		lastModified = scan.lastModified;
+		fileKey = scan.fileKey;
+		completeOffset = scan.completeOffset;
+		windowHash = scan.windowHash;
+		completeLines = scan.completeLines;
+		lineCount = scan.lineCount;
+		hashes = scan.hashes;
+		rows = scan.rows;
+	}
+
+	/**
+	 * @param offset of the complete lines
+	 * @return offset of the first byte checked before it
+	 */
+	private static long windowStart(long offset) {
+		return Math.max(0, offset - WINDOW);
+	}
+
+	/**
+	 * @param channel to read from
+	 * @param buffer to read through
+	 * @param start offset of the first byte to hash
+	 * @param end offset just past the last byte to hash
+	 * @return FNV-1a hash of the bytes from start to end
+	 * @throws IOException if the file can't be read
+	 */
+	private static long hash(FileChannel channel, ByteBuffer buffer, long start, long end) throws IOException {
+		long hash = FNV_OFFSET;
+		long position = start;
+		while (position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				break;
+			}
+			byte[] bytes = buffer.array();
+			for (int i = 0; i < read; i++) {
+				hash = (hash ^ (bytes[i] & 0xff)) * FNV_PRIME;
+			}
+			position += read;
+		}
+		return hash;
+	}
+
+	/**
+	 * State of the file found by one scan, with the rows of its lines.
+	 */
+	class Scan {
+
+		/**
+		 * Modification time of the file before it was read.
+		 */
+		private final long lastModified;
+
+		/**
+		 * Identity of the file read, null if not known.
+		 */
+		private final Object fileKey;
+
+		/**
+		 * Number of bytes read, from the start of the file.
+		 */
+		private long size;
+
+		/**
+		 * Offset just past the last line ending.
+		 */
+		private long completeOffset;
+
+		/**
+		 * FNV-1a hash of the last WINDOW bytes before completeOffset, set once read.
+		 */
+		private long windowHash = FNV_OFFSET;
+
+		/**
+		 * Number of lines before completeOffset.
+		 */
+		private int completeLines;
+
+		/**
+		 * Number of lines.
+		 */
+		private int lineCount;
+
+		/**
+		 * Index of the first line read.
+		 */
+		private int firstLine;
+
+		/**
+		 * Hash of each line.
+		 */
+		private long[] hashes;
+
+		/**
+		 * Row of each line; unchanged lines keep their row.
+		 */
+		private int[] rows;
+
+		/**
+		 * Number of new and changed lines.
+		 */
+		private int changed;
+
+		/**
+		 * Offset of the line being read.
+		 */
+		private long lineOffset;
+
+		/**
+		 * Creates a scan that reads from the start of the file.
+		 * @param lastModified modification time of the file
+		 * @param fileKey identity of the file, null if not known
+		 */
+		private Scan(long lastModified, Object fileKey) {
+			this.lastModified = lastModified;
+			this.fileKey = fileKey;
+			int capacity = Math.max(16, TrackedFile.this.lineCount);
+			hashes = new long[capacity];
+			rows = new int[capacity];
+		}
+
+		/**
+		 * Takes over the lines before the given offset from the last scan.
+		 * @param offset just past a line ending
+		 * @param lines number of lines before the offset
+		 */
+		private void resume(long offset, int lines) {
+			System.arraycopy(TrackedFile.this.hashes, 0, hashes, 0, lines);
+			System.arraycopy(TrackedFile.this.rows, 0, rows, 0, lines);
+			size = offset;
+			lineOffset = offset;
+			completeOffset = offset;
+			completeLines = lines;
+			lineCount = lines;
+			firstLine = lines;
+		}
+
+		/**
+		 * Reads the lines from the channel's position to the end of the file.
+		 * @param channel positioned after the lines taken over
+		 * @param buffer to read through
+		 * @param visitor of the new and changed lines
+		 * @throws IOException if the file can't be read
+		 */
+		private void read(FileChannel channel, ByteBuffer buffer, LineVisitor visitor) throws IOException {
+			byte[] line = new byte[256];
+			int length = 0;
+			while (true) {
+				buffer.clear();
+				int read = channel.read(buffer);
+				if (read < 0) {
+					break;
+				}
+				byte[] bytes = buffer.array();
+				for (int i = 0; i < read; i++) {
+					byte b = bytes[i];
+					if (b == '\n') {
+						if (length > 0 && line[length - 1] == '\r') {
+							length--;
+						}
+						endLine(line, length, hash(line, length), visitor);
+						completeOffset = size + i + 1;
+						completeLines = lineCount;
+						lineOffset = completeOffset;
+						length = 0;
+						continue;
+					}
+					if (length == line.length) {
+						line = Arrays.copyOf(line, length * 2);
+					}
+					line[length++] = b;
+				}
+				size += read;
+			}
+			if (length > 0) {
+				// last line without line ending; read again by the next scan
+				endLine(line, length, hash(line, length), visitor);
+			}
+		}
+
+		/**
+		 * Records a line and hands it to the visitor if it is new or changed.
+		 * @param line bytes of the line
+		 * @param length of the line without line ending
+		 * @param hash of the line
+		 * @param visitor of the new and changed lines
+		 */
+		private void endLine(byte[] line, int length, long hash, LineVisitor visitor) {
+			int index = lineCount++;
+			if (index == hashes.length) {
+				hashes = Arrays.copyOf(hashes, index * 2);
+				rows = Arrays.copyOf(rows, index * 2);
+			}
+			hashes[index] = hash;
+			if (index < TrackedFile.this.lineCount && TrackedFile.this.hashes[index] == hash) {
+				rows[index] = TrackedFile.this.rows[index];
+			} else {
+				changed++;
+				rows[index] = visitor.visit(new String(line, 0, length, CHARSET), index, lineOffset);
+			}
+		}
+
+		/**
+		 * @param line index of a line read by this scan
+		 * @param row the line was loaded into, -1 if none
+		 */
+		void setRow(int line, int row) {
+			rows[line] = row;
+		}
+
+		/**
+		 * @return number of lines read
+		 */
+		int getLinesRead() {
+			return lineCount - firstLine;
+		}
+
+		/**
+		 * @return number of lines handed to the visitor
+		 */
+		int getChangedLines() {
+			return changed;
+		}
+
+		/**
+		 * @return number of lines the last commit had that the file no longer has
+		 */
+		int getRemovedLines() {
+			return Math.max(0, TrackedFile.this.lineCount - lineCount);
+		}
+
+	}
+
+	/**
+	 * Reads the line starting at the given offset, as a scan would hand it on.
+	 * @param channel of the file
+	 * @param offset of the line's first byte
+	 * @return text of the line, without line ending
+	 * @throws IOException if the file can't be read
+	 */
+	static String readLine(FileChannel channel, long offset) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		int length = 0;
+		while (true) {
+			int read = channel.read(buffer, offset + length);
+			int end = buffer.position();
+			for (int i = length; i < end; i++) {
+				if (buffer.get(i) == '\n') {
+					end = i;
+					read = -1;
+					break;
+				}
+			}
+			length = end;
+			if (read < 0) {
+				break;
+			}
+			if (!buffer.hasRemaining()) {
+				buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+			}
+		}
+		if (length > 0 && buffer.get(length - 1) == '\r') {
+			length--;
+		}
+		return new String(buffer.array(), 0, length, CHARSET);
+	}
+
+	/**
+	 * @param bytes of a line
+	 * @param length of the line
+	 * @return FNV-1a hash of the line
+	 */
+	private static long hash(byte[] bytes, int length) {
+		long hash = FNV_OFFSET;
+		for (int i = 0; i < length; i++) {
+			hash = (hash ^ (bytes[i] & 0xff)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+}
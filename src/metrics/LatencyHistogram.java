@@ -0,0 +1,141 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values, such as latencies in nanoseconds, with
+ * log-linear buckets in the style of HdrHistogram: values below 128 have a
+ * bucket each, and every power of two above is split into 64 buckets. Any
+ * value from 0 to Long.MAX_VALUE is counted with a relative error below
+ * 1/64 (1.6%) in fixed memory, so percentiles stay accurate however long
+ * the histogram runs. Values may be recorded from several threads at once.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Log2 of the number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 6;
+
+	/**
+	 * Number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Number of buckets: values below 2 * SUB_BUCKETS, then SUB_BUCKETS for each higher power of two.
+	 */
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	/**
+	 * Number of values in each bucket.
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Number of values.
+	 */
+	private final LongAdder count = new LongAdder();
+
+	/**
+	 * Sum of the values.
+	 */
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Largest value.
+	 */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Counts a value.
+	 * @param value to count, negative values count as 0
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		if (value > max.get()) {
+			max.accumulateAndGet(value, Math::max);
+		}
+	}
+
+	/**
+	 * @return number of values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return mean of the values, 0 if there are none
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0.0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * @return largest value, 0 if there are none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value below or at which the given share of the values are, to within the
+	 * bucket precision: the highest value of the bucket holding that share.
+	 * @param percentile from 0 to 100
+	 * @return the value at the percentile, 0 if there are no values
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @param value non-negative value
+	 * @return index of the bucket counting the value
+	 */
+	static int bucket(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		// keep the SUB_BUCKET_BITS + 1 highest bits of the value
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/**
+	 * @param bucket index of a bucket
+	 * @return highest value counted in the bucket
+	 */
+	static long highestValue(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long low = (long) (bucket - shift * SUB_BUCKETS) << shift;
+		return low + (1L << shift) - 1;
+	}
+
+}
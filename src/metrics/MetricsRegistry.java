@@ -0,0 +1,146 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics that keep {@link OperationStats} per operation in memory, for
+ * reading in process or, after {@link #registerMBeans(String)}, over JMX
+ * with one MBean per operation.
+ */
+public class MetricsRegistry implements QueryMetrics {
+
+	/**
+	 * Statistics by operation name.
+	 */
+	private final ConcurrentHashMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+
+	/**
+	 * JMX domain the operations are published under, null if they are not.
+	 */
+	private volatile String jmxDomain;
+
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	@Override
+	public void record(String operation, long nanos, long resultSize, long rowsScanned) {
+		OperationStats stats = operations.get(operation);
+		if (stats == null) {
+			stats = operations.computeIfAbsent(operation, this::newStats);
+		}
+		stats.record(nanos, resultSize, rowsScanned);
+	}
+
+	/**
+	 * @param operation name of an operation
+	 * @return its statistics, or null if it was never recorded
+	 */
+	public OperationStats getStats(String operation) {
+		return operations.get(operation);
+	}
+
+	/**
+	 * @return statistics of all recorded operations, by name
+	 */
+	public List<OperationStats> getAllStats() {
+		ArrayList<OperationStats> all = new ArrayList<OperationStats>(operations.values());
+		Collections.sort(all, Comparator.comparing(OperationStats::getName));
+		return all;
+	}
+
+	/**
+	 * Publishes the statistics of every operation, recorded so far and later, as an MBean
+	 * named {@code <domain>:type=Operation,name=<operation>} on the platform MBean server.
+	 * @param domain JMX domain, such as "movietrivia"
+	 * @throws JMException if an MBean cannot be registered
+	 */
+	public synchronized void registerMBeans(String domain) throws JMException {
+		jmxDomain = domain;
+		for (OperationStats stats : operations.values()) {
+			register(stats);
+		}
+	}
+
+	/**
+	 * Removes the MBeans published by {@link #registerMBeans(String)}.
+	 * @throws JMException if an MBean cannot be unregistered
+	 */
+	public synchronized void unregisterMBeans() throws JMException {
+		if (jmxDomain == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (OperationStats stats : operations.values()) {
+			ObjectName name = objectName(jmxDomain, stats);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		}
+		jmxDomain = null;
+	}
+
+	/**
+	 * Creates the statistics of a new operation and publishes them if MBeans are on.
+	 * @param operation name of the operation
+	 * @return the new statistics
+	 */
+	private OperationStats newStats(String operation) {
+		OperationStats stats = new OperationStats(operation);
+		if (jmxDomain != null) {
+			try {
+				register(stats);
+			} catch (JMException e) {
+				// metrics must not fail the operation they measure
+				System.err.println("cannot register MBean for " + operation + ": " + e);
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Registers the MBean of the given statistics unless it is registered already.
+	 * @param stats of an operation
+	 * @throws JMException if the MBean cannot be registered
+	 */
+	private void register(OperationStats stats) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = objectName(jmxDomain, stats);
+		if (!server.isRegistered(name)) {
+			server.registerMBean(stats, name);
+		}
+	}
+
+	/**
+	 * @param domain JMX domain
+	 * @param stats of an operation
+	 * @return MBean name of the statistics
+	 * @throws JMException if the name is malformed
+	 */
+	private static ObjectName objectName(String domain, OperationStats stats) throws JMException {
+		return new ObjectName(domain + ":type=Operation,name=" + ObjectName.quote(stats.getName()));
+	}
+
+	/**
+	 * Returns String containing the statistics of every operation, one per line.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		for (OperationStats stats : getAllStats()) {
+			report.append(stats).append('\n');
+		}
+		return report.toString();
+	}
+
+}
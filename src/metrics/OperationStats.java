@@ -0,0 +1,122 @@
+package metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of one operation: number of calls, latency histogram and the
+ * totals of result sizes and rows scanned. Calls may be recorded from
+ * several threads at once.
+ */
+public class OperationStats implements OperationStatsMXBean {
+
+	/**
+	 * Name of the operation.
+	 */
+	private final String name;
+
+	/**
+	 * Time per call, in nanoseconds.
+	 */
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * Total number of results.
+	 */
+	private final LongAdder resultSizeTotal = new LongAdder();
+
+	/**
+	 * Total number of rows or index entries read.
+	 */
+	private final LongAdder rowsScannedTotal = new LongAdder();
+
+	/**
+	 * Creates empty statistics.
+	 * @param name of the operation
+	 */
+	public OperationStats(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records one call.
+	 * @param nanos time the call took
+	 * @param resultSize number of results
+	 * @param rowsScanned number of rows or index entries read
+	 */
+	public void record(long nanos, long resultSize, long rowsScanned) {
+		latency.record(nanos);
+		resultSizeTotal.add(resultSize);
+		rowsScannedTotal.add(rowsScanned);
+	}
+
+	/**
+	 * @return name of the operation
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return histogram of the time per call, in nanoseconds
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public long getCalls() {
+		return latency.getCount();
+	}
+
+	@Override
+	public double getMeanNanos() {
+		return latency.getMean();
+	}
+
+	@Override
+	public long getP50Nanos() {
+		return latency.getPercentile(50);
+	}
+
+	@Override
+	public long getP90Nanos() {
+		return latency.getPercentile(90);
+	}
+
+	@Override
+	public long getP99Nanos() {
+		return latency.getPercentile(99);
+	}
+
+	@Override
+	public long getP999Nanos() {
+		return latency.getPercentile(99.9);
+	}
+
+	@Override
+	public long getMaxNanos() {
+		return latency.getMax();
+	}
+
+	@Override
+	public long getResultSizeTotal() {
+		return resultSizeTotal.sum();
+	}
+
+	@Override
+	public long getRowsScannedTotal() {
+		return rowsScannedTotal.sum();
+	}
+
+	/**
+	 * Returns String containing the calls, latency percentiles in microseconds and totals.
+	 */
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "%s calls: %d mean: %.1fus p50: %.1fus p99: %.1fus p99.9: %.1fus max: %.1fus results: %d rows scanned: %d",
+				name, getCalls(), getMeanNanos() / 1e3, getP50Nanos() / 1e3, getP99Nanos() / 1e3, getP999Nanos() / 1e3,
+				getMaxNanos() / 1e3, getResultSizeTotal(), getRowsScannedTotal());
+	}
+
+}
@@ -0,0 +1,54 @@
+package metrics;
+
+/**
+ * Management interface of the statistics of one operation, as published over JMX
+ * by {@link MetricsRegistry#registerMBeans(String)}. Times are in nanoseconds.
+ */
+public interface OperationStatsMXBean {
+
+	/**
+	 * @return number of calls
+	 */
+	long getCalls();
+
+	/**
+	 * @return mean time per call
+	 */
+	double getMeanNanos();
+
+	/**
+	 * @return median time per call
+	 */
+	long getP50Nanos();
+
+	/**
+	 * @return 90th percentile of the time per call
+	 */
+	long getP90Nanos();
+
+	/**
+	 * @return 99th percentile of the time per call
+	 */
+	long getP99Nanos();
+
+	/**
+	 * @return 99.9th percentile of the time per call
+	 */
+	long getP999Nanos();
+
+	/**
+	 * @return longest time of a call
+	 */
+	long getMaxNanos();
+
+	/**
+	 * @return total number of results over all calls
+	 */
+	long getResultSizeTotal();
+
+	/**
+	 * @return total number of rows or index entries read over all calls
+	 */
+	long getRowsScannedTotal();
+
+}
@@ -0,0 +1,42 @@
+package metrics;
+
+/**
+ * Receives one measurement per query, insert or load phase: how long it took,
+ * how many results it produced and how many rows it read to produce them.
+ * Implementations must accept calls from several threads at once.
+ * {@link #NONE} is used when metrics are off; callers check {@link #isEnabled()}
+ * before reading the clock, so that disabled metrics cost one call per operation.
+ */
+public interface QueryMetrics {
+
+	/**
+	 * Metrics that are off and record nothing.
+	 */
+	QueryMetrics NONE = new QueryMetrics() {
+
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+
+		@Override
+		public void record(String operation, long nanos, long resultSize, long rowsScanned) {
+		}
+
+	};
+
+	/**
+	 * @return true if measurements should be taken and recorded
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Records one call of an operation.
+	 * @param operation name of the query, insert or load phase
+	 * @param nanos time the call took, in nanoseconds
+	 * @param resultSize number of results returned, or of entries inserted or loaded
+	 * @param rowsScanned number of rows or index entries read
+	 */
+	void record(String operation, long nanos, long resultSize, long rowsScanned);
+
+}
@@ -1,30 +1,105 @@
 package movies;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Represents an Actor with name and list of movies the actor has acted in.
+ * Movies are kept as ids in a name dictionary, usually the one shared by all
+ * actors of a database, so each movie name is stored once however many
+ * actors were cast in it. Once an actor has more than a few movies, a sorted
+ * copy of the ids is kept as well so membership is a binary search.
+ * An actor created with a {@link MovieLoader} has its movies decoded on first
+ * use, and may drop them again until movies are added to it. Decoding one
+ * actor may drop the movies of another, so code reading two actors takes what
+ * it needs from both once both are decoded, as {@link #commonMovieIds(Actor)} does.
  */
 public class Actor {
-	
+
 	/**
 	 * Name of actor.
 	 */
 	private String name;
-	
+
+	/**
+	 * Dictionary the movie ids refer to.
+	 */
+	private NameDictionary dictionary;
+
+	/**
+	 * Ids of the movies the actor has acted in, in the order they were added.
+	 */
+	private int[] movieIds = new int[4];
+
+	/**
+	 * Decodes the movies when they are not in memory, null if they always are.
+	 */
+	private MovieLoader loader;
+
+	/**
+	 * True if the movies are in memory.
+	 */
+	private boolean loaded = true;
+
 	/**
-	 * Movies the actor has acted in.
+	 * True if the movies were used since the loader last checked, see {@link #clearReferenced()}.
 	 */
-	private ArrayList <String> moviesCasted = new ArrayList <String> ();
-	
+	private boolean referenced;
+
+	/**
+	 * Number of movies the actor has acted in.
+	 */
+	private int movieCount;
+
+	/**
+	 * Up to this many movies, membership is a linear scan of movieIds.
+	 */
+	private static final int LINEAR_SEARCH_LIMIT = 8;
+
+	/**
+	 * The movie ids in ascending order once there are more than LINEAR_SEARCH_LIMIT
+	 * movies, null before.
+	 */
+	private int[] sortedMovieIds;
+
+	/**
+	 * Movies the actor has acted in, as names.
+	 */
+	private MoviesCast moviesCasted = new MoviesCast();
+
 	/**
-	 * Creates Actor with given name.
+	 * Creates Actor with given name and a dictionary of its own.
 	 * @param name of actor
 	 */
 	public Actor (String name) {
+		this(name, new NameDictionary());
+	}
+
+	/**
+	 * Creates Actor with given name whose movies are kept in the given dictionary.
+	 * @param name of actor
+	 * @param dictionary of movie names
+	 */
+	public Actor (String name, NameDictionary dictionary) {
+		this.name = name;
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Creates Actor with given name whose movies are decoded by the given loader when first used.
+	 * @param name of actor
+	 * @param dictionary of movie names, the one the loader's ids refer to
+	 * @param loader of the movies
+	 */
+	public Actor (String name, NameDictionary dictionary, MovieLoader loader) {
 		this.name = name;
+		this.dictionary = dictionary;
+		this.loader = loader;
+		movieIds = new int[0];
+		loaded = false;
 	}
-	
+
 	/**
 	 * @return the name of the actor
 	 */
@@ -32,18 +107,262 @@ public class Actor {
 		return name;
 	}
 	/**
+	 * Movie names can be added to the returned list; other changes are not supported.
 	 * @return the movies the actor has acted in
 	 */
-	public ArrayList<String> getMoviesCast() {
+	public List<String> getMoviesCast() {
 		return moviesCasted;
 	}
-	
+
+	/**
+	 * @return the dictionary the movie ids refer to
+	 */
+	public NameDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Moves the actor's movies to the given dictionary, translating their ids.
+	 * @param dictionary of movie names
+	 */
+	public void setDictionary(NameDictionary dictionary) {
+		if (dictionary == this.dictionary) {
+			return;
+		}
+		keepMovies();
+		for (int i = 0; i < movieCount; i++) {
+			movieIds[i] = dictionary.id(this.dictionary.name(movieIds[i]));
+		}
+		this.dictionary = dictionary;
+		sortedMovieIds = null;
+		sortMovieIds();
+	}
+
+	/**
+	 * @return number of movies the actor has acted in
+	 */
+	public int getMovieCount() {
+		load();
+		return movieCount;
+	}
+
+	/**
+	 * @param index of the movie, in the order movies were added
+	 * @return dictionary id of the movie
+	 */
+	public int getMovieId(int index) {
+		load();
+		if (index >= movieCount) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + movieCount);
+		}
+		return movieIds[index];
+	}
+
+	/**
+	 * Adds the movie with the given dictionary id, even if the actor already has it.
+	 * @param movieId dictionary id of the movie
+	 */
+	public void addMovieId(int movieId) {
+		keepMovies();
+		if (movieCount == movieIds.length) {
+			movieIds = Arrays.copyOf(movieIds, Math.max(4, movieCount * 2));
+		}
+		movieIds[movieCount++] = movieId;
+		if (sortedMovieIds != null) {
+			// insert in order, sortedMovieIds holds the previous movieCount - 1 ids
+			int pos = Arrays.binarySearch(sortedMovieIds, 0, movieCount - 1, movieId);
+			pos = pos < 0 ? -pos - 1 : pos;
+			if (movieCount > sortedMovieIds.length) {
+				sortedMovieIds = Arrays.copyOf(sortedMovieIds, movieIds.length);
+			}
+			System.arraycopy(sortedMovieIds, pos, sortedMovieIds, pos + 1, movieCount - 1 - pos);
+			sortedMovieIds[pos] = movieId;
+		} else {
+			sortMovieIds();
+		}
+	}
+
+	/**
+	 * Checks membership with a linear scan for a few movies and a binary search otherwise.
+	 * @param movieId dictionary id of a movie
+	 * @return true if the actor has acted in the movie
+	 */
+	public boolean containsMovieId(int movieId) {
+		load();
+		return contains(movieIds, sortedMovieIds, movieCount, movieId);
+	}
+
+	/**
+	 * @param ids movie ids in the order they were added
+	 * @param sorted the same ids in ascending order, null for a few ids
+	 * @param count number of ids in use
+	 * @param movieId dictionary id of a movie
+	 * @return true if movieId is among the ids
+	 */
+	private static boolean contains(int[] ids, int[] sorted, int count, int movieId) {
+		if (count <= LINEAR_SEARCH_LIMIT) {
+			for (int i = 0; i < count; i++) {
+				if (ids[i] == movieId) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return Arrays.binarySearch(sorted, 0, count, movieId) >= 0;
+	}
+
+	/**
+	 * Returns the ids of the movies both actors have acted in, in this actor's order.
+	 * Both actors must use the same dictionary.
+	 * @param other actor
+	 * @return dictionary ids of the common movies
+	 */
+	public int[] commonMovieIds(Actor other) {
+		if (other.dictionary != dictionary) {
+			throw new IllegalArgumentException("actors use different dictionaries");
+		}
+		// decoding the other actor may unload this one, so hold on to this one's ids first;
+		// unloading replaces the arrays rather than clearing them
+		load();
+		int[] ids = movieIds;
+		int count = movieCount;
+		other.load();
+		int[] otherIds = other.movieIds;
+		int[] otherSorted = other.sortedMovieIds;
+		int otherCount = other.movieCount;
+		int[] common = new int[Math.min(count, otherCount)];
+		int size = 0;
+		for (int i = 0; i < count && size < common.length; i++) {
+			if (contains(otherIds, otherSorted, otherCount, ids[i])) {
+				common[size++] = ids[i];
+			}
+		}
+		return Arrays.copyOf(common, size);
+	}
+
+	/**
+	 * @return true if the movies are in memory
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Drops the decoded movies of an actor created with a loader; they are decoded again when
+	 * next used. Actors that had movies added keep them.
+	 * @return true if the movies were dropped
+	 */
+	public boolean unload() {
+		if (loader == null || !loaded) {
+			return false;
+		}
+		loaded = false;
+		movieIds = new int[0];
+		movieCount = 0;
+		sortedMovieIds = null;
+		return true;
+	}
+
+	/**
+	 * Lets a loader keep the actors in use decoded, giving each a second chance before
+	 * unloading it rather than tracking every use.
+	 * @return true if the movies were used since the last call
+	 */
+	public boolean clearReferenced() {
+		boolean wasReferenced = referenced;
+		referenced = false;
+		return wasReferenced;
+	}
+
+	/**
+	 * Decodes the movies if they are not in memory.
+	 */
+	private void load() {
+		if (loader != null) {
+			referenced = true;
+			if (!loaded) {
+				int[] ids = loader.loadMovieIds(this);
+				movieIds = ids;
+				movieCount = ids.length;
+				sortMovieIds();
+				loaded = true;
+				loader.loaded(this);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the movies if needed and keeps them from then on, detaching the actor from its
+	 * loader. Called before the movies are changed.
+	 */
+	public void keepMovies() {
+		load();
+		loader = null;
+	}
+
+	/**
+	 * Builds the sorted copy of the movie ids once there are too many for a linear scan.
+	 */
+	private void sortMovieIds() {
+		if (movieCount > LINEAR_SEARCH_LIMIT) {
+			int[] sorted = Arrays.copyOf(movieIds, movieIds.length);
+			Arrays.sort(sorted, 0, movieCount);
+			sortedMovieIds = sorted;
+		}
+	}
+
 	/**
 	 * Returns String containing the actor's name and the list of movies the actor has acted in.
 	 */
 	@Override
 	public String toString () {
-		return "Name: " + name + " Acted in: " + moviesCasted.toString(); 
+		return "Name: " + name + " Acted in: " + moviesCasted.toString();
 	}
-	
+
+	/**
+	 * List view of the movie ids as names. Membership is checked by id.
+	 */
+	private class MoviesCast extends AbstractList<String> {
+
+		@Override
+		public String get(int index) {
+			return dictionary.name(getMovieId(index));
+		}
+
+		@Override
+		public int size() {
+			return getMovieCount();
+		}
+
+		@Override
+		public void add(int index, String movie) {
+			if (index != getMovieCount()) {
+				throw new UnsupportedOperationException("movies can only be added at the end");
+			}
+			addMovieId(dictionary.id(movie));
+			modCount++;
+		}
+
+		@Override
+		public boolean contains(Object movie) {
+			int movieId = movie instanceof String ? dictionary.find((String) movie) : -1;
+			return movieId >= 0 && containsMovieId(movieId);
+		}
+
+		@Override
+		public int indexOf(Object movie) {
+			int movieId = movie instanceof String ? dictionary.find((String) movie) : -1;
+			if (movieId < 0) {
+				return -1;
+			}
+			for (int i = 0; i < getMovieCount(); i++) {
+				if (movieIds[i] == movieId) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+	}
+
 }
@@ -19,6 +19,11 @@ public class Movie {
 	 * Audience rating.
 	 */
 	private int audienceRating;
+	
+	/**
+	 * Notified of rating changes, may be null.
+	 */
+	private RatingListener listener;
 
 	/**
 	 * Creates Movie with given name, given critic rating, and given audience rating.
@@ -57,14 +62,29 @@ public class Movie {
 	 * @param criticRating the criticRating to set
 	 */
 	public void setCriticRating(int criticRating) {
+		int oldRating = this.criticRating;
 		this.criticRating = Math.max(0, Math.min(100, criticRating));
+		if (listener != null && oldRating != this.criticRating) {
+			listener.ratingChanged(this, true, oldRating, this.criticRating);
+		}
 	}
 
 	/**
 	 * @param audienceRating the audienceRating to set
 	 */
 	public void setAudienceRating(int audienceRating) {
+		int oldRating = this.audienceRating;
 		this.audienceRating = Math.max(0, Math.min(100, audienceRating));
+		if (listener != null && oldRating != this.audienceRating) {
+			listener.ratingChanged(this, false, oldRating, this.audienceRating);
+		}
+	}
+
+	/**
+	 * @param listener to notify when a rating changes, or null for none
+	 */
+	public void setRatingListener(RatingListener listener) {
+		this.listener = listener;
 	}
 	
 	/**
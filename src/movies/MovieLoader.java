@@ -0,0 +1,23 @@
+package movies;
+
+/**
+ * Decodes the movies of actors whose movies are not kept in memory, such as
+ * actors read lazily from a data file. See {@link Actor#Actor(String, NameDictionary, MovieLoader)}.
+ */
+public interface MovieLoader {
+	
+	/**
+	 * Called when the movies of the given actor are needed and not in memory.
+	 * @param actor whose movies to decode
+	 * @return dictionary ids of the actor's movies, in the order they were added
+	 */
+	int[] loadMovieIds(Actor actor);
+	
+	/**
+	 * Called after the given actor's movies were decoded, so the loader can bound the
+	 * number of actors holding decoded movies by unloading some, see {@link Actor#unload()}.
+	 * @param actor whose movies were decoded
+	 */
+	void loaded(Actor actor);
+
+}
@@ -0,0 +1,92 @@
+package movies;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary giving each distinct name a dense int id, so that objects can
+ * refer to a name by id instead of holding their own copy of it.
+ * Ids are never reused or removed. Lookups and new ids may come from
+ * several threads at once.
+ */
+public class NameDictionary {
+
+	/**
+	 * Name to id.
+	 */
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Names by id, valid up to size.
+	 */
+	private volatile String[] names = new String[16];
+
+	/**
+	 * Number of names.
+	 */
+	private volatile int size;
+
+	/**
+	 * Returns the id of the given name, giving it a new id if it has none.
+	 * @param name to look up
+	 * @return id of the name
+	 */
+	public int id(String name) {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		synchronized (this) {
+			id = ids.get(name);
+			if (id == null) {
+				id = size;
+				if (id == names.length) {
+					names = Arrays.copyOf(names, id * 2);
+				}
+				// the name is stored before its id can be seen by other threads
+				names[id] = name;
+				size = id + 1;
+				ids.put(name, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * @param name to look up
+	 * @return id of the name, or -1 if it has none
+	 */
+	public int find(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @param id of a name
+	 * @return the name with the given id
+	 */
+	public String name(int id) {
+		if (id >= size) {
+			throw new IndexOutOfBoundsException("Id: " + id + ", Size: " + size);
+		}
+		return names[id];
+	}
+
+	/**
+	 * Returns the dictionary's copy of the given name, adding the name if needed, so that
+	 * equal names share one String.
+	 * @param name to look up
+	 * @return the shared copy of the name
+	 */
+	public String intern(String name) {
+		return name(id(name));
+	}
+
+	/**
+	 * @return number of names, ids run from 0 to size - 1
+	 */
+	public int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,17 @@
+package movies;
+
+/**
+ * Notified when a rating of a Movie changes, so that data derived from ratings can be kept up to date.
+ */
+public interface RatingListener {
+	
+	/**
+	 * Called after a rating of the given movie changed.
+	 * @param movie whose rating changed
+	 * @param isCritic true if the critic rating changed, false if the audience rating changed
+	 * @param oldRating rating before the change
+	 * @param newRating rating after the change
+	 */
+	void ratingChanged(Movie movie, boolean isCritic, int oldRating, int newRating);
+
+}